@@ -25,8 +25,14 @@ import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
 
+import org.apache.commons.jelly.impl.TagProfiler;
 import org.apache.commons.jelly.parser.XMLParser;
+import org.apache.commons.jelly.parser.XMLParserPool;
 import org.apache.commons.jelly.util.ClassLoaderUtils;
+import org.apache.commons.jelly.util.FlatScope;
+import org.apache.commons.jelly.util.OverlayScope;
+import org.apache.commons.jelly.util.VariableReference;
+import org.apache.commons.jelly.util.WorkerPool;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -53,6 +59,26 @@ public class JellyContext {
     /** Default for DTD calling out to external entities. */
     private static final boolean DEFAULT_ALLOW_DTD_CALLS_TO_EXTERNAL_ENTITIES = false;
 
+    /** Default for looking up undefined variables as System properties */
+    private static final boolean DEFAULT_SYSTEM_PROPERTY_FALLBACK = true;
+
+    /** Whether a JellyContext class uses the default variable lookup */
+    private static final ClassValue DEFAULT_LOOKUP = new ClassValue() {
+        protected Object computeValue(Class type) {
+            return Boolean.valueOf(isDeclaredByJellyContext(type, "getVariable", new Class[] { String.class }));
+        }
+    };
+
+    /** Whether a JellyContext class creates its XMLParsers in the default way */
+    private static final ClassValue DEFAULT_PARSER = new ClassValue() {
+        protected Object computeValue(Class type) {
+            return Boolean.valueOf(isDeclaredByJellyContext(type, "createXMLParser", new Class[0]));
+        }
+    };
+
+    /** The pool of XMLParsers shared by all contexts */
+    private static final XMLParserPool parserPool = new XMLParserPool();
+
     /** String used to denote a script can't be parsed */
     private static final String BAD_PARSE = "Could not parse Jelly script";
 
@@ -79,8 +105,8 @@ public class JellyContext {
     /** Tag libraries found so far */
     private Map taglibs = new Hashtable();
 
-    /** synchronized access to the variables in scope */
-    private Map variables = new Hashtable();
+    /** the variables in scope, synchronized unless flat scopes are used */
+    private Map variables;
 
     /** The parent context */
     private JellyContext parent;
@@ -97,6 +123,24 @@ public class JellyContext {
     /** Should we export tag libraries to our parents context */
     private boolean exportLibraries = true;
 
+    /** Do we keep variables in unsynchronized, array backed scopes? */
+    private boolean flatScopes = false;
+
+    /** Do we look up undefined variables as System properties? */
+    private boolean systemPropertyFallback = JellyContext.DEFAULT_SYSTEM_PROPERTY_FALLBACK;
+
+    /** Whether getVariable(String) has not been overridden */
+    private final boolean defaultLookup = ((Boolean) DEFAULT_LOOKUP.get(getClass())).booleanValue();
+
+    /** The optional cache of compiled scripts */
+    private ScriptCache scriptCache;
+
+    /** The optional pool of threads used to run scripts in the background */
+    private WorkerPool workerPool;
+
+    /** The optional profiler recording the statistics of each tag */
+    private TagProfiler tagProfiler;
+
     /** Should we cache Tag instances, per thread, to reduce object construction overhead? */
     private boolean cacheTags = false;
     
@@ -147,8 +191,14 @@ public class JellyContext {
         this.parent = parent;
         this.rootURL = parent.rootURL;
         this.currentURL = parent.currentURL;
+        this.flatScopes = parent.flatScopes;
+        this.systemPropertyFallback = parent.systemPropertyFallback;
+        this.variables = createVariables();
         this.variables.put("parentScope", parent.variables);
         this.cacheTags = parent.cacheTags;
+        this.scriptCache = parent.scriptCache;
+        this.workerPool = parent.workerPool;
+        this.tagProfiler = parent.tagProfiler;
         this.suppressExpressionExceptions = parent.suppressExpressionExceptions;
         init();
     }
@@ -185,6 +235,9 @@ public class JellyContext {
      * making the System Properties available as <code>systemScope</code>
      */
     private void init() {
+        if (variables == null) {
+            variables = createVariables();
+        }
         variables.put("context",this);
         try {
             variables.put("systemScope", System.getProperties() );
@@ -221,16 +274,16 @@ public class JellyContext {
      *  if the variable could not be found.
      */
     public Object findVariable(String name) {
+        // variable scopes never contain null values
         Object answer = variables.get(name);
-        boolean definedHere = answer != null || variables.containsKey(name);
 
-        if (definedHere) return answer;
+        if (answer != null) return answer;
 
-        if ( answer == null && parent != null ) {
+        if ( parent != null ) {
             answer = parent.findVariable(name);
         }
         // ### this is a hack - remove this when we have support for pluggable Scopes
-        if ( answer == null ) {
+        if ( answer == null && systemPropertyFallback ) {
             answer = getSystemProperty(name);
         }
 
@@ -243,12 +296,12 @@ public class JellyContext {
 
     /** @return the value of the given variable name */
     public Object getVariable(String name) {
+        // variable scopes never contain null values
         Object value = variables.get(name);
-        boolean definedHere = value != null || variables.containsKey(name);
 
-        if (definedHere) return value;
+        if (value != null) return value;
 
-        if ( value == null && isInherit() ) {
+        if ( isInherit() ) {
             JellyContext parentContext = getParent();
             if (parentContext != null) {
                 value = parentContext.getVariable( name );
@@ -256,13 +309,53 @@ public class JellyContext {
         }
 
         // ### this is a hack - remove this when we have support for pluggable Scopes
-        if ( value == null ) {
+        if ( value == null && systemPropertyFallback ) {
             value = getSystemProperty(name);
         }
 
         return value;
     }
 
+    /**
+     * Returns the value of a variable whose name was resolved when the script was compiled.
+     * This gives the same result as {@link #getVariable(String)} but walks the
+     * parent contexts without recursion, consults the System properties at most once
+     * and, for contexts using flat scopes, reuses the slot the variable was last found at.
+     *
+     * @return the value of the given variable
+     */
+    public Object getVariable(VariableReference reference) {
+        JellyContext context = this;
+        // like getVariable(String), System properties are consulted if any context walked allows it
+        boolean fallback = false;
+        while (true) {
+            if ( ! context.defaultLookup ) {
+                // respect subclasses which customise the lookup
+                Object value = context.getVariable( reference.getName() );
+                if ( value == null && fallback ) {
+                    value = getSystemProperty(reference.getName());
+                }
+                return value;
+            }
+            fallback |= context.systemPropertyFallback;
+            Map scope = context.variables;
+            Object value = (scope instanceof FlatScope)
+                ? ((FlatScope) scope).get(reference)
+                : scope.get(reference.getName());
+            if (value != null) {
+                return value;
+            }
+            if ( ! context.isInherit() || context.getParent() == null ) {
+                break;
+            }
+            context = context.getParent();
+        }
+        if ( fallback ) {
+            return getSystemProperty(reference.getName());
+        }
+        return null;
+    }
+
     /**
      * Get a system property and handle security exceptions
      * @param name the name of the property to retrieve
@@ -386,6 +479,19 @@ public class JellyContext {
         return answer;
     }
 
+    /**
+     * A factory method to create a new child context of the current context
+     * in which the entries of the given read only Map are visible as variables.
+     * Unlike {@link #newJellyContext(Map)} the Map is not copied, so it may be a
+     * lazy view over values held elsewhere. Variables set in the new context
+     * are held in its own scope and hide the entries of the same name.
+     */
+    public JellyContext newJellyContextOverlay(Map overlay) {
+        JellyContext answer = createChildContext();
+        answer.variables = new OverlayScope(answer.variables, overlay);
+        return answer;
+    }
+
     /**
      * A factory method to create a new child context of the
      * current context.
@@ -394,6 +500,16 @@ public class JellyContext {
         return createChildContext();
     }
     
+    /**
+     * Factory method to create the Map which holds the variables of this scope.
+     */
+    private Map createVariables() {
+        if (flatScopes) {
+            return new FlatScope();
+        }
+        return new Hashtable();
+    }
+
     /** Clears variables set by Tags.
      * @see #clearVariables()
       */
@@ -519,6 +635,7 @@ public class JellyContext {
         Script script = null;
         try {
             script = parser.parse(in);
+            releaseXMLParser(parser);
         } catch (IOException e) {
             throw new JellyException(JellyContext.BAD_PARSE, e);
         } catch (SAXException e) {
@@ -539,6 +656,7 @@ public class JellyContext {
         Script script = null;
         try {
             script = parser.parse(url.toString());
+            releaseXMLParser(parser);
         } catch (IOException e) {
             throw new JellyException(JellyContext.BAD_PARSE, e);
         } catch (SAXException e) {
@@ -559,6 +677,7 @@ public class JellyContext {
         Script script = null;
         try {
             script = parser.parse(source);
+            releaseXMLParser(parser);
         } catch (IOException e) {
             throw new JellyException(JellyContext.BAD_PARSE, e);
         } catch (SAXException e) {
@@ -569,14 +688,40 @@ public class JellyContext {
     }
 
     /**
-     * @return a thread pooled XMLParser to avoid the startup overhead
-     * of the XMLParser
+     * @return a pooled XMLParser to avoid the startup overhead
+     * of the XMLParser. Parsers are only pooled if {@link #createXMLParser()}
+     * has not been overridden.
+     * @see #releaseXMLParser(XMLParser)
      */
     protected XMLParser getXMLParser() {
-        XMLParser parser = createXMLParser();
+        if ( ! ((Boolean) DEFAULT_PARSER.get(getClass())).booleanValue() ) {
+            return createXMLParser();
+        }
+        ClassLoader loader = getClassLoader();
+        XMLParser parser = parserPool.borrowParser(loader, allowDtdToCallExternalEntities);
+        if (parser == null) {
+            parser = createXMLParser();
+            parserPool.adopt(parser, loader);
+        }
         return parser;
     }
 
+    /**
+     * Returns a parser obtained from {@link #getXMLParser()} once it has
+     * successfully parsed a script. Parsers which fail are not reused.
+     */
+    protected void releaseXMLParser(XMLParser parser) {
+        parserPool.releaseParser(parser);
+    }
+
+    /**
+     * @return the pool of XMLParsers shared by all contexts, which can be
+     * used to monitor how often parsers are reused
+     */
+    public static XMLParserPool getXMLParserPool() {
+        return parserPool;
+    }
+
     /**
      * Factory method to allow JellyContext implementations to overload how an XMLParser
      * is created - such as to overload what the default ExpressionFactory should be.
@@ -683,7 +828,11 @@ public class JellyContext {
      */
     public JellyContext runScript(URL url, XMLOutput output,
                           boolean export, boolean inherit) throws JellyException {
-        return runScript(new InputSource(url.toString()), output, export, inherit);
+        if (scriptCache == null) {
+            return runScript(new InputSource(url.toString()), output, export, inherit);
+        }
+        Script script = scriptCache.getScript(url, this);
+        return runScript(script, new InputSource(url.toString()), output, export, inherit);
     }
 
     /**
@@ -694,7 +843,16 @@ public class JellyContext {
     public JellyContext runScript(InputSource source, XMLOutput output,
                           boolean export, boolean inherit) throws JellyException {
         Script script = compileScript(source);
+        return runScript(script, source, output, export, inherit);
+    }
 
+    /**
+     * Runs the given compiled script which was loaded from the given InputSource.
+     *
+     * @return the new child context that was used to run the script
+     */
+    private JellyContext runScript(Script script, InputSource source, XMLOutput output,
+                          boolean export, boolean inherit) throws JellyException {
         URL newJellyContextURL = null;
         try {
             newJellyContextURL = getJellyContextURL(source);
@@ -843,6 +1001,117 @@ public class JellyContext {
         this.cacheTags = cacheTags;
     }
 
+    /**
+     * Returns the cache of compiled scripts used by this context, or null if
+     * scripts are parsed every time they are run.
+     *
+     * @return the script cache, which may be null
+     */
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    /**
+     * Sets the cache of compiled scripts used when running scripts from a URL or File,
+     * such as by the <code>include</code> and <code>import</code> tags.
+     * Child contexts created after this call share the same cache.
+     *
+     * @param scriptCache the cache to use, or null to disable caching
+     */
+    public void setScriptCache(ScriptCache scriptCache) {
+        this.scriptCache = scriptCache;
+    }
+
+    /**
+     * Returns the pool of threads used to run scripts in the background, such as
+     * the body of the <code>thread</code> tag, or null if a new thread is
+     * started each time.
+     *
+     * @return the worker pool, which may be null
+     */
+    public WorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
+    /**
+     * Sets the pool of threads used to run scripts in the background.
+     * Child contexts created after this call share the same pool.
+     *
+     * @param workerPool the pool to use, or null to start a new thread each time
+     */
+    public void setWorkerPool(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * Returns the profiler recording how often and for how long each tag
+     * runs, or null if profiling is disabled.
+     *
+     * @return the tag profiler, which may be null
+     */
+    public TagProfiler getTagProfiler() {
+        return tagProfiler;
+    }
+
+    /**
+     * Sets the profiler recording how often and for how long each tag runs.
+     * Child contexts created after this call share the same profiler.
+     *
+     * @param tagProfiler the profiler to use, or null to disable profiling
+     */
+    public void setTagProfiler(TagProfiler tagProfiler) {
+        this.tagProfiler = tagProfiler;
+    }
+
+    /**
+     * Returns whether this context and the child contexts created from it keep
+     * their variables in unsynchronized, array backed {@link FlatScope}s.
+     *
+     * @return whether flat scopes are enabled
+     */
+    public boolean isFlatScopes() {
+        return flatScopes;
+    }
+
+    /**
+     * Sets whether this context and the child contexts created from it keep
+     * their variables in unsynchronized, array backed {@link FlatScope}s.
+     * Flat scopes avoid locking and hashing on every variable access, which helps
+     * loop heavy scripts, but must only be used when a context is confined to one thread.
+     * This should be called before any script is run in this context.
+     *
+     * @param flatScopes Whether flat scopes should be enabled or disabled.
+     */
+    public void setFlatScopes(boolean flatScopes) {
+        if (this.flatScopes != flatScopes) {
+            this.flatScopes = flatScopes;
+            Map oldVariables = variables;
+            variables = createVariables();
+            variables.putAll(oldVariables);
+        }
+    }
+
+    /**
+     * Returns whether variables which are not defined in this context or its parents
+     * are looked up as System properties. This is enabled by default.
+     *
+     * @return whether the System property fallback is enabled
+     */
+    public boolean isSystemPropertyFallback() {
+        return systemPropertyFallback;
+    }
+
+    /**
+     * Sets whether variables which are not defined in this context or its parents
+     * are looked up as System properties. Disabling this avoids a System property
+     * lookup for every undefined variable. Child contexts inherit this setting.
+     *
+     * @param systemPropertyFallback Whether the fallback should be enabled or disabled.
+     */
+    public void setSystemPropertyFallback(boolean systemPropertyFallback) {
+        this.systemPropertyFallback = systemPropertyFallback;
+    }
+
     /**
      * Returns whether we export tag libraries to our parents context
      * @return boolean
@@ -973,6 +1242,23 @@ public class JellyContext {
         return new URL(urlText);
     }
 
+    /**
+     * @return true if the given method is not overridden by the given subclass
+     * of JellyContext
+     */
+    private static boolean isDeclaredByJellyContext(Class type, String name, Class[] parameterTypes) {
+        for (Class c = type; c != null && c != JellyContext.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod(name, parameterTypes);
+                return false;
+            }
+            catch (NoSuchMethodException e) {
+                // keep looking
+            }
+        }
+        return true;
+    }
+
     /**
      * Strips off the name of a script to create a new context URL
      */
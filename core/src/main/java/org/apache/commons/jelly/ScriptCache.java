@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly;
+
+import java.net.URL;
+
+/**
+ * <p><code>ScriptCache</code> holds compiled {@link Script}s so that scripts which
+ * are run repeatedly, such as those included from inside a loop, are only parsed
+ * and compiled once.</p>
+ *
+ * <p>A cache is registered on a {@link JellyContext} and is inherited by its child
+ * contexts; it is used by the <code>runScript()</code> methods which take a URL or
+ * a File and therefore by the core <code>include</code> and <code>import</code> tags.
+ * Implementations must be thread safe.</p>
+ *
+ * @see org.apache.commons.jelly.impl.DefaultScriptCache
+ * @version $Revision$
+ */
+public interface ScriptCache {
+
+    /**
+     * Returns the compiled script for the given URL, compiling it with the
+     * given context and caching the result if it is not already available.
+     *
+     * @param url the resolved URL of the script
+     * @param context the context used to parse the script if required
+     * @return the compiled script
+     */
+    public Script getScript(URL url, JellyContext context) throws JellyException;
+
+    /**
+     * Discards all the cached scripts
+     */
+    public void clear();
+
+}
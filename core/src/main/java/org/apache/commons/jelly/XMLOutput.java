@@ -21,11 +21,6 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -248,6 +243,33 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
         comment(ch, 0, ch.length);
     }
 
+    /**
+     * Outputs the given characters as a piece of valid text in the
+     * XML event stream. This avoids converting constant text, such as
+     * the static text of a script, to a character array on every call.
+     * Any special XML characters should come out properly escaped.
+     */
+    public void write(char[] ch, int start, int length) throws SAXException {
+        characters(ch, start, length);
+    }
+
+    /**
+     * Outputs the given characters as a piece of CDATA in the
+     * XML event stream.
+     */
+    public void writeCDATA(char[] ch, int start, int length) throws SAXException {
+        startCDATA();
+        characters(ch, start, length);
+        endCDATA();
+    }
+
+    /**
+     * Outputs the given characters as a comment to the XML stream.
+     */
+    public void writeComment(char[] ch, int start, int length) throws SAXException {
+        comment(ch, start, length);
+    }
+
     /**
      * Helper method for outputting a start element event
      * for an element in no namespace.
@@ -914,22 +936,36 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
         return answer;
     }
 
+    /**
+     * Keeps track of the namespace prefixes which are in scope so that
+     * prefix mappings are only passed on when they are new.
+     * The prefixes of all levels are held in flat arrays, with the start of
+     * each level recorded, so that no objects are created per element.
+     */
     private final class NamespaceStack {
-        /** A list of maps: Each map contains prefix->uri mapping */
-        private List nsStack;
+        /** the declared prefixes, innermost last */
+        private String[] prefixes = new String[16];
+
+        /** the URIs of the declared prefixes */
+        private String[] uris = new String[16];
+
+        /** the number of declared prefixes */
+        private int count;
+
+        /** the index of the first prefix of each level */
+        private int[] levels = new int[16];
+
+        /** the current level, 0 being outside of the root element */
+        private int depth;
 
         private NamespaceStack() {
-            this.nsStack = new ArrayList();
-            this.nsStack.add(new HashMap());
         }
 
         private boolean isRootNodeDefaultNs(String prefix, String uri) {
-            return ("".equals(prefix) && "".equals(uri) && nsStack.size() == 1);
+            return ("".equals(prefix) && "".equals(uri) && depth == 0);
         }
 
         public void pushNamespace(String prefix, String uri) throws SAXException {
-            Map prefixUriMap;
-
             if (prefix == null) {
                 prefix = "";
             }
@@ -943,67 +979,56 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
                 return;
             }
 
-
             // Lets find out if we already declared this same prefix,
-            // if not declare in current depth map (the first of list)
+            // if not declare in the current level
             // and call contentHandler.startPrefixMapping(prefix, uri);
-            boolean isNew = true;
-            for (Iterator iter = nsStack.iterator(); iter.hasNext();) {
-                prefixUriMap = (Map) iter.next();
-                if (prefixUriMap.containsKey(prefix)) {
-                    if (uri.equals(prefixUriMap.get(prefix))) {
-                        // Its an active namespace already
-                        // System.out.println(">>>"+XMLOutput.this.hashCode()+">NamespaceStack.pushNamespace() IS NOT NEW prefix="+prefix+",uri="+uri);
-                        isNew = false;
-                    }
-                    // We found it in stack
-                    // If it was exactly the same, we won't bother
-                    break;
+            int index = indexOf(prefix, 0);
+            if (index >= 0) {
+                if (uri.equals(uris[index])) {
+                    // Its an active namespace already
+                    return;
                 }
-            }
-
-            if (isNew) {
-                // not declared sometime before
-                prefixUriMap = (Map) nsStack.get(0); // Current depth map
                 // Sanity check: Don't let two prefixes for different uris in
                 // same depth
-                if (prefixUriMap.containsKey(prefix)) {
-                    if (!uri.equals(prefixUriMap.get(prefix))) {
-                        throw new SAXException("Cannot set same prefix to different URI in same node: trying to add prefix \""
-                                + prefix + "\" for uri \""+uri+"\" whereas the declared ones are " + prefixUriMap);
-                    }
-                } else {
-                    prefixUriMap.put(prefix, uri);
-
-                    // To avoid setting xmlns="" for top node (not very nice :D)
-                    // We need to specifically check this condition
-                    if (!isRootNodeDefaultNs(prefix, uri)) {
-//                        System.out.println(">>>"+XMLOutput.this.hashCode()+">NamespaceStack.pushNamespace() prefix="+prefix+",uri="+uri);
-                        contentHandler.startPrefixMapping(prefix, uri);
-                    }
+                if (index >= levels[depth]) {
+                    throw new SAXException("Cannot set same prefix to different URI in same node: trying to add prefix \""
+                            + prefix + "\" for uri \""+uri+"\" whereas the declared ones are " + currentLevelToString());
                 }
             }
+
+            if (count == prefixes.length) {
+                prefixes = grow(prefixes);
+                uris = grow(uris);
+            }
+            prefixes[count] = prefix;
+            uris[count] = uri;
+            count++;
+
+            // To avoid setting xmlns="" for top node (not very nice :D)
+            // We need to specifically check this condition
+            if (!isRootNodeDefaultNs(prefix, uri)) {
+                contentHandler.startPrefixMapping(prefix, uri);
+            }
         }
 
         public void popNamespaces() throws SAXException {
-            Map prefixUriMap = (Map)nsStack.get(0);
-            for (Iterator iter = prefixUriMap.keySet().iterator();iter.hasNext();) {
-                String prefix = (String)iter.next();
-                String uri = (String) prefixUriMap.get(prefix);
-                iter.remove();
+            int start = levels[depth];
+            while (count > start) {
+                count--;
+                String prefix = prefixes[count];
+                String uri = uris[count];
+                prefixes[count] = null;
+                uris[count] = null;
 
                 // If we havent called startPrefixMapping for root node if we wanted to avoid xmlns=""
                 // We aren't going to call endPrefixMapping neither
                 if (!isRootNodeDefaultNs(prefix, uri)) {
-//                    System.out.println(">>>"+XMLOutput.this.hashCode()+">NamespaceStack.popNamespaces() prefix="+prefix);
                     contentHandler.endPrefixMapping(prefix);
                 }
             }
         }
 
         public void popNamespace(String prefix) throws SAXException {
-            Map prefixUriMap = (Map)nsStack.get(0);
-
             if (prefix == null) {
                 prefix = "";
             }
@@ -1014,13 +1039,17 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
                 return;
             }
 
-            if (prefixUriMap.containsKey(prefix)) {
-                String uri = (String) prefixUriMap.get(prefix);
-                prefixUriMap.remove(prefix);
+            int index = indexOf(prefix, levels[depth]);
+            if (index >= 0) {
+                String uri = uris[index];
+                count--;
+                System.arraycopy(prefixes, index + 1, prefixes, index, count - index);
+                System.arraycopy(uris, index + 1, uris, index, count - index);
+                prefixes[count] = null;
+                uris[count] = null;
                 // If we havent called startPrefixMapping for root node if we wanted to avoid xmlns=""
                 // We aren't going to call endPrefixMapping neither
                 if (!isRootNodeDefaultNs(prefix, uri)) {
-//                    System.out.println(">>>"+XMLOutput.this.hashCode()+">NamespaceStack.popNamespace() prefix="+prefix);
                     contentHandler.endPrefixMapping(prefix);
                 }
             }/* else {
@@ -1030,11 +1059,55 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
         }
 
         public void decreaseLevel() {
-            nsStack.remove(0);
+            // any prefixes left in the level are discarded
+            int start = levels[depth];
+            for (int i = start; i < count; i++) {
+                prefixes[i] = null;
+                uris[i] = null;
+            }
+            count = start;
+            depth--;
         }
 
         public void increaseLevel() {
-            nsStack.add(0, new HashMap());
+            depth++;
+            if (depth == levels.length) {
+                int[] newLevels = new int[depth * 2];
+                System.arraycopy(levels, 0, newLevels, 0, depth);
+                levels = newLevels;
+            }
+            levels[depth] = count;
+        }
+
+        /**
+         * @return the index of the innermost declaration of the prefix
+         * at or above the given index or -1 if it is not declared
+         */
+        private int indexOf(String prefix, int start) {
+            for (int i = count - 1; i >= start; i--) {
+                String declared = prefixes[i];
+                if (declared == prefix || declared.equals(prefix)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private String[] grow(String[] array) {
+            String[] answer = new String[array.length * 2];
+            System.arraycopy(array, 0, answer, 0, array.length);
+            return answer;
+        }
+
+        private String currentLevelToString() {
+            StringBuilder buffer = new StringBuilder("{");
+            for (int i = levels[depth]; i < count; i++) {
+                if (i > levels[depth]) {
+                    buffer.append(", ");
+                }
+                buffer.append(prefixes[i]).append('=').append(uris[i]);
+            }
+            return buffer.append('}').toString();
         }
     }
 }
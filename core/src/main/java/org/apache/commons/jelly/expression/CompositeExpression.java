@@ -16,6 +16,7 @@
  */
 package org.apache.commons.jelly.expression;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -26,6 +27,9 @@ import org.apache.commons.collections.iterators.SingletonIterator;
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.XMLOutput;
+
+import org.xml.sax.SAXException;
 
 /**
  * <p><code>CompositeExpression</code> is a Composite expression made up of several
@@ -39,6 +43,9 @@ public class CompositeExpression extends ExpressionSupport {
     /** The expressions */
     private List expressions;
 
+    /** The compiled form of the expressions, created on demand */
+    private volatile Parts parts;
+
     public CompositeExpression() {
         this.expressions = new ArrayList();
     }
@@ -212,18 +219,21 @@ public class CompositeExpression extends ExpressionSupport {
 
     /**
      * @return the Expression objects that make up this
-     * composite expression
+     * composite expression. Changes made through the returned List
+     * are seen by this expression.
      */
     public List getExpressions() {
-        return expressions;
+        return new ExpressionList();
     }
 
     /**
      * Sets the Expression objects that make up this
-     * composite expression
+     * composite expression. Later changes should be made through
+     * {@link #getExpressions()} rather than to the given List.
      */
     public void setExpressions(List expressions) {
         this.expressions = expressions;
+        this.parts = null;
     }
 
     /**
@@ -231,6 +241,7 @@ public class CompositeExpression extends ExpressionSupport {
      */
     public void addExpression(Expression expression) {
         expressions.add(expression);
+        this.parts = null;
     }
 
     /**
@@ -260,16 +271,58 @@ public class CompositeExpression extends ExpressionSupport {
 
     // inherit javadoc from interface
     public String evaluateAsString(JellyContext context) {
-        StringBuilder buffer = new StringBuilder();
-        for (Iterator iter = expressions.iterator(); iter.hasNext(); ) {
-            Expression expression = (Expression) iter.next();
-            String value = expression.evaluateAsString(context);
-            if ( value != null ) {
-                buffer.append( value );
+        Parts parts = getParts();
+        Expression[] expressions = parts.expressions;
+        char[][] constants = parts.constants;
+        String[] values = new String[expressions.length];
+        int length = parts.constantLength;
+        for (int i = 0; i < expressions.length; i++) {
+            if ( constants[i] == null ) {
+                String value = expressions[i].evaluateAsString(context);
+                if ( value != null ) {
+                    values[i] = value;
+                    length += value.length();
+                }
+            }
+        }
+        StringBuilder buffer = new StringBuilder(length);
+        for (int i = 0; i < expressions.length; i++) {
+            if ( constants[i] != null ) {
+                buffer.append( constants[i] );
+            }
+            else if ( values[i] != null ) {
+                buffer.append( values[i] );
             }
         }
         return buffer.toString();
+    }
 
+    /**
+     * Evaluates this expression and writes the result to the given output
+     * one part at a time, without building the whole String first.
+     * The constant text is written straight from its character array.
+     *
+     * @param context evaluate the expression against this context
+     * @param output the output to write the text to
+     */
+    public void write(JellyContext context, XMLOutput output) throws SAXException {
+        Parts parts = getParts();
+        Expression[] expressions = parts.expressions;
+        char[][] constants = parts.constants;
+        for (int i = 0; i < expressions.length; i++) {
+            char[] constant = constants[i];
+            if ( constant != null ) {
+                if ( constant.length > 0 ) {
+                    output.characters( constant, 0, constant.length );
+                }
+            }
+            else {
+                String value = expressions[i].evaluateAsString(context);
+                if ( value != null && value.length() > 0 ) {
+                    output.write( value );
+                }
+            }
+        }
     }
 
     // inherit javadoc from interface
@@ -282,4 +335,86 @@ public class CompositeExpression extends ExpressionSupport {
             return new SingletonIterator( value );
         }
     }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the compiled form of the current expressions, creating it
+     * if the expressions have changed
+     */
+    private Parts getParts() {
+        Parts answer = parts;
+        if ( answer == null ) {
+            answer = new Parts(expressions);
+            parts = answer;
+        }
+        return answer;
+    }
+
+    /**
+     * A view of the expressions which discards the compiled form
+     * whenever the expressions are changed
+     */
+    private class ExpressionList extends AbstractList {
+        public Object get(int index) {
+            return expressions.get(index);
+        }
+
+        public int size() {
+            return expressions.size();
+        }
+
+        public Object set(int index, Object element) {
+            Object answer = expressions.set(index, element);
+            parts = null;
+            return answer;
+        }
+
+        public void add(int index, Object element) {
+            expressions.add(index, element);
+            parts = null;
+        }
+
+        public Object remove(int index) {
+            Object answer = expressions.remove(index);
+            parts = null;
+            return answer;
+        }
+    }
+
+    /**
+     * The expressions held in arrays, with the text of any constant
+     * expressions converted to characters once up front.
+     */
+    private static final class Parts {
+
+        /** the expressions */
+        final Expression[] expressions;
+
+        /** the text of each constant expression or null for dynamic expressions */
+        final char[][] constants;
+
+        /** the total length of the constant text */
+        final int constantLength;
+
+        Parts(List list) {
+            int size = list.size();
+            expressions = new Expression[size];
+            constants = new char[size][];
+            int length = 0;
+            for (int i = 0; i < size; i++) {
+                Expression expression = (Expression) list.get(i);
+                expressions[i] = expression;
+                if ( expression instanceof ConstantExpression ) {
+                    Object value = ((ConstantExpression) expression).getValue();
+                    if ( value instanceof String ) {
+                        constants[i] = ((String) value).toCharArray();
+                        length += constants[i].length;
+                    }
+                }
+            }
+            constantLength = length;
+        }
+    }
 }
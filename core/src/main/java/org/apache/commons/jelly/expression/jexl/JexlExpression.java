@@ -45,6 +45,16 @@ public class JexlExpression extends ExpressionSupport {
     /** The Log to which logging calls will be made. */
     private static final Log log = LogFactory.getLog(JexlExpression.class);
 
+    /**
+     * The JexlContext of the current thread, which is bound to the JellyContext
+     * being evaluated so that no objects are allocated per evaluation
+     */
+    private static final ThreadLocal jexlContexts = new ThreadLocal() {
+        protected Object initialValue() {
+            return new JellyJexlContext(null);
+        }
+    };
+
     /** The Jexl expression object */
     private Expression expression;
 
@@ -63,8 +73,10 @@ public class JexlExpression extends ExpressionSupport {
     }
 
     public Object evaluate(JellyContext context) {
+        JellyJexlContext jexlContext = (JellyJexlContext) jexlContexts.get();
+        // expressions may be evaluated recursively, so restore the outer context afterwards
+        JellyContext previous = jexlContext.bind( context );
         try {
-            JexlContext jexlContext = new JellyJexlContext( context );
             if (log.isDebugEnabled()) {
                 log.debug("Evaluating EL: " + expression.getExpression());
             }
@@ -77,28 +89,54 @@ public class JexlExpression extends ExpressionSupport {
             return value;
         }
         catch (Exception e) {
-        	if (context.isSuppressExpressionExceptions()) {
-	            log.warn("Caught exception evaluating: " + expression + ". Reason: " + e, e);
-	            return null;
-        	} else {
-        		if (e instanceof RuntimeException)
-        			throw (RuntimeException)e;
-        		if (e instanceof IllegalStateException)
-        			throw (IllegalStateException )e;
-            	throw (IllegalStateException)new IllegalStateException (e.getMessage()).initCause(e);
-        	}
+            return handleException(e, context);
+        }
+        finally {
+            jexlContext.bind( previous );
         }
     }
+
+    /**
+     * @return the Jexl expression object
+     */
+    protected Expression getJexlExpression() {
+        return expression;
+    }
+
+    /**
+     * Handles an exception thrown while evaluating this expression, either
+     * returning null if exceptions are suppressed or rethrowing it unchecked.
+     */
+    protected Object handleException(Exception e, JellyContext context) {
+    	if (context.isSuppressExpressionExceptions()) {
+            log.warn("Caught exception evaluating: " + expression + ". Reason: " + e, e);
+            return null;
+    	} else {
+    		if (e instanceof RuntimeException)
+    			throw (RuntimeException)e;
+    		if (e instanceof IllegalStateException)
+    			throw (IllegalStateException )e;
+        	throw (IllegalStateException)new IllegalStateException (e.getMessage()).initCause(e);
+    	}
+    }
 }
 
 class JellyJexlContext implements JexlContext {
 
-    private Map vars;
+    private JellyMap vars;
 
     JellyJexlContext(JellyContext context) {
         this.vars = new JellyMap( context );
     }
 
+    /**
+     * Binds this JexlContext to the given JellyContext
+     * @return the previously bound JellyContext
+     */
+    JellyContext bind(JellyContext context) {
+        return vars.bind( context );
+    }
+
     public void setVars(Map vars) {
         this.vars.clear();
         this.vars.putAll( vars );
@@ -118,6 +156,16 @@ class JellyMap implements Map {
         this.context = context;
     }
 
+    /**
+     * Binds this map to the given JellyContext
+     * @return the previously bound JellyContext
+     */
+    JellyContext bind(JellyContext context) {
+        JellyContext previous = this.context;
+        this.context = context;
+        return previous;
+    }
+
     public Object get(Object key) {
         return context.getVariable( (String) key );
     }
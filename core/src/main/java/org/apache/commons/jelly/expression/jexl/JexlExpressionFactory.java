@@ -17,12 +17,17 @@
 
 package org.apache.commons.jelly.expression.jexl;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.expression.Expression;
 import org.apache.commons.jelly.expression.ExpressionSupport;
 import org.apache.commons.jelly.expression.ExpressionFactory;
+import org.apache.commons.jelly.util.VariableReference;
 
 //import org.apache.commons.jexl.resolver.FlatResolver;
 
@@ -38,6 +43,22 @@ import org.apache.commons.jelly.expression.ExpressionFactory;
 
 public class JexlExpressionFactory implements ExpressionFactory {
 
+    /** The maximum number of parsed expressions which are cached */
+    private static final int MAX_CACHED_EXPRESSIONS = 10000;
+
+    /**
+     * Parsed expressions shared by all factories, keyed by their text, so that an
+     * expression repeated throughout a script is only parsed once. JexlExpressions
+     * are immutable and thread safe so they can be shared by many scripts. Once
+     * full, the least recently used expression is discarded for each new one.
+     */
+    private static final Map expressionCache = Collections.synchronizedMap(
+        new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > MAX_CACHED_EXPRESSIONS;
+            }
+        });
+
     /** whether we should allow Ant-style expressions, using dots as part of variable name */
     private boolean supportAntVariables = true;
 
@@ -56,14 +77,25 @@ public class JexlExpressionFactory implements ExpressionFactory {
         return new JexlExpression( expr );
 */
 
-        Expression jexlExpression = null;
-        try {
-            // this method really does throw Exception
-            jexlExpression = new JexlExpression(
-            org.apache.commons.jexl.ExpressionFactory.createExpression(text)
-            );
-        } catch (Exception e) {
-            throw new JellyException("Unable to create expression: " + text, e);
+        Expression jexlExpression = (Expression) expressionCache.get(text);
+        if (jexlExpression == null) {
+            try {
+                // this method really does throw Exception
+                org.apache.commons.jexl.Expression expression =
+                    org.apache.commons.jexl.ExpressionFactory.createExpression(text);
+
+                // plain variables and property paths are evaluated without the interpreter
+                String[] path = PropertyPathExpression.parsePath(text.trim());
+                if (path != null) {
+                    jexlExpression = new PropertyPathExpression(expression, path);
+                }
+                else {
+                    jexlExpression = new JexlExpression(expression);
+                }
+            } catch (Exception e) {
+                throw new JellyException("Unable to create expression: " + text, e);
+            }
+            expressionCache.put(text, jexlExpression);
         }
 
         if ( isSupportAntVariables() && isValidAntVariableName(text) ) {
@@ -110,21 +142,24 @@ public class JexlExpressionFactory implements ExpressionFactory {
         return true;
     }
 
-    private class ExpressionSupportLocal extends ExpressionSupport {
+    private static class ExpressionSupportLocal extends ExpressionSupport {
 
         protected Expression jexlExpression = null;
         protected String text = null;
+        /** the Ant style variable name, resolved once */
+        private final VariableReference variable;
 
         public ExpressionSupportLocal(Expression jexlExpression, String text) {
             this.jexlExpression = jexlExpression;
             this.text = text;
+            this.variable = new VariableReference(text);
         }
 
         public Object evaluate(JellyContext context) {
             Object answer = jexlExpression.evaluate(context);
 
             if ( answer == null ) {
-                answer = context.getVariable(text);
+                answer = context.getVariable(variable);
             }
 
             return answer;
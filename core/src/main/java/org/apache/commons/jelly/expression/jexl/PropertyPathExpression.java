@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.expression.jexl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.util.VariableReference;
+
+import org.apache.commons.jexl.Expression;
+import org.apache.commons.jexl.parser.ASTArrayAccess;
+import org.apache.commons.jexl.util.AbstractExecutor;
+import org.apache.commons.jexl.util.BooleanPropertyExecutor;
+import org.apache.commons.jexl.util.GetExecutor;
+import org.apache.commons.jexl.util.PropertyExecutor;
+import org.apache.commons.jexl.util.introspection.Introspector;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p><code>PropertyPathExpression</code> evaluates expressions which are a plain
+ * variable name or a path of properties, such as <code>${customer}</code> or
+ * <code>${customer.address.city}</code>, without going through the Jexl interpreter.</p>
+ *
+ * <p>The semantics are those of Jexl: Maps are accessed with <code>get()</code>,
+ * Lists and arrays by index, and other beans with the first of a
+ * <code>getName()</code>, <code>isName()</code> or <code>get("name")</code> method,
+ * and when a step yields null the dotted name up to that step is looked up as a variable.
+ * The getters of each class are cached in a <code>ClassValue</code>, so that they
+ * are discarded along with the class, and each step refers weakly to the getter
+ * it last used, which is looked up again when a different class is encountered.</p>
+ *
+ * @version $Revision$
+ */
+final class PropertyPathExpression extends JexlExpression {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(PropertyPathExpression.class);
+
+    /** Finds getters using the same rules as Jexl */
+    private static final Introspector introspector = new Introspector(log);
+
+    /** The getters of each class, keyed by property name */
+    private static final ClassValue GETTERS = new ClassValue() {
+        protected Object computeValue(Class type) {
+            return new ConcurrentHashMap();
+        }
+    };
+
+    /** Marks a property which has no getter */
+    private static final Object NO_GETTER = new Object();
+
+    /** Jexl reserved words which cannot be used as plain identifiers */
+    private static final Set RESERVED_WORDS = new HashSet();
+
+    static {
+        String[] words = {
+            "empty", "size", "or", "and", "eq", "ne", "lt", "gt", "le", "ge", "div", "mod",
+            "not", "null", "true", "false", "if", "else", "while", "foreach", "in", "new"
+        };
+        for (int i = 0; i < words.length; i++) {
+            RESERVED_WORDS.add(words[i]);
+        }
+    }
+
+    /** the variable holding the root object */
+    private final VariableReference root;
+
+    /** the property steps taken from the root */
+    private final Step[] steps;
+
+    /**
+     * @return the names of the variable and properties of the given expression text,
+     * or null if it is not a simple property path
+     */
+    static String[] parsePath(String text) {
+        int length = text.length();
+        if (length == 0) {
+            return null;
+        }
+        int count = 1;
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) == '.') {
+                count++;
+            }
+        }
+        String[] names = new String[count];
+        int start = 0;
+        for (int n = 0; n < count; n++) {
+            int end = text.indexOf('.', start);
+            if (end < 0) {
+                end = length;
+            }
+            String name = text.substring(start, end);
+            if (!isIdentifier(name) || RESERVED_WORDS.contains(name)) {
+                return null;
+            }
+            names[n] = name;
+            start = end + 1;
+        }
+        return names;
+    }
+
+    private static boolean isIdentifier(String name) {
+        if (name.length() == 0) {
+            return false;
+        }
+        for (int i = 0, size = name.length(); i < size; i++) {
+            char ch = name.charAt(i);
+            boolean letter = (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_';
+            if (!letter && (i == 0 || ch < '0' || ch > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    PropertyPathExpression(Expression expression, String[] names) {
+        super(expression);
+        this.root = new VariableReference(names[0]);
+        this.steps = new Step[names.length - 1];
+        StringBuffer path = new StringBuffer(names[0]);
+        for (int i = 1; i < names.length; i++) {
+            path.append('.').append(names[i]);
+            steps[i - 1] = new Step(names[i], path.toString());
+        }
+    }
+
+    // Expression interface
+    //-------------------------------------------------------------------------
+    public Object evaluate(JellyContext context) {
+        try {
+            Object value = context.getVariable(root);
+            for (int i = 0; i < steps.length; i++) {
+                Step step = steps[i];
+                value = step.get(value);
+                if (value == null) {
+                    // Jexl looks for a variable named after the path so far
+                    value = context.getVariable(step.path);
+                }
+            }
+            return value;
+        }
+        catch (Exception e) {
+            return handleException(e, context);
+        }
+    }
+
+    /**
+     * A single property access within the path
+     */
+    private static final class Step {
+
+        /** the property name */
+        private final String name;
+
+        /** the variable named after the path up to and including this step */
+        private final VariableReference path;
+
+        /** the getter last used by this step, held weakly so that its class can be unloaded */
+        private volatile WeakReference getter;
+
+        Step(String name, String path) {
+            this.name = name;
+            this.path = new VariableReference(path);
+        }
+
+        /**
+         * @return the value of this property of the given object
+         */
+        Object get(Object object) throws Exception {
+            if (object == null) {
+                return null;
+            }
+            if (object instanceof Map) {
+                return ((Map) object).get(name);
+            }
+            if (object instanceof List || object.getClass().isArray()) {
+                return ASTArrayAccess.evaluateExpr(object, name);
+            }
+            WeakReference reference = getter;
+            Getter cached = (reference != null) ? (Getter) reference.get() : null;
+            if (cached == null || cached.type != object.getClass()) {
+                cached = Getter.forClass(object.getClass(), name);
+                if (cached == null) {
+                    // let Jexl report the missing property
+                    return ASTArrayAccess.evaluateExpr(object, name);
+                }
+                getter = new WeakReference(cached);
+            }
+            return cached.invoke(object);
+        }
+    }
+
+    /**
+     * A getter method resolved for a class
+     */
+    private static final class Getter {
+
+        /** the class this getter was resolved for */
+        final Class type;
+
+        /** the executor which found the method, used if no MethodHandle is available */
+        private final AbstractExecutor executor;
+
+        /** the getter taking the object, or null */
+        private final MethodHandle handle;
+
+        private Getter(Class type, AbstractExecutor executor, MethodHandle handle) {
+            this.type = type;
+            this.executor = executor;
+            this.handle = handle;
+        }
+
+        /**
+         * @return the cached getter for the given property, or null if there is none
+         */
+        static Getter forClass(Class type, String name) throws Exception {
+            Map getters = (Map) GETTERS.get(type);
+            Object answer = getters.get(name);
+            if (answer == null) {
+                answer = find(type, name);
+                if (answer == null) {
+                    answer = NO_GETTER;
+                }
+                getters.put(name, answer);
+            }
+            return (answer != NO_GETTER) ? (Getter) answer : null;
+        }
+
+        /**
+         * @return the getter for the given property, searched for in the same order as Jexl,
+         * or null if there is none
+         */
+        private static Getter find(Class type, String name) throws Exception {
+            AbstractExecutor executor = new PropertyExecutor(log, introspector, type, name);
+            if (!executor.isAlive()) {
+                executor = new BooleanPropertyExecutor(log, introspector, type, name);
+            }
+            if (!executor.isAlive()) {
+                executor = new GetExecutor(log, introspector, type, name);
+            }
+            if (!executor.isAlive()) {
+                return null;
+            }
+            Method method = executor.getMethod();
+            MethodHandle handle = null;
+            try {
+                handle = MethodHandles.publicLookup().unreflect(method);
+                if (executor instanceof GetExecutor) {
+                    handle = MethodHandles.insertArguments(handle, 1, new Object[] { name });
+                }
+                handle = handle.asType(MethodType.methodType(Object.class, Object.class));
+            }
+            catch (IllegalAccessException e) {
+                handle = null;
+            }
+            return new Getter(type, executor, handle);
+        }
+
+        Object invoke(Object object) throws Exception {
+            if (handle == null) {
+                return executor.execute(object);
+            }
+            try {
+                return handle.invokeExact(object);
+            }
+            catch (Throwable t) {
+                // report failures the way reflective invocation does
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
+}
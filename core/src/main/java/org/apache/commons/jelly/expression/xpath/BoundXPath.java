@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.expression.xpath;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.jaxen.BaseXPath;
+import org.jaxen.Context;
+import org.jaxen.ContextSupport;
+import org.jaxen.FunctionContext;
+import org.jaxen.JaxenException;
+import org.jaxen.NamespaceContext;
+import org.jaxen.Navigator;
+import org.jaxen.SimpleNamespaceContext;
+import org.jaxen.VariableContext;
+import org.jaxen.XPath;
+
+/** An XPath which evaluates a shared, already parsed, XPath using its own
+  * namespace, function and variable contexts. The shared XPath is never
+  * modified, so one parsed expression can be used by many threads at once.
+  *
+  * @version $Revision$
+  */
+final class BoundXPath implements XPath {
+
+    /** the parsed XPath */
+    private final BaseXPath xpath;
+
+    /** the contexts used to evaluate the XPath */
+    private ContextSupport support;
+
+    BoundXPath(BaseXPath xpath, NamespaceContext namespaceContext,
+               FunctionContext functionContext, VariableContext variableContext) {
+        this.xpath = xpath;
+        this.support = new ContextSupport(
+            namespaceContext, functionContext, variableContext, xpath.getNavigator());
+    }
+
+    public String toString() {
+        return xpath.toString();
+    }
+
+    // XPath interface
+    //-------------------------------------------------------------------------
+    public Object evaluate(Object node) throws JaxenException {
+        return xpath.evaluate(getContext(node));
+    }
+
+    public String valueOf(Object node) throws JaxenException {
+        return stringValueOf(node);
+    }
+
+    public String stringValueOf(Object node) throws JaxenException {
+        return xpath.stringValueOf(getContext(node));
+    }
+
+    public boolean booleanValueOf(Object node) throws JaxenException {
+        return xpath.booleanValueOf(getContext(node));
+    }
+
+    public Number numberValueOf(Object node) throws JaxenException {
+        return xpath.numberValueOf(getContext(node));
+    }
+
+    public List selectNodes(Object node) throws JaxenException {
+        return xpath.selectNodes(getContext(node));
+    }
+
+    public Object selectSingleNode(Object node) throws JaxenException {
+        return xpath.selectSingleNode(getContext(node));
+    }
+
+    public void addNamespace(String prefix, String uri) throws JaxenException {
+        // the current namespace context may be shared so it is never modified
+        SimpleNamespaceContext added = new SimpleNamespaceContext();
+        added.addNamespace(prefix, uri);
+        setNamespaceContext(new ChainedNamespaceContext(added, support.getNamespaceContext()));
+    }
+
+    public void setNamespaceContext(NamespaceContext namespaceContext) {
+        support = new ContextSupport(namespaceContext, support.getFunctionContext(),
+            support.getVariableContext(), support.getNavigator());
+    }
+
+    public void setFunctionContext(FunctionContext functionContext) {
+        support = new ContextSupport(support.getNamespaceContext(), functionContext,
+            support.getVariableContext(), support.getNavigator());
+    }
+
+    public void setVariableContext(VariableContext variableContext) {
+        support = new ContextSupport(support.getNamespaceContext(), support.getFunctionContext(),
+            variableContext, support.getNavigator());
+    }
+
+    public NamespaceContext getNamespaceContext() {
+        return support.getNamespaceContext();
+    }
+
+    public FunctionContext getFunctionContext() {
+        return support.getFunctionContext();
+    }
+
+    public VariableContext getVariableContext() {
+        return support.getVariableContext();
+    }
+
+    public Navigator getNavigator() {
+        return support.getNavigator();
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return a new evaluation context for the given node or node set,
+     * which the shared XPath uses instead of its own contexts
+     */
+    private Context getContext(Object node) {
+        if (node instanceof Context) {
+            return (Context) node;
+        }
+        Context context = new Context(support);
+        if (node instanceof List) {
+            context.setNodeSet((List) node);
+        }
+        else {
+            context.setNodeSet(Collections.singletonList(node));
+        }
+        return context;
+    }
+
+    /**
+     * A NamespaceContext which looks up prefixes in a second context
+     * when they are not found in the first
+     */
+    private static final class ChainedNamespaceContext implements NamespaceContext {
+        private final NamespaceContext first;
+        private final NamespaceContext second;
+
+        ChainedNamespaceContext(NamespaceContext first, NamespaceContext second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        public String translateNamespacePrefixToUri(String prefix) {
+            String uri = first.translateNamespacePrefixToUri(prefix);
+            if (uri == null && second != null) {
+                uri = second.translateNamespacePrefixToUri(prefix);
+            }
+            return uri;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.expression.xpath;
+
+import org.apache.commons.jelly.JellyContext;
+import org.jaxen.VariableContext;
+
+/** A Jaxen <code>VariableContext</code> which looks up XPath variables
+  * in a <code>JellyContext</code>. A new instance is used for each evaluation
+  * so that compiled XPath expressions can be shared between threads.
+  *
+  * @version $Revision$
+  */
+public final class JellyVariableContext implements VariableContext {
+
+    /** the context in which variables are looked up */
+    private final JellyContext context;
+
+    public JellyVariableContext(JellyContext context) {
+        this.context = context;
+    }
+
+    /** @return the context in which variables are looked up */
+    public JellyContext getContext() {
+        return context;
+    }
+
+    // VariableContext interface
+    //-------------------------------------------------------------------------
+    public Object getVariableValue(
+        String namespaceURI,
+        String prefix,
+        String localName) {
+
+        return context.getVariable(localName);
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.commons.jelly.expression.xpath;
 
+import java.lang.ref.WeakReference;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
@@ -27,13 +28,23 @@ import org.apache.commons.jelly.expression.ExpressionSupport;
 import org.apache.commons.jelly.impl.TagScript;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.commons.jelly.expression.ConstantExpression;
+import org.jaxen.BaseXPath;
+import org.jaxen.NamespaceContext;
 import org.jaxen.SimpleNamespaceContext;
 import org.jaxen.VariableContext;
 import org.jaxen.XPath;
+import org.jaxen.XPathFunctionContext;
 import org.jaxen.JaxenException;
 import org.jaxen.dom4j.Dom4jXPath;
 
 /** An expression which returns an XPath object.
+  *
+  * <p>When the XPath text is constant it is parsed once, when the expression is
+  * created, and every evaluation returns a light weight XPath which evaluates
+  * the shared parsed form with the variables of the JellyContext it was
+  * evaluated in. The same expression can therefore be evaluated concurrently
+  * in different contexts.</p>
   *
   * @author <a href="mailto:jstrachan@apache.org">James Strachan</a>
   * @version $Revision$
@@ -45,9 +56,17 @@ public class XPathExpression extends ExpressionSupport implements VariableContex
 
     private String text;
     private Expression xpathExpr;
-    private JellyContext context;
     private Map uris;
 
+    /** the namespace prefixes in scope, shared by all evaluations */
+    private NamespaceContext namespaceContext;
+
+    /** the parsed XPath if its text is constant, otherwise null */
+    private BaseXPath compiledXPath;
+
+    /** the context this expression was last evaluated in, held weakly */
+    private volatile WeakReference lastContext;
+
     public XPathExpression() {
     }
 
@@ -60,6 +79,17 @@ public class XPathExpression extends ExpressionSupport implements VariableContex
         Map namespaceContext = tagScript.getNamespaceContext();
 
         this.uris = createUriMap(namespaceContext);
+        this.namespaceContext = new SimpleNamespaceContext(this.uris);
+
+        if (xpathExpr instanceof ConstantExpression) {
+            try {
+                this.compiledXPath = new Dom4jXPath(xpathExpr.evaluateAsString(null));
+            }
+            catch (JaxenException e) {
+                // reported each time the expression is evaluated, as before
+                log.debug("Could not parse XPath: " + text, e);
+            }
+        }
     }
 
     public String toString() {
@@ -73,21 +103,27 @@ public class XPathExpression extends ExpressionSupport implements VariableContex
     }
 
     public Object evaluate(JellyContext context) {
-        this.context = context;
-
         try
         {
-            XPath xpath = new Dom4jXPath( this.xpathExpr.evaluateAsString( context ) );
-
-            xpath.setVariableContext(this);
+            BaseXPath xpath = this.compiledXPath;
+            if (xpath == null) {
+                xpath = new Dom4jXPath( this.xpathExpr.evaluateAsString( context ) );
+            }
 
             if (log.isDebugEnabled()) {
                 log.debug( "Setting the namespace context to be: " + uris );
             }
 
-            xpath.setNamespaceContext( new SimpleNamespaceContext( this.uris ) );
+            WeakReference last = this.lastContext;
+            if (last == null || last.get() != context) {
+                this.lastContext = new WeakReference(context);
+            }
 
-            return xpath;
+            return new BoundXPath(
+                xpath,
+                getNamespaceContext(),
+                XPathFunctionContext.getInstance(),
+                new JellyVariableContext( context ) );
         }
         catch (JaxenException e)
         {
@@ -100,23 +136,53 @@ public class XPathExpression extends ExpressionSupport implements VariableContex
         return null;
     }
 
+    /**
+     * @return the parsed XPath shared by all evaluations or null if the
+     * XPath text is not constant. It must not be modified or evaluated
+     * directly, as it has no variable or namespace context.
+     */
+    XPath getCompiledXPath() {
+        return compiledXPath;
+    }
+
     // VariableContext interface
     //-------------------------------------------------------------------------
+
+    /**
+     * Looks up the variable in the context this expression was last evaluated
+     * in, or returns null if that context has been garbage collected. As an
+     * expression may be evaluated concurrently in many contexts, the XPaths
+     * returned by {@link #evaluate} do not use this method but look up their
+     * variables in the context they were evaluated in.
+     *
+     * @deprecated use the XPath returned by {@link #evaluate} or a
+     * {@link JellyVariableContext}
+     */
+    @Deprecated
     public Object getVariableValue(
         String namespaceURI,
         String prefix,
         String localName) {
 
-        Object value = context.getVariable(localName);
-
-        //log.debug( "Looking up XPath variable of name: " + localName + " value is: " + value );
-
-        return value;
+        WeakReference last = this.lastContext;
+        JellyContext context = (last != null) ? (JellyContext) last.get() : null;
+        return (context != null) ? context.getVariable(localName) : null;
     }
 
     // Implementation methods
     //-------------------------------------------------------------------------
 
+    /**
+     * @return the namespace context of this expression
+     */
+    protected NamespaceContext getNamespaceContext() {
+        if (namespaceContext == null) {
+            // created by the default constructor
+            namespaceContext = new SimpleNamespaceContext(uris != null ? uris : new Hashtable());
+        }
+        return namespaceContext;
+    }
+
     /**
      * Factory method to create a synchronized Map of non-null and non-blank
      * namespace prefixes to namespace URIs
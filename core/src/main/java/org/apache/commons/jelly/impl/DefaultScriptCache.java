@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.net.URL;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyException;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.ScriptCache;
+import org.apache.commons.jelly.util.FileStamp;
+import org.apache.commons.jelly.util.StampedCache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p><code>DefaultScriptCache</code> is a bounded, thread safe {@link ScriptCache}
+ * which evicts the least recently used script once it holds more than
+ * {@link #getMaxSize()} scripts.</p>
+ *
+ * <p>Scripts are keyed by their URL together with the parser settings of the
+ * context which compiled them (the class loader and whether DTDs may call out to
+ * external entities). When {@link #isCheckModified()} is enabled, scripts loaded
+ * from <code>file:</code> URLs, or from jar files referenced by <code>jar:file:</code>
+ * URLs, are recompiled when the file's modification time or length changes.</p>
+ *
+ * <p>Note that a script is compiled against the tag libraries registered on the
+ * context which first loaded it.</p>
+ *
+ * <p>The eviction and modification checks are done by a {@link StampedCache},
+ * which the stylesheet cache of the XML tag library uses as well; this class
+ * only builds the keys and compiles the scripts.</p>
+ *
+ * @see StampedCache
+ * @version $Revision$
+ */
+public class DefaultScriptCache implements ScriptCache {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(DefaultScriptCache.class);
+
+    /** The default maximum number of cached scripts */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    /** the cached scripts */
+    private final StampedCache cache;
+
+    public DefaultScriptCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public DefaultScriptCache(int maxSize) {
+        cache = new StampedCache(maxSize);
+    }
+
+    // ScriptCache interface
+    //-------------------------------------------------------------------------
+    public Script getScript(URL url, JellyContext context) throws JellyException {
+        Key key = new Key(url, context);
+        Script script = (Script) cache.get(key);
+        if (script != null) {
+            return script;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Compiling script: " + url);
+        }
+        FileStamp stamp = cache.stamp(url);
+        script = context.compileScript(url);
+        cache.put(key, script, stamp);
+        return script;
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the maximum number of scripts held by this cache
+     */
+    public int getMaxSize() {
+        return cache.getMaxSize();
+    }
+
+    /**
+     * Sets the maximum number of scripts held by this cache
+     */
+    public void setMaxSize(int maxSize) {
+        cache.setMaxSize(maxSize);
+    }
+
+    /**
+     * @return whether scripts loaded from files or jar files are recompiled when they change
+     */
+    public boolean isCheckModified() {
+        return cache.isCheckModified();
+    }
+
+    /**
+     * Sets whether scripts loaded from files or jar files are recompiled when they change
+     */
+    public void setCheckModified(boolean checkModified) {
+        cache.setCheckModified(checkModified);
+    }
+
+    /**
+     * @return the number of scripts currently cached
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of lookups which returned a cached script
+     */
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * @return the number of lookups which had to compile the script
+     */
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * The key of a cached script
+     */
+    private static final class Key {
+        private final String url;
+        private final ClassLoader classLoader;
+        private final boolean allowDtdToCallExternalEntities;
+        private final int hashCode;
+
+        Key(URL url, JellyContext context) {
+            this.url = url.toExternalForm();
+            this.classLoader = context.getClassLoader();
+            this.allowDtdToCallExternalEntities = context.isAllowDtdToCallExternalEntities();
+            this.hashCode = this.url.hashCode() * 31 + System.identityHashCode(classLoader)
+                + (allowDtdToCallExternalEntities ? 1 : 0);
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) object;
+            return url.equals(key.url)
+                && classLoader == key.classLoader
+                && allowDtdToCallExternalEntities == key.allowDtdToCallExternalEntities;
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
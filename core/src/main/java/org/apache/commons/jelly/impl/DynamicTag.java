@@ -16,9 +16,12 @@
  */
 package org.apache.commons.jelly.impl;
 
+import java.util.AbstractMap;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.jelly.DynaTagSupport;
 import org.apache.commons.jelly.JellyContext;
@@ -34,6 +37,13 @@ import org.apache.commons.logging.LogFactory;
  * given script, passing in its instantiation attributes
  * as variables and will allow the template to invoke its instance body.</p>
  *
+ * <p>Each attribute is visible to the template both by its name and by its
+ * name with an 'Attr' suffix, and all of them are available as the
+ * <code>attrs</code> Map. The attributes are not copied: the template runs
+ * in a child context which overlays a read only view of them. When the tag
+ * is created from a {@link DynamicTagTemplate} its declared attributes are
+ * held in fixed slots.</p>
+ *
  * @author <a href="mailto:jstrachan@apache.org">James Strachan</a>
  * @version $Revision$
  */
@@ -42,11 +52,23 @@ public class DynamicTag extends DynaTagSupport {
     /** The Log to which logging calls will be made. */
     private static final Log log = LogFactory.getLog(DynamicTag.class);
 
+    /** The variable holding the body of the tag */
+    private static final String BODY = "org.apache.commons.jelly.body";
+
+    /** The variable holding the attributes of the tag */
+    private static final String ATTRS = "attrs";
+
     /** The template script */
     private Script template;
 
-    /** The instance attributes */
-    private Map attributes = new HashMap();
+    /** The compiled template declaring the attributes, or null */
+    private DynamicTagTemplate definition;
+
+    /** The values of the declared attributes, created lazily */
+    private Object[] values;
+
+    /** The other instance attributes, created lazily */
+    private Map attributes;
 
     public DynamicTag() {
     }
@@ -55,36 +77,49 @@ public class DynamicTag extends DynaTagSupport {
         this.template = template;
     }
 
+    public DynamicTag(DynamicTagTemplate definition) {
+        this.definition = definition;
+        this.template = definition.getTemplate();
+    }
+
 
     // Tag interface
     //-------------------------------------------------------------------------
     public void doTag(XMLOutput output) throws JellyTagException {
-        if ( log.isDebugEnabled() ) {
-            log.debug("Invoking dynamic tag with attributes: " + attributes);
+        // the values belong to this invocation, so that a nested invocation
+        // of a cached tag cannot change them
+        Object[] slots = values;
+        Map others = attributes;
+        values = null;
+        attributes = null;
+        if ( definition != null ) {
+            slots = definition.complete(slots, context);
         }
-        attributes.put("org.apache.commons.jelly.body", getBody());
-
-        // create new context based on current attributes
-        JellyContext newJellyContext = context.newJellyContext(attributes);
-        Map attrMap = new HashMap();
-        for ( Iterator keyIter = this.attributes.keySet().iterator();
-              keyIter.hasNext();) {
-            String key = (String) keyIter.next();
-            if ( key.endsWith( "Attr" ) ) {
-                Object value = this.attributes.get( key );
-                attrMap.put( key, value );
-                attrMap.put( key.substring( 0, key.length()-4 ), value );
-            }
+        AttributeMap attrs = new AttributeMap(definition, slots, others);
+        if ( log.isDebugEnabled() ) {
+            log.debug("Invoking dynamic tag with attributes: " + attrs);
         }
-        newJellyContext.setVariable( "attrs", attrMap );
+
+        JellyContext newJellyContext = context.newJellyContextOverlay(new ScopeMap(attrs, getBody()));
         getTemplate().run(newJellyContext, output);
     }
 
     // DynaTag interface
     //-------------------------------------------------------------------------
     public void setAttribute(String name, Object value) {
-        attributes.put(name, value);
-        attributes.put(name + "Attr", value);
+        int slot = (definition != null) ? definition.getSlot(name) : -1;
+        if ( slot >= 0 ) {
+            if ( values == null ) {
+                values = new Object[definition.getAttributeCount()];
+            }
+            values[slot] = value;
+        }
+        else {
+            if ( attributes == null ) {
+                attributes = new HashMap();
+            }
+            attributes.put(name, value);
+        }
     }
 
     // Properties
@@ -99,4 +134,110 @@ public class DynamicTag extends DynaTagSupport {
     public void setTemplate(Script template) {
         this.template = template;
     }
+
+    // Implementation classes
+    //-------------------------------------------------------------------------
+
+    /**
+     * A read only view of the attributes of an invocation, in which each
+     * attribute can also be found by its name with an 'Attr' suffix.
+     * Attributes whose value is null are not visible.
+     */
+    private static class AttributeMap extends AbstractMap {
+        private final DynamicTagTemplate definition;
+        private final Object[] slots;
+        private final Map others;
+
+        AttributeMap(DynamicTagTemplate definition, Object[] slots, Map others) {
+            this.definition = definition;
+            this.slots = slots;
+            this.others = others;
+        }
+
+        public Object get(Object key) {
+            if ( definition != null ) {
+                int slot = definition.getSlot(key);
+                if ( slot >= 0 ) {
+                    return slots[slot];
+                }
+            }
+            if ( others == null ) {
+                return null;
+            }
+            Object value = others.get(key);
+            if ( value == null && key instanceof String && ((String) key).endsWith("Attr") ) {
+                String name = (String) key;
+                value = others.get(name.substring(0, name.length() - 4));
+            }
+            return value;
+        }
+
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        public Set entrySet() {
+            Map answer = new HashMap();
+            if ( definition != null ) {
+                for (int i = 0; i < slots.length; i++) {
+                    if ( slots[i] != null ) {
+                        String name = definition.getAttribute(i).getName();
+                        answer.put(name, slots[i]);
+                        answer.put(name + "Attr", slots[i]);
+                    }
+                }
+            }
+            if ( others != null ) {
+                for (Iterator iter = others.entrySet().iterator(); iter.hasNext();) {
+                    Map.Entry entry = (Map.Entry) iter.next();
+                    if ( entry.getValue() != null ) {
+                        answer.put(entry.getKey(), entry.getValue());
+                        answer.put(entry.getKey() + "Attr", entry.getValue());
+                    }
+                }
+            }
+            return Collections.unmodifiableMap(answer).entrySet();
+        }
+    }
+
+    /**
+     * The read only variables of the template: the attributes,
+     * the <code>attrs</code> Map and the body of the tag.
+     */
+    private static class ScopeMap extends AbstractMap {
+        private final AttributeMap attrs;
+        private final Script body;
+
+        ScopeMap(AttributeMap attrs, Script body) {
+            this.attrs = attrs;
+            this.body = body;
+        }
+
+        public Object get(Object key) {
+            if ( ATTRS.equals(key) ) {
+                return attrs;
+            }
+            if ( BODY.equals(key) ) {
+                return body;
+            }
+            return attrs.get(key);
+        }
+
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        public Set entrySet() {
+            Map answer = new HashMap();
+            for (Iterator iter = attrs.entrySet().iterator(); iter.hasNext();) {
+                Map.Entry entry = (Map.Entry) iter.next();
+                answer.put(entry.getKey(), entry.getValue());
+            }
+            answer.put(ATTRS, attrs);
+            if ( body != null ) {
+                answer.put(BODY, body);
+            }
+            return Collections.unmodifiableMap(answer).entrySet();
+        }
+    }
 }
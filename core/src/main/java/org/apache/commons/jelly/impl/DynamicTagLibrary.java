@@ -17,7 +17,12 @@
 package org.apache.commons.jelly.impl;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.Script;
@@ -29,15 +34,40 @@ import org.xml.sax.Attributes;
  * <p><code>DynamicTagLibrary</code> represents a TagLibrary which
  * gets created by running a Jelly script.</p>
  *
+ * <p>Tag names are resolved through this library and its parents once and the
+ * resulting factories, including misses, are cached. Each library counts the
+ * changes made to its own tags and parent and to those of its parents: a
+ * library which changes bumps its own count and those of the libraries which
+ * have it as their parent, directly or not. The cache remembers the count
+ * when it was built and is discarded once the count has changed, so checking
+ * it is a single read however deep the library is nested, while changes to
+ * unrelated libraries leave it alone. Parents only hold weak references to
+ * their children.</p>
+ *
  * @author <a href="mailto:jstrachan@apache.org">James Strachan</a>
  * @version $Revision$
  */
 public class DynamicTagLibrary extends TagLibrary {
 
+    /** The resolution of names which are not defined by any library */
+    private static final Resolution UNRESOLVED = new Resolution(null, null);
+
     private String uri;
     private Map templates = new HashMap();
     private TagLibrary parent;
 
+    /** The number of changes made to the tags or the parent of this library or its parents */
+    private final AtomicInteger changes = new AtomicInteger();
+
+    /** The DynamicTagLibraries whose parent is this library, as weak keys */
+    private final Map children = new WeakHashMap();
+
+    /** The number of caches of resolutions built, the version of the current one */
+    private final AtomicInteger versions = new AtomicInteger();
+
+    /** The names resolved since the tags of this library or its parents were last changed */
+    private volatile ResolutionCache resolutions;
+
     public DynamicTagLibrary() {
     }
 
@@ -62,28 +92,49 @@ public class DynamicTagLibrary extends TagLibrary {
     public Tag createTag(String name, Attributes attributes)
         throws JellyException {
 
-        Object value = templates.get(name);
-        if ( value instanceof Script ) {
-            Script template = (Script) value;
-            return new DynamicTag(template);
-        }
-        else if ( value instanceof TagFactory ) {
-            TagFactory factory = (TagFactory) value;
+        TagFactory factory = getTagFactory(name);
+        if ( factory != null ) {
             return factory.createTag(name, attributes);
         }
-        else if ( parent != null ) {
-            // delegate to the parent
-            return parent.createTag(name, attributes);
-        }
-
         return null;
     }
 
+    /**
+     * Returns the factory of the given tag name, which may be defined by this
+     * library or by one of its parents.
+     *
+     * @param name The tag name
+     * @return The factory of the tag, or <code>null</code> if the tag doesn't exist
+     */
+    public TagFactory getTagFactory(String name) {
+        return resolve(name).factory;
+    }
+
+    /**
+     * Returns the version of the tags, which changes whenever a tag is
+     * registered in, or a parent is set on, this library or one of its parent
+     * DynamicTagLibraries. A factory returned by {@link #getTagFactory(String)}
+     * remains valid until the version changes.
+     */
+    public int getVersion() {
+        return getResolutions().version;
+    }
+
     /**
      * Creates a new tag with the given name and template
      */
     public void registerDynamicTag(String name, Script template) {
         templates.put(name, template);
+        changed();
+    }
+
+    /**
+     * Creates a new tag with the given name and template whose attributes
+     * have been declared, so that they are held in fixed slots
+     */
+    public void registerDynamicTag(String name, Script template, Attribute[] attributes) {
+        templates.put(name, new DynamicTagTemplate(template, attributes));
+        changed();
     }
 
     /**
@@ -91,6 +142,7 @@ public class DynamicTagLibrary extends TagLibrary {
      */
     public void registerBeanTag(String name, TagFactory factory) {
         templates.put(name, factory);
+        changed();
     }
 
     /**
@@ -102,6 +154,9 @@ public class DynamicTagLibrary extends TagLibrary {
      */
     public Script getDynamicTag(String name) {
         Object result = templates.get(name);
+        if (result instanceof DynamicTagTemplate) {
+            return ((DynamicTagTemplate) result).getTemplate();
+        }
         return (result instanceof Script) ? (Script) result : null;
     }
 
@@ -116,14 +171,7 @@ public class DynamicTagLibrary extends TagLibrary {
      *         if the tag is not registered.
      */
     public DynamicTagLibrary find(String name) {
-        DynamicTagLibrary result = null;
-        if (templates.get(name) != null) {
-            result = this;
-        }
-        else if (parent instanceof DynamicTagLibrary) {
-            result = ((DynamicTagLibrary) parent).find(name);
-        }
-        return result;
+        return resolve(name).library;
     }
 
     // Properties
@@ -150,7 +198,161 @@ public class DynamicTagLibrary extends TagLibrary {
      * @param parent The parent to set
      */
     public void setParent(TagLibrary parent) {
+        if ( this.parent instanceof DynamicTagLibrary ) {
+            ((DynamicTagLibrary) this.parent).removeChild(this);
+        }
         this.parent = parent;
+        if ( parent instanceof DynamicTagLibrary ) {
+            ((DynamicTagLibrary) parent).addChild(this);
+        }
+        changed();
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    private void addChild(DynamicTagLibrary child) {
+        synchronized (children) {
+            children.put(child, Boolean.TRUE);
+        }
+    }
+
+    private void removeChild(DynamicTagLibrary child) {
+        synchronized (children) {
+            children.remove(child);
+        }
+    }
+
+    /**
+     * Discards the resolutions of this library and of all the libraries
+     * which inherit from it
+     */
+    private void changed() {
+        changed(new HashSet());
+    }
+
+    private void changed(Set visited) {
+        if ( !visited.add(this) ) {
+            // the parents form a cycle
+            return;
+        }
+        changes.incrementAndGet();
+        DynamicTagLibrary[] descendants;
+        synchronized (children) {
+            descendants = (DynamicTagLibrary[]) children.keySet().toArray(new DynamicTagLibrary[children.size()]);
+        }
+        for (int i = 0; i < descendants.length; i++) {
+            descendants[i].changed(visited);
+        }
+    }
+
+    /**
+     * @return the resolutions of the current tags of this library and its parents
+     */
+    private ResolutionCache getResolutions() {
+        ResolutionCache cache = resolutions;
+        if ( cache == null || cache.changes != changes.get() ) {
+            // read the count first so that a change made while resolving discards the results
+            int count = changes.get();
+            cache = new ResolutionCache(versions.incrementAndGet(), count);
+            resolutions = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * @return the cached resolution of the given tag name
+     */
+    private Resolution resolve(String name) {
+        ResolutionCache cache = getResolutions();
+        Resolution answer = (Resolution) cache.get(name);
+        if ( answer == null ) {
+            answer = lookup(name);
+            cache.put(name, answer);
+        }
+        return answer;
+    }
+
+    /**
+     * Walks this library and its parents to find the given tag name
+     */
+    private Resolution lookup(String name) {
+        TagLibrary library = this;
+        while ( library instanceof DynamicTagLibrary ) {
+            DynamicTagLibrary dynamicLibrary = (DynamicTagLibrary) library;
+            Object value = dynamicLibrary.templates.get(name);
+            if ( value instanceof Script ) {
+                return new Resolution(new TemplateFactory((Script) value), dynamicLibrary);
+            }
+            else if ( value instanceof TagFactory ) {
+                return new Resolution((TagFactory) value, dynamicLibrary);
+            }
+            library = dynamicLibrary.parent;
+        }
+        if ( library != null ) {
+            // the parent is some other kind of library, so delegate to it
+            return new Resolution(new ParentFactory(library), null);
+        }
+        return UNRESOLVED;
+    }
+
+    /**
+     * The factory of a tag name and the library defining it
+     */
+    private static final class Resolution {
+        final TagFactory factory;
+        final DynamicTagLibrary library;
+
+        Resolution(TagFactory factory, DynamicTagLibrary library) {
+            this.factory = factory;
+            this.library = library;
+        }
+    }
+
+    /**
+     * The resolutions made at a single version of the tags of a library and
+     * its parents
+     */
+    private static final class ResolutionCache extends ConcurrentHashMap {
+        final int version;
+
+        /** the number of changes made to the library and its parents when the cache was built */
+        final int changes;
+
+        ResolutionCache(int version, int changes) {
+            this.version = version;
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * Creates the DynamicTags of a template script
+     */
+    private static final class TemplateFactory implements TagFactory {
+        private final Script template;
+
+        TemplateFactory(Script template) {
+            this.template = template;
+        }
+
+        public Tag createTag(String name, Attributes attributes) throws JellyException {
+            return new DynamicTag(template);
+        }
+    }
+
+    /**
+     * Delegates to a parent library which is not a DynamicTagLibrary
+     */
+    private static final class ParentFactory implements TagFactory {
+        private final TagLibrary parent;
+
+        ParentFactory(TagLibrary parent) {
+            this.parent = parent;
+        }
+
+        public Tag createTag(String name, Attributes attributes) throws JellyException {
+            return parent.createTag(name, attributes);
+        }
     }
 
 }
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyException;
+import org.apache.commons.jelly.MissingAttributeException;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.Tag;
+import org.apache.commons.jelly.expression.Expression;
+import org.xml.sax.Attributes;
+
+/**
+ * <p><code>DynamicTagTemplate</code> is the compiled form of a dynamic tag
+ * whose attributes have been declared. Each declared attribute is given a fixed
+ * slot so that a {@link DynamicTag} created from this template holds its
+ * attribute values in an array rather than in Maps, and the attributes are made
+ * visible to the template through a read only view of that array.</p>
+ *
+ * @version $Revision$
+ */
+public class DynamicTagTemplate implements TagFactory {
+
+    /** The template script */
+    private final Script template;
+
+    /** The declared attributes */
+    private final Attribute[] attributes;
+
+    /** The slot of each attribute, keyed by both its name and its name plus 'Attr' */
+    private final Map slots = new HashMap();
+
+    public DynamicTagTemplate(Script template, Attribute[] attributes) {
+        this.template = template;
+        this.attributes = attributes.clone();
+        for (int i = 0; i < attributes.length; i++) {
+            String name = attributes[i].getName();
+            Integer slot = new Integer(i);
+            slots.put(name + "Attr", slot);
+            slots.put(name, slot);
+        }
+    }
+
+    // TagFactory interface
+    //-------------------------------------------------------------------------
+    public Tag createTag(String name, Attributes attributes) throws JellyException {
+        return new DynamicTag(this);
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the template script
+     */
+    public Script getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return the number of declared attributes
+     */
+    public int getAttributeCount() {
+        return attributes.length;
+    }
+
+    /**
+     * @return the declared attribute of the given slot
+     */
+    public Attribute getAttribute(int slot) {
+        return attributes[slot];
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the slot of the given attribute name, or of the name with
+     * an 'Attr' suffix, or -1 if the attribute has not been declared
+     */
+    int getSlot(Object name) {
+        Integer slot = (Integer) slots.get(name);
+        return (slot != null) ? slot.intValue() : -1;
+    }
+
+    /**
+     * Fills in the default value of each attribute which has not been set
+     * and checks that all the required attributes have been set.
+     *
+     * @param values the attribute values, which may be null if none were set
+     * @return the completed attribute values
+     */
+    Object[] complete(Object[] values, JellyContext context) throws MissingAttributeException {
+        if (values == null) {
+            values = new Object[attributes.length];
+        }
+        for (int i = 0; i < attributes.length; i++) {
+            if (values[i] != null) {
+                continue;
+            }
+            Expression defaultValue = attributes[i].getDefaultValue();
+            if (defaultValue != null) {
+                values[i] = defaultValue.evaluate(context);
+            }
+            if (values[i] == null && attributes[i].isRequired()) {
+                throw new MissingAttributeException(attributes[i].getName());
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import org.apache.commons.jelly.expression.Expression;
+
+/**
+ * <p><code>ExpressionAttribute</code> is an attribute of a {@link TagScript}
+ * together with the expression which evaluates its value.</p>
+ *
+ * @version $Revision$
+ */
+class ExpressionAttribute {
+    public ExpressionAttribute(String name, Expression exp) {
+        this(name,"","",exp);
+    }
+    public ExpressionAttribute(String name, String prefix, String nsURI, Expression exp) {
+        this.name = name;
+        this.prefix = prefix;
+        this.nsURI = nsURI;
+        this.exp = exp;
+        int idx = name.indexOf(':');
+        this.localName = (idx == -1) ? name : name.substring(idx + 1);
+    }
+
+    String name;
+    String localName;
+    String prefix;
+    String nsURI;
+    Expression exp;
+}
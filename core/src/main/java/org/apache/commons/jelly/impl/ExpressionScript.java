@@ -20,6 +20,7 @@ import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.Script;
 import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.expression.CompositeExpression;
 import org.apache.commons.jelly.expression.Expression;
 
 import org.xml.sax.SAXException;
@@ -64,6 +65,15 @@ public class ExpressionScript implements Script {
 
     /** Evaluates the body of a tag */
     public void run(JellyContext context, XMLOutput output) throws JellyTagException {
+        if ( expression instanceof CompositeExpression ) {
+            // always evaluates to a String so stream it straight to the output
+            try {
+                ((CompositeExpression) expression).write(context, output);
+            } catch (SAXException e) {
+                throw new JellyTagException("Could not write to XMLOutput",e);
+            }
+            return;
+        }
         Object result = expression.evaluate(context);
         if ( result != null ) {
 
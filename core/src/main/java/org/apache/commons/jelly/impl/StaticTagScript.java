@@ -27,8 +27,6 @@ import org.apache.commons.jelly.expression.Expression;
 import org.xml.sax.SAXException;
 
 import java.net.URL;
-import java.util.Iterator;
-import java.util.Map;
 
 /**
  * <p><code>StaticTagScript</code> is a script that evaluates a StaticTag, a piece of static XML
@@ -41,6 +39,9 @@ import java.util.Map;
  */
 public class StaticTagScript extends TagScript {
 
+    /** The dynamic tag this element was last resolved to, which is shared by all threads */
+    private volatile DynamicTagResolution resolution;
+
     public StaticTagScript() {
     }
 
@@ -51,7 +52,7 @@ public class StaticTagScript extends TagScript {
 
     // Script interface
     //-------------------------------------------------------------------------
-    public void run(JellyContext context, XMLOutput output) throws JellyTagException {
+    protected void runTag(JellyContext context, XMLOutput output) throws JellyTagException {
         try {
             startNamespacePrefixes(output);
         } catch (SAXException e) {
@@ -83,13 +84,10 @@ public class StaticTagScript extends TagScript {
 
             DynaTag dynaTag = (DynaTag) tag;
 
-            // ### probably compiling this to 2 arrays might be quicker and smaller
-            for (Iterator iter = attributes.entrySet().iterator(); iter.hasNext();) {
-                Map.Entry entry = (Map.Entry) iter.next();
-                String name = (String) entry.getKey();
-                if(name.indexOf(':')!=-1)
-                    name = name.substring(name.indexOf(':')+1);
-                ExpressionAttribute expat = (ExpressionAttribute) entry.getValue();
+            ExpressionAttribute[] attributeArray = getAttributeArray();
+            for (int i = 0; i < attributeArray.length; i++) {
+                ExpressionAttribute expat = attributeArray[i];
+                String name = expat.localName;
                 Expression expression = expat.exp;
 
                 Object value;
@@ -137,7 +135,14 @@ public class StaticTagScript extends TagScript {
         // lets see if there's a tag library for this URI...
         TagLibrary taglib = context.getTagLibrary( tag.getUri() );
         if ( taglib != null ) {
-            Tag newTag = taglib.createTag( tag.getLocalName(), getSaxAttributes() );
+            Tag newTag;
+            if ( taglib instanceof DynamicTagLibrary ) {
+                TagFactory factory = findTagFactory( (DynamicTagLibrary) taglib, tag.getLocalName() );
+                newTag = ( factory != null ) ? factory.createTag( tag.getLocalName(), getSaxAttributes() ) : null;
+            }
+            else {
+                newTag = taglib.createTag( tag.getLocalName(), getSaxAttributes() );
+            }
             if ( newTag != null ) {
                 newTag.setParent( tag.getParent() );
                 newTag.setBody( tag.getBody() );
@@ -146,4 +151,33 @@ public class StaticTagScript extends TagScript {
         }
         return tag;
     }
+
+    /**
+     * Returns the factory of the dynamic tag for this element, reusing the last
+     * resolution while the library and the version of its tags are unchanged
+     */
+    private TagFactory findTagFactory(DynamicTagLibrary taglib, String name) {
+        DynamicTagResolution answer = resolution;
+        int version = taglib.getVersion();
+        if ( answer == null || answer.taglib != taglib || answer.version != version ) {
+            answer = new DynamicTagResolution( taglib, version, taglib.getTagFactory( name ) );
+            resolution = answer;
+        }
+        return answer.factory;
+    }
+
+    /**
+     * The factory a tag name resolved to in a given version of a library
+     */
+    private static final class DynamicTagResolution {
+        final DynamicTagLibrary taglib;
+        final int version;
+        final TagFactory factory;
+
+        DynamicTagResolution(DynamicTagLibrary taglib, int version, TagFactory factory) {
+            this.taglib = taglib;
+            this.version = version;
+            this.factory = factory;
+        }
+    }
 }
@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.beans.IndexedPropertyDescriptor;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.beanutils.ConvertingWrapDynaBean;
+import org.apache.commons.beanutils.ConvertUtils;
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.commons.beanutils.DynaProperty;
+import org.apache.commons.beanutils.MethodUtils;
+import org.apache.commons.beanutils.PropertyUtils;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyException;
+import org.apache.commons.jelly.Tag;
+import org.apache.commons.jelly.expression.Expression;
+
+/**
+ * <p><code>TagAttributeBinder</code> is the compiled form of the logic which
+ * sets the attributes of a bean (non {@link org.apache.commons.jelly.DynaTag})
+ * tag. One binder is created per Tag class and shared by every
+ * {@link TagScript} and thread using that class.</p>
+ *
+ * <p>For each attribute the binder decides once whether the tag wants the
+ * {@link Expression} itself or its value and resolves the setter to a
+ * <code>MethodHandle</code>. Values are converted using the same rules as
+ * <code>BeanUtils.setProperty()</code>. Properties which cannot be handled
+ * directly (indexed, mapped, array typed or inaccessible setters) fall back
+ * to a <code>ConvertingWrapDynaBean</code> as before.</p>
+ *
+ * @version $Revision$
+ */
+final class TagAttributeBinder {
+
+    /** The binders, one per Tag class */
+    private static final ClassValue BINDERS = new ClassValue() {
+        protected Object computeValue(Class type) {
+            return new TagAttributeBinder(type);
+        }
+    };
+
+    /** the Tag class this binder configures */
+    private final Class tagClass;
+
+    /** the resolved properties, keyed by attribute name */
+    private final Map properties = new HashMap();
+
+    /**
+     * @return the shared binder for the given Tag class
+     */
+    static TagAttributeBinder forClass(Class tagClass) {
+        return (TagAttributeBinder) BINDERS.get(tagClass);
+    }
+
+    private TagAttributeBinder(Class tagClass) {
+        this.tagClass = tagClass;
+        PropertyDescriptor[] descriptors = PropertyUtils.getPropertyDescriptors(tagClass);
+        for (int i = 0; i < descriptors.length; i++) {
+            Property property = createProperty(descriptors[i]);
+            if (property != null) {
+                properties.put(property.name, property);
+            }
+        }
+    }
+
+    /**
+     * @return the Tag class this binder configures
+     */
+    Class getTagClass() {
+        return tagClass;
+    }
+
+    /**
+     * Resolves the given attribute names to properties of the Tag class.
+     * Names which cannot be set directly are returned as fallback
+     * properties which behave exactly like <code>ConvertingWrapDynaBean</code>.
+     */
+    Property[] bind(ExpressionAttribute[] attributes) {
+        Property[] answer = new Property[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            String name = attributes[i].name;
+            Property property = (Property) properties.get(name);
+            answer[i] = (property != null) ? property : new Property(name);
+        }
+        return answer;
+    }
+
+    /**
+     * Creates a fast path property for the given descriptor or returns null
+     * if the property must go through the DynaBean fallback.
+     */
+    private Property createProperty(PropertyDescriptor descriptor) {
+        if (descriptor instanceof IndexedPropertyDescriptor) {
+            return null;
+        }
+        Class type = descriptor.getPropertyType();
+        Method writeMethod = descriptor.getWriteMethod();
+        if (type == null || type.isArray() || writeMethod == null) {
+            return null;
+        }
+        writeMethod = MethodUtils.getAccessibleMethod(writeMethod);
+        if (writeMethod == null) {
+            return null;
+        }
+        MethodHandle setter;
+        try {
+            setter = MethodHandles.publicLookup().unreflect(writeMethod)
+                .asType(MethodType.methodType(void.class, Object.class, Object.class));
+        }
+        catch (IllegalAccessException e) {
+            return null;
+        }
+        return new Property(descriptor.getName(), type, setter);
+    }
+
+    /**
+     * A single attribute of a Tag class
+     */
+    static final class Property {
+
+        /** the attribute name */
+        final String name;
+
+        /** the property type or null if this property uses the fallback */
+        private final Class type;
+
+        /** whether the Expression rather than its value should be passed */
+        private final boolean passExpression;
+
+        /** the setter taking (tag, value) or null if this property uses the fallback */
+        private final MethodHandle setter;
+
+        Property(String name, Class type, MethodHandle setter) {
+            this.name = name;
+            this.type = type;
+            this.setter = setter;
+            this.passExpression = type.isAssignableFrom(Expression.class) && !type.isAssignableFrom(Object.class);
+        }
+
+        /** Creates a fallback property */
+        Property(String name) {
+            this.name = name;
+            this.type = null;
+            this.setter = null;
+            this.passExpression = false;
+        }
+
+        /**
+         * Evaluates the expression if required and sets the attribute on the given tag.
+         */
+        void set(Tag tag, Expression expression, JellyContext context) throws JellyException {
+            if (setter == null) {
+                setDynamically(tag, expression, context);
+                return;
+            }
+            Object value;
+            if (passExpression) {
+                value = expression;
+            }
+            else {
+                value = convert(expression.evaluateRecurse(context));
+            }
+            try {
+                setter.invokeExact((Object) tag, value);
+            }
+            catch (Error e) {
+                throw e;
+            }
+            catch (Throwable t) {
+                // report the exception thrown by the setter or by the cast of the value
+                throw new JellyException("Could not set the '" + name + "' attribute of "
+                    + tag.getClass().getName() + ": " + t, t);
+            }
+        }
+
+        /**
+         * Converts the value using the rules of <code>BeanUtils.setProperty()</code>
+         * for scalar properties.
+         */
+        private Object convert(Object value) {
+            if (value == null || value instanceof String) {
+                return ConvertUtils.convert((String) value, type);
+            }
+            if (value instanceof String[]) {
+                return ConvertUtils.convert(((String[]) value)[0], type);
+            }
+            if (ConvertUtils.lookup(value.getClass()) != null) {
+                return ConvertUtils.convert(value.toString(), type);
+            }
+            return value;
+        }
+
+        /**
+         * Sets the attribute using a <code>ConvertingWrapDynaBean</code>
+         */
+        private void setDynamically(Tag tag, Expression expression, JellyContext context) throws JellyException {
+            DynaBean dynaBean = new ConvertingWrapDynaBean( tag );
+            DynaProperty property = dynaBean.getDynaClass().getDynaProperty(name);
+            if (property == null) {
+                throw new JellyException("This tag does not understand the '" + name + "' attribute" );
+            }
+            Class type = property.getType();
+
+            Object value = null;
+            if (type.isAssignableFrom(Expression.class) && !type.isAssignableFrom(Object.class)) {
+                value = expression;
+            }
+            else {
+                value = expression.evaluateRecurse(context);
+            }
+            dynaBean.set(name, value);
+        }
+    }
+}
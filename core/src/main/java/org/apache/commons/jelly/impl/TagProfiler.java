@@ -0,0 +1,361 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p><code>TagProfiler</code> records how often and for how long each
+ * {@link TagScript} of a script runs. It is enabled by setting it on a
+ * {@link org.apache.commons.jelly.JellyContext}, whose child contexts share
+ * it; when no profiler is set the only cost is a null check per tag.</p>
+ *
+ * <p>For each TagScript the invocation count, the total time, the self time
+ * excluding nested tags and the number of invocations which threw an
+ * exception are recorded. If allocation tracking is enabled and the JVM
+ * supports it the bytes allocated by the current thread are recorded too.
+ * The self times can also be written as collapsed stacks, one line per
+ * distinct stack of tags, which flame graph tools can render.</p>
+ *
+ * @version $Revision$
+ */
+public class TagProfiler {
+
+    /** <code>com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long)</code> if available */
+    private static final Method ALLOCATED_BYTES = findAllocatedBytesMethod();
+
+    /** The statistics keyed by TagScript */
+    private final ConcurrentHashMap statistics = new ConcurrentHashMap();
+
+    /** The self times in nanoseconds keyed by collapsed stack */
+    private final ConcurrentHashMap stacks = new ConcurrentHashMap();
+
+    /** The innermost tag being run by each thread */
+    private final ThreadLocal currentFrame = new ThreadLocal();
+
+    /** Whether allocated bytes are recorded */
+    private volatile boolean allocationTracking;
+
+    public TagProfiler() {
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return whether the bytes allocated by each tag are recorded
+     */
+    public boolean isAllocationTracking() {
+        return allocationTracking;
+    }
+
+    /**
+     * Sets whether the bytes allocated by each tag are recorded. This is
+     * ignored if the JVM cannot report the bytes allocated by a thread.
+     */
+    public void setAllocationTracking(boolean allocationTracking) {
+        this.allocationTracking = allocationTracking && isAllocationTrackingSupported();
+    }
+
+    /**
+     * @return whether the JVM can report the bytes allocated by a thread
+     */
+    public static boolean isAllocationTrackingSupported() {
+        return ALLOCATED_BYTES != null;
+    }
+
+    // Query API
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the statistics of the given TagScript or null if it has not run
+     */
+    public Statistics getStatistics(TagScript script) {
+        return (Statistics) statistics.get(script);
+    }
+
+    /**
+     * @return the statistics of every TagScript which has run, the highest
+     * self time first
+     */
+    public List getStatistics() {
+        List answer = new ArrayList(statistics.values());
+        Collections.sort(answer, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long t1 = ((Statistics) o1).getSelfTime();
+                long t2 = ((Statistics) o2).getSelfTime();
+                return (t1 < t2) ? 1 : ((t1 == t2) ? 0 : -1);
+            }
+        });
+        return answer;
+    }
+
+    /**
+     * Writes the self time in nanoseconds of each distinct stack of tags,
+     * one per line as the tags separated by semicolons followed by a space
+     * and the time, which is the input format of flame graph tools.
+     */
+    public void writeCollapsedStacks(Writer writer) throws IOException {
+        for (Iterator iter = stacks.entrySet().iterator(); iter.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) iter.next();
+            writer.write((String) entry.getKey());
+            writer.write(' ');
+            writer.write(String.valueOf(((AtomicLong) entry.getValue()).get()));
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    /**
+     * Discards everything recorded so far
+     */
+    public void reset() {
+        statistics.clear();
+        stacks.clear();
+    }
+
+    // Recording
+    //-------------------------------------------------------------------------
+
+    /**
+     * Called before the given TagScript runs
+     * @return the frame to be passed to {@link #exit}
+     */
+    Frame enter(TagScript script) {
+        Frame parent = (Frame) currentFrame.get();
+        Frame frame = new Frame(parent, script, allocationTracking ? allocatedBytes() : -1);
+        currentFrame.set(frame);
+        return frame;
+    }
+
+    /**
+     * Called after the TagScript of the given frame has run
+     */
+    void exit(Frame frame, boolean failed) {
+        long elapsed = System.nanoTime() - frame.start;
+        long allocated = (frame.startBytes >= 0) ? allocatedBytes() - frame.startBytes : 0;
+        Frame parent = frame.parent;
+        currentFrame.set(parent);
+        if (parent != null) {
+            parent.childTime += elapsed;
+            parent.childBytes += allocated;
+        }
+
+        long selfTime = elapsed - frame.childTime;
+        Statistics stats = getOrCreateStatistics(frame.script);
+        stats.record(elapsed, selfTime, allocated, allocated - frame.childBytes, failed);
+
+        AtomicLong stackTime = (AtomicLong) stacks.get(frame.stack);
+        if (stackTime == null) {
+            stackTime = new AtomicLong();
+            AtomicLong existing = (AtomicLong) stacks.putIfAbsent(frame.stack, stackTime);
+            if (existing != null) {
+                stackTime = existing;
+            }
+        }
+        stackTime.addAndGet(selfTime);
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    private Statistics getOrCreateStatistics(TagScript script) {
+        Statistics answer = (Statistics) statistics.get(script);
+        if (answer == null) {
+            answer = new Statistics(script);
+            Statistics existing = (Statistics) statistics.putIfAbsent(script, answer);
+            if (existing != null) {
+                answer = existing;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * @return the name of the given TagScript in a collapsed stack
+     */
+    private static String getFrameName(TagScript script) {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append(script.getElementName());
+        buffer.append(" (");
+        buffer.append(script.getFileName());
+        buffer.append(':');
+        buffer.append(script.getLineNumber());
+        buffer.append(')');
+        // semicolons separate the frames and a space the count
+        return buffer.toString().replace(';', ',').replace(' ', '_');
+    }
+
+    private static long allocatedBytes() {
+        try {
+            Long bytes = (Long) ALLOCATED_BYTES.invoke(
+                ManagementFactory.getThreadMXBean(),
+                new Object[] { new Long(Thread.currentThread().getId()) });
+            return bytes.longValue();
+        }
+        catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static Method findAllocatedBytesMethod() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            Class type = Class.forName("com.sun.management.ThreadMXBean");
+            if (!type.isInstance(bean)) {
+                return null;
+            }
+            Method method = type.getMethod("getThreadAllocatedBytes", new Class[] { long.class });
+            Method supported = type.getMethod("isThreadAllocatedMemorySupported", new Class[0]);
+            if (!((Boolean) supported.invoke(bean, new Object[0])).booleanValue()) {
+                return null;
+            }
+            return method;
+        }
+        catch (Exception e) {
+            return null;
+        }
+        catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * A TagScript being run by the current thread
+     */
+    static final class Frame {
+        final Frame parent;
+        final TagScript script;
+        final String stack;
+        final long startBytes;
+        final long start;
+        long childTime;
+        long childBytes;
+
+        Frame(Frame parent, TagScript script, long startBytes) {
+            this.parent = parent;
+            this.script = script;
+            this.stack = (parent != null)
+                ? parent.stack + ';' + getFrameName(script)
+                : getFrameName(script);
+            this.startBytes = startBytes;
+            this.start = System.nanoTime();
+        }
+    }
+
+    /**
+     * The statistics recorded for one TagScript
+     */
+    public static final class Statistics {
+        private final TagScript script;
+        private final AtomicLong invocationCount = new AtomicLong();
+        private final AtomicLong exceptionCount = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong selfTime = new AtomicLong();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        private final AtomicLong selfAllocatedBytes = new AtomicLong();
+
+        Statistics(TagScript script) {
+            this.script = script;
+        }
+
+        void record(long total, long self, long allocated, long selfAllocated, boolean failed) {
+            invocationCount.incrementAndGet();
+            totalTime.addAndGet(total);
+            selfTime.addAndGet(self);
+            allocatedBytes.addAndGet(allocated);
+            selfAllocatedBytes.addAndGet(selfAllocated);
+            if (failed) {
+                exceptionCount.incrementAndGet();
+            }
+        }
+
+        public String toString() {
+            return script.getElementName() + " (" + script.getFileName() + ":"
+                + script.getLineNumber() + ":" + script.getColumnNumber() + ") invocations: "
+                + getInvocationCount() + " total: " + getTotalTime() + "ns self: "
+                + getSelfTime() + "ns exceptions: " + getExceptionCount();
+        }
+
+        /** @return the TagScript these statistics are for */
+        public TagScript getScript() {
+            return script;
+        }
+
+        /** @return the file name of the TagScript */
+        public String getFileName() {
+            return script.getFileName();
+        }
+
+        /** @return the element name of the TagScript */
+        public String getElementName() {
+            return script.getElementName();
+        }
+
+        /** @return the line number of the TagScript */
+        public int getLineNumber() {
+            return script.getLineNumber();
+        }
+
+        /** @return the column number of the TagScript */
+        public int getColumnNumber() {
+            return script.getColumnNumber();
+        }
+
+        /** @return how many times the TagScript has run */
+        public long getInvocationCount() {
+            return invocationCount.get();
+        }
+
+        /** @return how many times the TagScript has thrown an exception */
+        public long getExceptionCount() {
+            return exceptionCount.get();
+        }
+
+        /** @return the total time in nanoseconds, including nested tags */
+        public long getTotalTime() {
+            return totalTime.get();
+        }
+
+        /** @return the time in nanoseconds excluding nested tags */
+        public long getSelfTime() {
+            return selfTime.get();
+        }
+
+        /** @return the bytes allocated, including nested tags, if tracked */
+        public long getAllocatedBytes() {
+            return allocatedBytes.get();
+        }
+
+        /** @return the bytes allocated excluding nested tags, if tracked */
+        public long getSelfAllocatedBytes() {
+            return selfAllocatedBytes.get();
+        }
+    }
+}
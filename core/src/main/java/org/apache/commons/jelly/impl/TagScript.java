@@ -20,16 +20,13 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.Set;
 
-import org.apache.commons.beanutils.ConvertingWrapDynaBean;
 import org.apache.commons.beanutils.ConvertUtils;
-import org.apache.commons.beanutils.DynaBean;
-import org.apache.commons.beanutils.DynaProperty;
 
 import org.apache.commons.jelly.CompilableTag;
 import org.apache.commons.jelly.JellyContext;
@@ -112,9 +109,24 @@ public class TagScript implements Script {
     /** the url of the script when parsed */
     private URL scriptURL = null;
     
-    /** A synchronized WeakHashMap from the current Thread (key) to a Tag object (value).
+    /** the attributes compiled into an array, created lazily */
+    private volatile ExpressionAttribute[] attributeArray;
+
+    /** the attribute binding last used for a bean tag, resolved lazily */
+    private volatile AttributeBinding attributeBinding;
+
+    /**
+     * The Tag instance used by the current thread. Each thread has its own slot
+     * so no locking is required, and the slot is released along with the thread
+     * or by {@link #releaseTrackedTags()}.
+     */
+    private final ThreadLocal threadLocalTagCache = new ThreadLocal();
+
+    /**
+     * The TagScripts which have cached a tag on the current thread since
+     * {@link #startTrackingTags()}, or null if they are not tracked
      */
-    private Map threadLocalTagCache = Collections.synchronizedMap(new WeakHashMap());
+    private static final ThreadLocal trackedScripts = new ThreadLocal();
 
     /**
      * @return a new TagScript based on whether
@@ -140,6 +152,8 @@ public class TagScript implements Script {
      * Compiles the tags body
      */
     public Script compile() throws JellyException {
+        attributesChanged();
+        getAttributeArray();
         if (tagBody != null) {
             tagBody = tagBody.compile();
         }
@@ -176,6 +190,7 @@ public class TagScript implements Script {
             log.debug("adding attribute name: " + name + " expression: " + expression);
         }
         attributes.put(name, new ExpressionAttribute(name,expression));
+        attributesChanged();
     }
 
     /** Add an initialization attribute for the tag.
@@ -188,6 +203,7 @@ public class TagScript implements Script {
         if(name.indexOf(':')==-1)
             name = prefix + ':' + name;
         attributes.put(name, new ExpressionAttribute(name,prefix,nsURI,expression));
+        attributesChanged();
     }
 
     /**
@@ -206,6 +222,28 @@ public class TagScript implements Script {
 
     /** Evaluates the body of a tag */
     public void run(JellyContext context, XMLOutput output) throws JellyTagException {
+        TagProfiler profiler = context.getTagProfiler();
+        if (profiler == null) {
+            runTag(context, output);
+            return;
+        }
+        TagProfiler.Frame frame = profiler.enter(this);
+        boolean failed = true;
+        try {
+            runTag(context, output);
+            failed = false;
+        }
+        finally {
+            profiler.exit(frame, failed);
+        }
+    }
+
+    /**
+     * Creates or reuses the tag, sets its attributes and invokes it. This is
+     * called by {@link #run} which records the tag's statistics if a
+     * {@link TagProfiler} is enabled.
+     */
+    protected void runTag(JellyContext context, XMLOutput output) throws JellyTagException {
         URL rootURL = context.getRootURL();
         URL currentURL = context.getCurrentURL();
         if ( ! context.isCacheTags() ) {
@@ -219,14 +257,13 @@ public class TagScript implements Script {
             tag.setContext(context);
             setContextURLs(context);
 
+            ExpressionAttribute[] attributeArray = getAttributeArray();
             if ( tag instanceof DynaTag ) {
                 DynaTag dynaTag = (DynaTag) tag;
 
-                // ### probably compiling this to 2 arrays might be quicker and smaller
-                for (Iterator iter = attributes.entrySet().iterator(); iter.hasNext();) {
-                    Map.Entry entry = (Map.Entry) iter.next();
-                    String name = (String) entry.getKey();
-                    Expression expression = ((ExpressionAttribute) entry.getValue()).exp;
+                for (int i = 0; i < attributeArray.length; i++) {
+                    String name = attributeArray[i].name;
+                    Expression expression = attributeArray[i].exp;
 
                     Class type = dynaTag.getAttributeType(name);
                     Object value = null;
@@ -241,26 +278,9 @@ public class TagScript implements Script {
             }
             else {
                 // treat the tag as a bean
-                DynaBean dynaBean = new ConvertingWrapDynaBean( tag );
-                for (Iterator iter = attributes.entrySet().iterator(); iter.hasNext();) {
-                    Map.Entry entry = (Map.Entry) iter.next();
-                    String name = (String) entry.getKey();
-                    Expression expression = ((ExpressionAttribute) entry.getValue()).exp;
-
-                    DynaProperty property = dynaBean.getDynaClass().getDynaProperty(name);
-                    if (property == null) {
-                        throw new JellyException("This tag does not understand the '" + name + "' attribute" );
-                    }
-                    Class type = property.getType();
-
-                    Object value = null;
-                    if (type.isAssignableFrom(Expression.class) && !type.isAssignableFrom(Object.class)) {
-                        value = expression;
-                    }
-                    else {
-                        value = expression.evaluateRecurse(context);
-                    }
-                    dynaBean.set(name, value);
+                TagAttributeBinder.Property[] properties = getAttributeBinding(tag.getClass(), attributeArray);
+                for (int i = 0; i < properties.length; i++) {
+                    properties[i].set(tag, attributeArray[i].exp, context);
                 }
             }
 
@@ -292,6 +312,41 @@ public class TagScript implements Script {
 
     }
 
+    /**
+     * @return the attributes of this tag as an array, in the order
+     * they are to be applied
+     */
+    ExpressionAttribute[] getAttributeArray() {
+        ExpressionAttribute[] answer = attributeArray;
+        if (answer == null) {
+            answer = (ExpressionAttribute[]) attributes.values().toArray(new ExpressionAttribute[attributes.size()]);
+            attributeArray = answer;
+        }
+        return answer;
+    }
+
+    /**
+     * Discards the compiled attribute information after an attribute is added
+     */
+    private void attributesChanged() {
+        attributeArray = null;
+        attributeBinding = null;
+    }
+
+    /**
+     * @return the properties of the given bean tag class matching the attribute array,
+     * reusing the previous binding if the tag class has not changed
+     */
+    private TagAttributeBinder.Property[] getAttributeBinding(Class tagClass, ExpressionAttribute[] attributeArray) {
+        AttributeBinding binding = attributeBinding;
+        if (binding == null || binding.tagClass != tagClass || binding.attributes != attributeArray) {
+            TagAttributeBinder binder = TagAttributeBinder.forClass(tagClass);
+            binding = new AttributeBinding(tagClass, attributeArray, binder.bind(attributeArray));
+            attributeBinding = binding;
+        }
+        return binding.properties;
+    }
+
     /**
      * Set the context's root and current URL if not present
      * @param context
@@ -312,12 +367,11 @@ public class TagScript implements Script {
      * @return the tag to be evaluated, creating it lazily if required.
      */
     public Tag getTag(JellyContext context) throws JellyException {
-        Thread t = Thread.currentThread();
-        Tag tag = (Tag) threadLocalTagCache.get(t);
+        Tag tag = (Tag) threadLocalTagCache.get();
         if ( tag == null ) {
             tag = createTag();
             if ( tag != null ) {
-                threadLocalTagCache.put(t,tag);
+                cacheTag(tag);
                 configureTag(tag,context);
             }
         }
@@ -554,8 +608,7 @@ public class TagScript implements Script {
      * Flushes the current cached tag so that it will be created, lazily, next invocation
      */
     protected void clearTag() {
-        Thread t = Thread.currentThread();
-        threadLocalTagCache.put(t,null);
+        threadLocalTagCache.remove();
     }
 
     /**
@@ -563,8 +616,56 @@ public class TagScript implements Script {
      * when a StaticTag is switched with a DynamicTag
      */
     protected void setTag(Tag tag, JellyContext context) {
-        Thread t = Thread.currentThread();
-        threadLocalTagCache.put(t,tag);
+        cacheTag(tag);
+    }
+
+    /**
+     * Uses the given tag, configured on another thread, as the tag of this
+     * script on the current thread, so that the tags of its body which are
+     * created on this thread have it as their parent
+     */
+    public void useTag(Tag tag) {
+        cacheTag(tag);
+    }
+
+    /**
+     * Starts tracking the tags cached on the current thread, so that they can be
+     * released by {@link #releaseTrackedTags()}. Threads which outlive the scripts
+     * they run, such as the workers of a
+     * {@link org.apache.commons.jelly.util.WorkerPool}, would otherwise keep the
+     * tags, their contexts and the scripts themselves until the thread ends.
+     * Does nothing if the tags are already tracked.
+     */
+    public static void startTrackingTags() {
+        if (trackedScripts.get() == null) {
+            trackedScripts.set(new HashSet());
+        }
+    }
+
+    /**
+     * Releases the tags cached on the current thread since
+     * {@link #startTrackingTags()} and stops tracking them
+     */
+    public static void releaseTrackedTags() {
+        Set scripts = (Set) trackedScripts.get();
+        if (scripts == null) {
+            return;
+        }
+        trackedScripts.remove();
+        for (Iterator iter = scripts.iterator(); iter.hasNext(); ) {
+            ((TagScript) iter.next()).clearTag();
+        }
+    }
+
+    /**
+     * Caches the tag for the current thread
+     */
+    private void cacheTag(Tag tag) {
+        threadLocalTagCache.set(tag);
+        Set scripts = (Set) trackedScripts.get();
+        if (scripts != null) {
+            scripts.add(this);
+        }
     }
 
     /**
@@ -734,19 +835,17 @@ public class TagScript implements Script {
 }
 
 
-class ExpressionAttribute {
-    public ExpressionAttribute(String name, Expression exp) {
-        this(name,"","",exp);
-    }
-    public ExpressionAttribute(String name, String prefix, String nsURI, Expression exp) {
-        this.name = name;
-        this.prefix = prefix;
-        this.nsURI = nsURI;
-        this.exp = exp;
+/**
+ * The properties of a bean tag class resolved for the attributes of a TagScript
+ */
+final class AttributeBinding {
+    AttributeBinding(Class tagClass, ExpressionAttribute[] attributes, TagAttributeBinder.Property[] properties) {
+        this.tagClass = tagClass;
+        this.attributes = attributes;
+        this.properties = properties;
     }
 
-    String name;
-    String prefix;
-    String nsURI;
-    Expression exp;
+    final Class tagClass;
+    final ExpressionAttribute[] attributes;
+    final TagAttributeBinder.Property[] properties;
 }
@@ -33,6 +33,9 @@ public class TextScript implements Script {
     /** the text output by this script */
     private String text;
 
+    /** the characters of the text, converted once when compiled */
+    private char[] chars;
+
     public TextScript() {
     }
 
@@ -49,6 +52,7 @@ public class TextScript implements Script {
      */
     public void trimWhitespace() {
         this.text = text.trim();
+        this.chars = null;
     }
 
     /**
@@ -64,6 +68,7 @@ public class TextScript implements Script {
         }
         if ( index > 0 ) {
             this.text = text.substring(index);
+            this.chars = null;
         }
     }
 
@@ -81,6 +86,7 @@ public class TextScript implements Script {
         index++;
         if ( index < text.length() ) {
             this.text = text.substring(0,index);
+            this.chars = null;
         }
     }
 
@@ -92,19 +98,29 @@ public class TextScript implements Script {
     /** Sets the text output by this script */
     public void setText(String text) {
         this.text = text;
+        this.chars = null;
     }
 
     // Script interface
     //-------------------------------------------------------------------------
     public Script compile() {
+        if ( text != null ) {
+            chars = text.toCharArray();
+        }
         return this;
     }
 
     /** Evaluates the body of a tag */
     public void run(JellyContext context, XMLOutput output) throws JellyTagException {
         if ( text != null ) {
+            char[] chars = this.chars;
+            if ( chars == null ) {
+                // the text was changed, for example trimmed, since compile()
+                chars = text.toCharArray();
+                this.chars = chars;
+            }
             try {
-              output.write(text);
+              output.write(chars, 0, chars.length);
             } catch (SAXException e) {
                 throw new JellyTagException("could not write to XMLOutput",e);
             }
@@ -183,6 +183,12 @@ public class XMLParser extends DefaultHandler {
      */
     private Log log = LogFactory.getLog(XMLParser.class);
 
+    /** The pool this parser is returned to after use, if any */
+    private XMLParserPool pool;
+
+    /** The queue of idle parsers this parser belongs to in the pool */
+    private Object poolQueue;
+
     /**
      * Construct a new XMLParser with default properties.
      */
@@ -359,6 +365,10 @@ public class XMLParser extends DefaultHandler {
     }
 
     public void setContext(JellyContext context) {
+        if (this.context != context) {
+            // the default tag libraries need registering with the new context
+            configured = false;
+        }
         this.context = context;
     }
 
@@ -1000,6 +1010,47 @@ public class XMLParser extends DefaultHandler {
         }
     }
 
+    /**
+     * Resets the state built up while parsing so that this parser can be reused
+     * for another document. The context is released and must be set again
+     * before the next parse.
+     */
+    public void reset() {
+        script = null;
+        tagScript = null;
+        textBuffer = null;
+        scriptStack.clear();
+        tagScriptStack.clear();
+        namespaces.clear();
+        elementNamespaces = null;
+        locator = null;
+        fileName = null;
+        context = null;
+        configured = false;
+    }
+
+    /**
+     * Associates this parser with the pool it should be returned to
+     */
+    void setPool(XMLParserPool pool, Object poolQueue) {
+        this.pool = pool;
+        this.poolQueue = poolQueue;
+    }
+
+    /**
+     * @return the pool this parser is returned to, or null
+     */
+    XMLParserPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return the queue of idle parsers this parser belongs to in the pool
+     */
+    Object getPoolQueue() {
+        return poolQueue;
+    }
+
     // Implementation methods
     //-------------------------------------------------------------------------
     /**
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.parser;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p><code>XMLParserPool</code> holds idle {@link XMLParser}s so that the cost of
+ * creating the underlying <code>SAXParser</code> and configuring it is paid once
+ * rather than for every script which is parsed.</p>
+ *
+ * <p>Parsers are pooled separately for each class loader and for each value of
+ * the <code>allowDtdToCallExternalEntities</code> setting; class loaders are only
+ * weakly referenced so the pool does not prevent them from being discarded.
+ * Only parsers which have been
+ * {@link #adopt adopted} by a pool are returned to it, and each parser is
+ * {@link XMLParser#reset reset} before it is made available again.
+ * A pool is thread safe, whereas a parser is only ever used by one thread at a time.</p>
+ *
+ * @see org.apache.commons.jelly.JellyContext#getXMLParser()
+ * @version $Revision$
+ */
+public class XMLParserPool {
+
+    /** The default maximum number of idle parsers held for each key */
+    public static final int DEFAULT_MAX_IDLE = 8;
+
+    /** the idle parsers, two Idle queues for each class loader */
+    private final Map idleParsers = Collections.synchronizedMap(new WeakHashMap());
+
+    /** the maximum number of idle parsers held for each key */
+    private final int maxIdle;
+
+    /** the number of requests satisfied by an idle parser */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** the number of requests which found no idle parser */
+    private final AtomicLong misses = new AtomicLong();
+
+    public XMLParserPool() {
+        this(DEFAULT_MAX_IDLE);
+    }
+
+    public XMLParserPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * @return an idle parser for the given settings or null if none is available,
+     * in which case the caller should create a new one and {@link #adopt} it
+     */
+    public XMLParser borrowParser(ClassLoader classLoader, boolean allowDtdToCallExternalEntities) {
+        Idle idle = getIdle(classLoader, allowDtdToCallExternalEntities, false);
+        XMLParser parser = (idle != null) ? (XMLParser) idle.queue.poll() : null;
+        if (parser == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        idle.size.decrementAndGet();
+        hits.incrementAndGet();
+        return parser;
+    }
+
+    /**
+     * Makes the given parser, which has just been created for the given class loader,
+     * eligible to be returned to this pool.
+     */
+    public void adopt(XMLParser parser, ClassLoader classLoader) {
+        parser.setPool(this, getIdle(classLoader, parser.isAllowDtdToCallExternalEntities(), true));
+    }
+
+    /**
+     * Returns a parser to this pool once it has finished parsing successfully.
+     * Parsers which were not adopted by this pool are ignored, as are parsers
+     * returned once the pool already holds enough idle parsers.
+     */
+    public void releaseParser(XMLParser parser) {
+        if (parser.getPool() != this) {
+            return;
+        }
+        Idle idle = (Idle) parser.getPoolQueue();
+        if (idle.size.incrementAndGet() > maxIdle) {
+            idle.size.decrementAndGet();
+            return;
+        }
+        parser.reset();
+        idle.queue.offer(parser);
+    }
+
+    /**
+     * Discards all the idle parsers
+     */
+    public void clear() {
+        idleParsers.clear();
+    }
+
+    /**
+     * @return the number of requests which were satisfied by an idle parser
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of requests which found no idle parser
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the maximum number of idle parsers held for each class loader and setting
+     */
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * @return the idle parsers for the given class loader and setting,
+     * or null if there are none and create is false
+     */
+    private Idle getIdle(ClassLoader classLoader, boolean allowDtdToCallExternalEntities, boolean create) {
+        Idle[] idles;
+        synchronized (idleParsers) {
+            idles = (Idle[]) idleParsers.get(classLoader);
+            if (idles == null) {
+                if (!create) {
+                    return null;
+                }
+                idles = new Idle[] { new Idle(), new Idle() };
+                idleParsers.put(classLoader, idles);
+            }
+        }
+        return idles[allowDtdToCallExternalEntities ? 1 : 0];
+    }
+
+    /**
+     * The idle parsers for one class loader and setting
+     */
+    private static final class Idle {
+        final Queue queue = new ConcurrentLinkedQueue();
+        final AtomicInteger size = new AtomicInteger();
+    }
+}
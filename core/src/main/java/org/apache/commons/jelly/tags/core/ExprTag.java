@@ -19,6 +19,7 @@ package org.apache.commons.jelly.tags.core;
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.TagSupport;
 import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.expression.CompositeExpression;
 import org.apache.commons.jelly.expression.Expression;
 import org.xml.sax.SAXException;
 
@@ -39,7 +40,15 @@ public class ExprTag extends TagSupport {
     // Tag interface
     //-------------------------------------------------------------------------
     public void doTag(XMLOutput output) throws JellyTagException {
-        if (value != null) {
+        if (value instanceof CompositeExpression) {
+            try {
+                ((CompositeExpression) value).write(context, output);
+            }
+            catch (SAXException e) {
+                throw new JellyTagException("could not write the XMLOutput",e);
+            }
+        }
+        else if (value != null) {
             String text = value.evaluateAsString(context);
             if (text != null) {
 
@@ -17,24 +17,57 @@
 
 package org.apache.commons.jelly.tags.core;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.jsp.jstl.core.LoopTagStatus;
 
+import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.MissingAttributeException;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.Tag;
 import org.apache.commons.jelly.TagSupport;
 import org.apache.commons.jelly.XMLOutput;
 import org.apache.commons.jelly.expression.Expression;
 import org.apache.commons.jelly.impl.BreakException;
+import org.apache.commons.jelly.impl.ScriptBlock;
+import org.apache.commons.jelly.impl.TagScript;
+import org.apache.commons.jelly.util.SAXEventRecorder;
+import org.apache.commons.jelly.util.WorkerPool;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.xml.sax.SAXException;
 
 /**
   * Iterates over a collection, iterator or an array of objects.
   * Uses the same syntax as the <a href="http://java.sun.com/products/jsp/jstl/">JSTL</a>
   * <code>forEach</code> tag does.
   *
+  * <p>If <code>parallel</code> is true the iterations are run concurrently by up to
+  * <code>threads</code> threads. Each iteration runs in its own child context,
+  * so variables set by the body are not visible to other iterations or after the
+  * loop, and the output of each iteration is buffered and written out in order.
+  * The items are all read before the first iteration starts. If an iteration
+  * breaks out of the loop or fails, the iterations after it which have not
+  * started are skipped and the output of any which did run is discarded, so the
+  * output is the same as if the loop had run sequentially. Tags in the body
+  * which look for their ancestors find this tag and its ancestors as configured
+  * on the current thread, whichever thread runs them, so those ancestors are
+  * used by several threads at once.</p>
+  *
+  * <p>The other threads are taken from the context's {@link WorkerPool}. If the
+  * context has no pool, or the loop is run by one of the pool's workers, such
+  * as a loop nested inside another parallel loop, all of the iterations are
+  * run by the current thread, still each in its own child context.</p>
+  *
   * @author <a href="mailto:jstrachan@apache.org">James Strachan</a>
   * @version $Revision$
   */
@@ -73,6 +106,15 @@ public class ForEachTag extends TagSupport {
     /** The iteration index */
     private int index;
 
+    /** Whether the iterations are run concurrently */
+    private boolean parallel;
+
+    /** The maximum number of threads used to run the iterations concurrently */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /** The iterations to run concurrently, collected while iterating */
+    private List iterations;
+
     public ForEachTag() {
     }
 
@@ -85,6 +127,10 @@ public class ForEachTag extends TagSupport {
             log.debug("running with items: " + items);
         }
 
+        if (parallel) {
+            iterations = new ArrayList();
+        }
+        List collected;
         try {
             if (items != null) {
                 Iterator iter = items.evaluateAsIterator(context);
@@ -114,6 +160,7 @@ public class ForEachTag extends TagSupport {
                 int count = 0;
                 while (iter.hasNext() && index <= end) {
                     Object value = iter.next();
+                    int itemIndex = index;
                     if (var != null) {
                         context.setVariable(var, value);
                     }
@@ -148,7 +195,7 @@ public class ForEachTag extends TagSupport {
                     if (statusVar != null) {
                         status.setLast(finished || !iter.hasNext() || index > end);
                     }
-                    invokeBody(output);
+                    iterate(output, value, itemIndex, status);
 
                 }
             }
@@ -189,7 +236,7 @@ public class ForEachTag extends TagSupport {
                             status.setFirst(index == begin);
                             status.setLast(index > end - step);
                         }
-                        invokeBody(output);
+                        iterate(output, value, index, status);
                     }
                 }
             }
@@ -199,6 +246,164 @@ public class ForEachTag extends TagSupport {
                 log.debug("loop terminated by break: " + e, e);
             }
         }
+        finally {
+            collected = iterations;
+            iterations = null;
+        }
+        if (collected != null) {
+            runParallel(output, collected);
+        }
+    }
+
+    /**
+     * Runs the body for the current iteration, or records the iteration to be
+     * run later if the iterations are run concurrently
+     */
+    private void iterate(XMLOutput output, Object value, int index, LoopStatus status) throws JellyTagException {
+        if (iterations != null) {
+            LoopStatus copy = null;
+            if (status != null) {
+                copy = new LoopStatus(status.getBegin(), status.getEnd(), status.getStep());
+                copy.setCount(status.getCount());
+                copy.setCurrent(status.getCurrent());
+                copy.setFirst(status.isFirst());
+                copy.setLast(status.isLast());
+                copy.setIndex(status.getIndex());
+            }
+            iterations.add(new Iteration(value, index, copy));
+        }
+        else {
+            invokeBody(output);
+        }
+    }
+
+    /**
+     * Runs the given iterations concurrently and writes their output in order
+     */
+    private void runParallel(XMLOutput output, final List iterations) throws JellyTagException {
+        final int size = iterations.size();
+        if (size == 0) {
+            return;
+        }
+        final AtomicInteger next = new AtomicInteger();
+        // the first iteration which broke out of the loop or failed
+        final AtomicInteger stop = new AtomicInteger(size);
+        final Runnable worker = new Runnable() {
+            public void run() {
+                for (int i = next.getAndIncrement(); i < size && i < stop.get(); i = next.getAndIncrement()) {
+                    Iteration iteration = (Iteration) iterations.get(i);
+                    if (iteration.run()) {
+                        // no later iteration is needed
+                        int current;
+                        do {
+                            current = stop.get();
+                        } while (i < current && !stop.compareAndSet(current, i));
+                    }
+                }
+            }
+        };
+
+        WorkerPool pool = context.getWorkerPool();
+        int count = Math.min(threads, size);
+        if (pool == null || pool.isWorkerThread()) {
+            count = 1;
+        }
+        final TagScript script = findTagScript(getBody());
+        final Tag tag = this;
+        Runnable helperWorker = worker;
+        if (script != null) {
+            helperWorker = new Runnable() {
+                public void run() {
+                    // the tags of the body find this tag and its ancestors rather than
+                    // unconfigured instances of their own. The pool releases them.
+                    script.useTag(tag);
+                    worker.run();
+                }
+            };
+        }
+        Helper[] helpers = new Helper[count - 1];
+        Future[] futures = new Future[count - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            helpers[i] = new Helper(helperWorker);
+            try {
+                futures[i] = pool.submit(helpers[i]);
+            }
+            catch (RejectedExecutionException e) {
+                // the current thread will run the iterations itself
+                break;
+            }
+        }
+        // the current thread does its share of the work too
+        worker.run();
+        boolean interrupted = false;
+        for (int i = 0; i < futures.length && futures[i] != null; i++) {
+            if (helpers[i].claim()) {
+                // the helper is still waiting for a thread and would find no work left
+                futures[i].cancel(false);
+                continue;
+            }
+            while (true) {
+                try {
+                    futures[i].get();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                catch (ExecutionException e) {
+                    // the iterations record their own failures
+                    log.error("error running the loop", e.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        int last = Math.min(stop.get(), size - 1);
+        for (int i = 0; i <= last; i++) {
+            Iteration iteration = (Iteration) iterations.get(i);
+            try {
+                iteration.output.replay(output);
+            }
+            catch (SAXException e) {
+                throw new JellyTagException("could not write the XMLOutput", e);
+            }
+            if (iteration.failure instanceof BreakException) {
+                if (log.isDebugEnabled()) {
+                    log.debug("loop terminated by break: " + iteration.failure, iteration.failure);
+                }
+            }
+            else if (iteration.failure instanceof JellyTagException) {
+                throw (JellyTagException) iteration.failure;
+            }
+            else if (iteration.failure instanceof RuntimeException) {
+                throw (RuntimeException) iteration.failure;
+            }
+            else if (iteration.failure instanceof Error) {
+                throw (Error) iteration.failure;
+            }
+        }
+    }
+
+    /**
+     * @return the script of this tag, which is the parent of the tags of the
+     * given body, or null if the body has no tags
+     */
+    private TagScript findTagScript(Script body) {
+        if (body instanceof TagScript) {
+            return ((TagScript) body).getParent();
+        }
+        if (body instanceof ScriptBlock) {
+            for (Iterator iter = ((ScriptBlock) body).getScriptList().iterator(); iter.hasNext(); ) {
+                TagScript script = findTagScript((Script) iter.next());
+                if (script != null) {
+                    return script;
+                }
+            }
+        }
+        return null;
     }
 
     // Properties
@@ -243,6 +448,22 @@ public class ForEachTag extends TagSupport {
         this.step = step;
     }
 
+    /** Sets whether the iterations are run concurrently, each in its own child context
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /** Sets the maximum number of threads used to run the iterations concurrently,
+     * which defaults to the number of processors
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.threads = threads;
+    }
+
     /**
      * Sets the variable name to export the current status to.
      * The status is an implementation of the JSTL LoopTagStatus interface that provides
@@ -261,6 +482,79 @@ public class ForEachTag extends TagSupport {
         this.statusVar = var;
     }
     
+    /**
+     * Runs the iterations on another thread unless the loop
+     * has claimed it before it started
+     */
+    private static final class Helper implements Callable {
+        private final Runnable worker;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Helper(Runnable worker) {
+            this.worker = worker;
+        }
+
+        public Object call() {
+            if (claim()) {
+                worker.run();
+            }
+            return null;
+        }
+
+        /**
+         * @return true if the helper had not already been started or claimed
+         */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+
+    /**
+     * A single iteration of a loop run concurrently
+     */
+    private final class Iteration {
+        private final Object value;
+        private final int index;
+        private final LoopStatus status;
+        /** the buffered output of the iteration */
+        private final SAXEventRecorder output = new SAXEventRecorder();
+        /** the exception which ended the iteration, if any */
+        private Throwable failure;
+
+        Iteration(Object value, int index, LoopStatus status) {
+            this.value = value;
+            this.index = index;
+            this.status = status;
+        }
+
+        /**
+         * Runs the body in a new child context
+         * @return true if the loop should stop after this iteration
+         */
+        boolean run() {
+            JellyContext iterationContext = context.newJellyContext();
+            if (var != null) {
+                iterationContext.setVariable(var, value);
+            }
+            if (indexVar != null) {
+                iterationContext.setVariable(indexVar, new Integer(index));
+            }
+            if (statusVar != null) {
+                iterationContext.setVariable(statusVar, status);
+            }
+            try {
+                XMLOutput iterationOutput = output.createXMLOutput();
+                getBody().run(iterationContext, iterationOutput);
+                iterationOutput.flush();
+                return false;
+            }
+            catch (Throwable t) {
+                failure = t;
+                return true;
+            }
+        }
+    }
+
     /**
      * Holds the status of the loop. 
      */
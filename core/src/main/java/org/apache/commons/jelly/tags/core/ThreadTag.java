@@ -19,21 +19,35 @@ package org.apache.commons.jelly.tags.core;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.TagSupport;
 import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.util.WorkerPool;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-/** A tag that spawns the contained script in a separate thread
+/** A tag that spawns the contained script in a separate thread.
+  *
+  * <p>If the context has a {@link WorkerPool} the script is submitted to it,
+  * waiting for room if the pool's queue is full, otherwise a new thread is started.
+  * A thread tag inside a script already run by one of the pool's workers is
+  * given a new thread by the pool, so that nested tags cannot deadlock it.
+  * The <code>var</code> attribute exports a <code>Future</code> which can be used
+  * to wait for the script to finish and to obtain any exception it threw.</p>
   *
   * @author <a href="mailto:vinayc@apache.org">Vinay Chandran</a>
   */
 public class ThreadTag extends TagSupport  {
     /** Thread Name */
     private String name = null;
+    /** the variable to export the Future of the script to */
+    private String var;
     /** the destination of output */
     private XMLOutput xmlOutput;
     /** Should we close the underlying output */
@@ -58,29 +72,64 @@ public class ThreadTag extends TagSupport  {
 
         // lets create a child context
         final JellyContext newContext = context.newJellyContext();
+        final XMLOutput threadOutput = xmlOutput;
+        final boolean closeThreadOutput = closeOutput;
+        final String threadName = name;
 
-        Thread thread = new Thread(
-            new Runnable() {
-                public void run() {
-                    try {
-                        getBody().run(newContext, xmlOutput);
-                        if (closeOutput) {
-                            xmlOutput.close();
-                        }
-                        else {
-                            xmlOutput.flush();
-                        }
+        Callable task = new Callable() {
+            public Object call() throws Exception {
+                Thread thread = Thread.currentThread();
+                String oldName = thread.getName();
+                if ( threadName != null ) {
+                    thread.setName( threadName );
+                }
+                try {
+                    getBody().run(newContext, threadOutput);
+                    if (closeThreadOutput) {
+                        threadOutput.close();
                     }
-                    catch (Exception e) {
-                        if (log.isErrorEnabled()) log.error("error running thread tag", e);
+                    else {
+                        threadOutput.flush();
                     }
+                    return null;
+                }
+                catch (Exception e) {
+                    if (log.isErrorEnabled()) log.error("error running thread tag", e);
+                    throw e;
+                }
+                catch (Error e) {
+                    // the Future keeps the Error, which nobody sees unless it was exported
+                    if (log.isErrorEnabled()) log.error("error running thread tag", e);
+                    throw e;
                 }
+                finally {
+                    thread.setName( oldName );
+                }
+            }
+        };
+
+        Future future;
+        WorkerPool pool = context.getWorkerPool();
+        if ( pool != null ) {
+            try {
+                future = pool.submit( task );
             }
-        );
-        if ( name != null ) {
-            thread.setName( name );
+            catch (RejectedExecutionException e) {
+                throw new JellyTagException("could not run the thread tag", e);
+            }
+        }
+        else {
+            FutureTask futureTask = new FutureTask( task );
+            Thread thread = new Thread( futureTask );
+            if ( name != null ) {
+                thread.setName( name );
+            }
+            thread.start();
+            future = futureTask;
+        }
+        if ( var != null ) {
+            context.setVariable( var, future );
         }
-        thread.start();
     }
 
     /**
@@ -91,6 +140,15 @@ public class ThreadTag extends TagSupport  {
         this.name = name;
     }
 
+    /**
+     * Sets the name of the variable to export the <code>Future</code> of the
+     * script to, which can be used to wait for the script to complete.
+     * @param var The variable name
+     */
+    public void setVar(String var) {
+        this.var = var;
+    }
+
     /**
      * Sets the destination of output
      */
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p><code>FileStamp</code> records the modification time and length of the
+ * local file a resource was loaded from, so that caches of objects compiled
+ * from the resource can tell when it has changed.</p>
+ *
+ * @version $Revision$
+ */
+public final class FileStamp {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(FileStamp.class);
+
+    private final File file;
+    private final long lastModified;
+    private final long length;
+
+    private FileStamp(File file) {
+        this.file = file;
+        this.lastModified = file.lastModified();
+        this.length = file.length();
+    }
+
+    /**
+     * @return true if the file has not changed since this stamp was taken
+     */
+    public boolean isCurrent() {
+        return file.lastModified() == lastModified && file.length() == length;
+    }
+
+    /**
+     * @return the stamp of the file the URL refers to, or null if the URL
+     * does not refer to a local file or a jar in a local file
+     */
+    public static FileStamp forURL(URL url) {
+        File file = toFile(url);
+        if (file == null) {
+            return null;
+        }
+        return new FileStamp(file);
+    }
+
+    private static File toFile(URL url) {
+        if ("jar".equals(url.getProtocol())) {
+            try {
+                URLConnection connection = url.openConnection();
+                if (connection instanceof JarURLConnection) {
+                    return toFile(((JarURLConnection) connection).getJarFileURL());
+                }
+            }
+            catch (IOException e) {
+                log.debug("could not open jar URL: " + url, e);
+            }
+            return null;
+        }
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return new File(url.toURI());
+            }
+            catch (Exception e) {
+                return new File(url.getPath());
+            }
+        }
+        return null;
+    }
+}
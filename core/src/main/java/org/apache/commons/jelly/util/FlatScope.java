@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p><code>FlatScope</code> is an unsynchronized Map of variables which stores its
+ * names and values in two parallel arrays. Variable scopes typically hold a handful
+ * of entries, so a linear scan which compares names by identity before falling back
+ * to <code>equals()</code> is faster than hashing, and setting an existing variable
+ * (such as the <code>var</code> of a loop) does not allocate.</p>
+ *
+ * <p>Like <code>Hashtable</code>, null names and values are not allowed.
+ * This scope is not thread safe and should only be used by a
+ * {@link org.apache.commons.jelly.JellyContext} confined to a single thread.</p>
+ *
+ * @version $Revision$
+ */
+public class FlatScope extends AbstractMap {
+
+    /** the default number of slots */
+    private static final int DEFAULT_CAPACITY = 8;
+
+    /** the variable names */
+    private String[] names;
+
+    /** the variable values */
+    private Object[] values;
+
+    /** the number of slots in use */
+    private int size;
+
+    public FlatScope() {
+        names = new String[DEFAULT_CAPACITY];
+        values = new Object[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Creates a scope containing the non null entries of the given Map
+     */
+    public FlatScope(Map variables) {
+        this();
+        for (Iterator iter = variables.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry entry = (Map.Entry) iter.next();
+            if (entry.getValue() != null) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the value of the given variable, using and updating the slot
+     * remembered by the reference
+     */
+    public Object get(VariableReference reference) {
+        String name = reference.getName();
+        int slot = reference.getSlot();
+        if (slot < size) {
+            String candidate = names[slot];
+            if (candidate == name || candidate.equals(name)) {
+                return values[slot];
+            }
+        }
+        slot = indexOf(name);
+        if (slot < 0) {
+            return null;
+        }
+        reference.setSlot(slot);
+        return values[slot];
+    }
+
+    // Map interface
+    //-------------------------------------------------------------------------
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(Object key) {
+        return (key instanceof String) && indexOf((String) key) >= 0;
+    }
+
+    public Object get(Object key) {
+        if (key instanceof String) {
+            int slot = indexOf((String) key);
+            if (slot >= 0) {
+                return values[slot];
+            }
+        }
+        return null;
+    }
+
+    public Object put(Object key, Object value) {
+        if (value == null) {
+            throw new NullPointerException("null value for variable: " + key);
+        }
+        String name = (String) key;
+        int slot = indexOf(name);
+        if (slot >= 0) {
+            Object answer = values[slot];
+            values[slot] = value;
+            return answer;
+        }
+        if (size == names.length) {
+            String[] newNames = new String[size * 2];
+            Object[] newValues = new Object[size * 2];
+            System.arraycopy(names, 0, newNames, 0, size);
+            System.arraycopy(values, 0, newValues, 0, size);
+            names = newNames;
+            values = newValues;
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+        return null;
+    }
+
+    public Object remove(Object key) {
+        if (key instanceof String) {
+            int slot = indexOf((String) key);
+            if (slot >= 0) {
+                Object answer = values[slot];
+                removeSlot(slot);
+                return answer;
+            }
+        }
+        return null;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            names[i] = null;
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    public Set entrySet() {
+        return new EntrySet();
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the slot of the given name or -1 if it is not defined
+     */
+    protected int indexOf(String name) {
+        if (name == null) {
+            throw new NullPointerException("null variable name");
+        }
+        for (int i = 0; i < size; i++) {
+            if (names[i] == name) {
+                return i;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the given slot, moving the last slot into its place
+     */
+    private void removeSlot(int slot) {
+        size--;
+        names[slot] = names[size];
+        values[slot] = values[size];
+        names[size] = null;
+        values[size] = null;
+    }
+
+    private class EntrySet extends AbstractSet {
+        public int size() {
+            return size;
+        }
+
+        public Iterator iterator() {
+            return new Iterator() {
+                private int next = 0;
+                private int last = -1;
+
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                public Object next() {
+                    if (next >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    last = next++;
+                    return new Entry(last);
+                }
+
+                public void remove() {
+                    if (last < 0) {
+                        throw new IllegalStateException();
+                    }
+                    removeSlot(last);
+                    // the last slot has been moved into the removed one
+                    next = last;
+                    last = -1;
+                }
+            };
+        }
+    }
+
+    private class Entry implements Map.Entry {
+        private final String name;
+        private final int slot;
+
+        Entry(int slot) {
+            this.slot = slot;
+            this.name = names[slot];
+        }
+
+        public Object getKey() {
+            return name;
+        }
+
+        public Object getValue() {
+            return (slot < size && names[slot] == name) ? values[slot] : get(name);
+        }
+
+        public Object setValue(Object value) {
+            return put(name, value);
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry entry = (Map.Entry) object;
+            Object value = getValue();
+            return name.equals(entry.getKey())
+                && (value == null ? entry.getValue() == null : value.equals(entry.getValue()));
+        }
+
+        public int hashCode() {
+            Object value = getValue();
+            return name.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        public String toString() {
+            return name + "=" + getValue();
+        }
+    }
+}
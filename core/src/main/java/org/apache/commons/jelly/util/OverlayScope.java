@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p><code>OverlayScope</code> is a Map of variables which lays a read only
+ * overlay, such as the attributes of a tag, over a writable scope without
+ * copying the overlay. Variables are looked up in the writable scope first
+ * and then in the overlay. Variables which are set are held in the writable
+ * scope and removing a variable hides any overlay entry of the same name.</p>
+ *
+ * <p>Like the scopes it wraps, null values are not visible.
+ * This scope is not thread safe and should only be used by a
+ * {@link org.apache.commons.jelly.JellyContext} confined to a single thread.</p>
+ *
+ * @version $Revision$
+ */
+public class OverlayScope extends AbstractMap {
+
+    /** the writable scope */
+    private final Map scope;
+
+    /** the read only overlay */
+    private final Map overlay;
+
+    /** the names of overlay entries which have been removed, created lazily */
+    private Set hidden;
+
+    public OverlayScope(Map scope, Map overlay) {
+        this.scope = scope;
+        this.overlay = overlay;
+    }
+
+    /**
+     * @return the read only overlay
+     */
+    public Map getOverlay() {
+        return overlay;
+    }
+
+    // Map interface
+    //-------------------------------------------------------------------------
+
+    public Object get(Object key) {
+        Object value = scope.get(key);
+        if (value != null) {
+            return value;
+        }
+        if (hidden != null && hidden.contains(key)) {
+            return null;
+        }
+        return overlay.get(key);
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    public Object put(Object key, Object value) {
+        if (hidden != null) {
+            hidden.remove(key);
+        }
+        Object answer = get(key);
+        scope.put(key, value);
+        return answer;
+    }
+
+    public Object remove(Object key) {
+        Object answer = get(key);
+        scope.remove(key);
+        if (overlay.get(key) != null) {
+            if (hidden == null) {
+                hidden = new HashSet();
+            }
+            hidden.add(key);
+        }
+        return answer;
+    }
+
+    public void clear() {
+        scope.clear();
+        if (hidden == null) {
+            hidden = new HashSet();
+        }
+        hidden.addAll(overlay.keySet());
+    }
+
+    public int size() {
+        return keys().size();
+    }
+
+    public Set entrySet() {
+        return new EntrySet();
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the names of the visible variables
+     */
+    private List keys() {
+        List answer = new ArrayList(scope.keySet());
+        for (Iterator iter = overlay.keySet().iterator(); iter.hasNext();) {
+            Object key = iter.next();
+            if (!scope.containsKey(key) && get(key) != null) {
+                answer.add(key);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * A view of the entries visible when it is iterated
+     */
+    private class EntrySet extends AbstractSet {
+        public int size() {
+            return OverlayScope.this.size();
+        }
+
+        public Iterator iterator() {
+            final Iterator keys = keys().iterator();
+            return new Iterator() {
+                private Object last;
+
+                public boolean hasNext() {
+                    return keys.hasNext();
+                }
+
+                public Object next() {
+                    last = keys.next();
+                    return new Entry(last);
+                }
+
+                public void remove() {
+                    if (last == null) {
+                        throw new IllegalStateException();
+                    }
+                    OverlayScope.this.remove(last);
+                    last = null;
+                }
+            };
+        }
+    }
+
+    private class Entry implements Map.Entry {
+        private final Object key;
+
+        Entry(Object key) {
+            this.key = key;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public Object getValue() {
+            return get(key);
+        }
+
+        public Object setValue(Object value) {
+            return put(key, value);
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry entry = (Map.Entry) object;
+            Object value = getValue();
+            return key.equals(entry.getKey())
+                && (value == null ? entry.getValue() == null : value.equals(entry.getValue()));
+        }
+
+        public int hashCode() {
+            Object value = getValue();
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * <p><code>SAXEventRecorder</code> records the SAX events it receives so
+ * that they can be replayed later to an {@link XMLOutput}, for example to
+ * buffer the output of scripts run concurrently and emit it in order.</p>
+ *
+ * <p>Document and locator events are not recorded as the recorded events
+ * are a fragment of some other document.</p>
+ *
+ * @version $Revision$
+ */
+public class SAXEventRecorder implements ContentHandler, LexicalHandler {
+
+    private static final int START_PREFIX_MAPPING = 0;
+    private static final int END_PREFIX_MAPPING = 1;
+    private static final int START_ELEMENT = 2;
+    private static final int END_ELEMENT = 3;
+    private static final int CHARACTERS = 4;
+    private static final int IGNORABLE_WHITESPACE = 5;
+    private static final int PROCESSING_INSTRUCTION = 6;
+    private static final int SKIPPED_ENTITY = 7;
+    private static final int START_DTD = 8;
+    private static final int END_DTD = 9;
+    private static final int START_ENTITY = 10;
+    private static final int END_ENTITY = 11;
+    private static final int START_CDATA = 12;
+    private static final int END_CDATA = 13;
+    private static final int COMMENT = 14;
+
+    /** the recorded events */
+    private final List events = new ArrayList();
+
+    public SAXEventRecorder() {
+    }
+
+    /**
+     * @return a new XMLOutput which records its events in this recorder
+     */
+    public XMLOutput createXMLOutput() {
+        return new XMLOutput(this, this);
+    }
+
+    /**
+     * Replays the recorded events to the given output
+     */
+    public void replay(XMLOutput output) throws SAXException {
+        for (int i = 0, size = events.size(); i < size; i++) {
+            Event event = (Event) events.get(i);
+            switch (event.type) {
+                case START_PREFIX_MAPPING:
+                    output.startPrefixMapping(event.name, event.value);
+                    break;
+                case END_PREFIX_MAPPING:
+                    output.endPrefixMapping(event.name);
+                    break;
+                case START_ELEMENT:
+                    output.startElement(event.uri, event.name, event.value, event.attributes);
+                    break;
+                case END_ELEMENT:
+                    output.endElement(event.uri, event.name, event.value);
+                    break;
+                case CHARACTERS:
+                    output.characters(event.chars, 0, event.chars.length);
+                    break;
+                case IGNORABLE_WHITESPACE:
+                    output.ignorableWhitespace(event.chars, 0, event.chars.length);
+                    break;
+                case PROCESSING_INSTRUCTION:
+                    output.processingInstruction(event.name, event.value);
+                    break;
+                case SKIPPED_ENTITY:
+                    output.skippedEntity(event.name);
+                    break;
+                case START_DTD:
+                    output.startDTD(event.name, event.uri, event.value);
+                    break;
+                case END_DTD:
+                    output.endDTD();
+                    break;
+                case START_ENTITY:
+                    output.startEntity(event.name);
+                    break;
+                case END_ENTITY:
+                    output.endEntity(event.name);
+                    break;
+                case START_CDATA:
+                    output.startCDATA();
+                    break;
+                case END_CDATA:
+                    output.endCDATA();
+                    break;
+                case COMMENT:
+                    output.comment(event.chars, 0, event.chars.length);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Discards the recorded events
+     */
+    public void clear() {
+        events.clear();
+    }
+
+    /**
+     * @return the number of recorded events
+     */
+    public int size() {
+        return events.size();
+    }
+
+    // ContentHandler interface
+    //-------------------------------------------------------------------------
+    public void setDocumentLocator(Locator locator) {
+    }
+
+    public void startDocument() throws SAXException {
+    }
+
+    public void endDocument() throws SAXException {
+    }
+
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        add(START_PREFIX_MAPPING, null, prefix, uri);
+    }
+
+    public void endPrefixMapping(String prefix) throws SAXException {
+        add(END_PREFIX_MAPPING, null, prefix, null);
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        Event event = add(START_ELEMENT, uri, localName, qName);
+        event.attributes = new AttributesImpl(atts);
+    }
+
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        add(END_ELEMENT, uri, localName, qName);
+    }
+
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        add(CHARACTERS, ch, start, length);
+    }
+
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        add(IGNORABLE_WHITESPACE, ch, start, length);
+    }
+
+    public void processingInstruction(String target, String data) throws SAXException {
+        add(PROCESSING_INSTRUCTION, null, target, data);
+    }
+
+    public void skippedEntity(String name) throws SAXException {
+        add(SKIPPED_ENTITY, null, name, null);
+    }
+
+    // LexicalHandler interface
+    //-------------------------------------------------------------------------
+    public void startDTD(String name, String publicId, String systemId) throws SAXException {
+        add(START_DTD, publicId, name, systemId);
+    }
+
+    public void endDTD() throws SAXException {
+        add(END_DTD, null, null, null);
+    }
+
+    public void startEntity(String name) throws SAXException {
+        add(START_ENTITY, null, name, null);
+    }
+
+    public void endEntity(String name) throws SAXException {
+        add(END_ENTITY, null, name, null);
+    }
+
+    public void startCDATA() throws SAXException {
+        add(START_CDATA, null, null, null);
+    }
+
+    public void endCDATA() throws SAXException {
+        add(END_CDATA, null, null, null);
+    }
+
+    public void comment(char[] ch, int start, int length) throws SAXException {
+        add(COMMENT, ch, start, length);
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+    private Event add(int type, String uri, String name, String value) {
+        Event event = new Event(type);
+        event.uri = uri;
+        event.name = name;
+        event.value = value;
+        events.add(event);
+        return event;
+    }
+
+    private void add(int type, char[] ch, int start, int length) {
+        Event event = new Event(type);
+        event.chars = new char[length];
+        System.arraycopy(ch, start, event.chars, 0, length);
+        events.add(event);
+    }
+
+    /** A recorded event */
+    private static final class Event {
+        final int type;
+        String uri;
+        String name;
+        String value;
+        char[] chars;
+        Attributes attributes;
+
+        Event(int type) {
+            this.type = type;
+        }
+    }
+}
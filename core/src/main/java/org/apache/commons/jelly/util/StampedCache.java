@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.net.URL;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p><code>StampedCache</code> is a bounded, thread safe cache of objects
+ * compiled from resources, such as scripts or stylesheets. Once it holds more
+ * than {@link #getMaxSize()} objects the least recently used one is discarded.</p>
+ *
+ * <p>Each object is stored with the {@link FileStamp} of the resource it was
+ * compiled from. When {@link #isCheckModified()} is enabled, an object whose
+ * file has changed is discarded by {@link #get(Object)} so that the caller
+ * compiles it again.</p>
+ *
+ * @version $Revision$
+ */
+public class StampedCache {
+
+    /** the cached entries */
+    private final Map entries = new ConcurrentHashMap();
+
+    /** the clock used to order entries by their last use */
+    private final AtomicLong clock = new AtomicLong();
+
+    /** the maximum number of cached objects */
+    private volatile int maxSize;
+
+    /** whether local files are checked for modifications */
+    private volatile boolean checkModified = true;
+
+    /** the number of lookups which found a valid object */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** the number of lookups which found no valid object */
+    private final AtomicLong misses = new AtomicLong();
+
+    public StampedCache(int maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * @return the cached object for the given key, or null if there is none
+     * or its file has been modified since it was compiled
+     */
+    public Object get(Object key) {
+        Entry entry = (Entry) entries.get(key);
+        if (entry != null) {
+            if (!checkModified || entry.isCurrent()) {
+                entry.lastUsed = clock.incrementAndGet();
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            entries.remove(key, entry);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns the stamp to store with an object compiled from the given URL.
+     * This should be called before the resource is read so that a concurrent
+     * change is seen by the next lookup.
+     *
+     * @return the stamp of the URL's file, or null if modifications are not
+     * checked or the URL does not refer to a local file
+     */
+    public FileStamp stamp(URL url) {
+        return checkModified ? FileStamp.forURL(url) : null;
+    }
+
+    /**
+     * Caches the given object, discarding the least recently used objects
+     * if the cache is full
+     *
+     * @param stamp the stamp returned by {@link #stamp(URL)} before the object was compiled
+     */
+    public void put(Object key, Object value, FileStamp stamp) {
+        Entry entry = new Entry(value, stamp);
+        entry.lastUsed = clock.incrementAndGet();
+        entries.put(key, entry);
+        evict();
+    }
+
+    /**
+     * Removes all the cached objects
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the maximum number of cached objects
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of cached objects
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    /**
+     * @return whether objects are discarded when their file changes
+     */
+    public boolean isCheckModified() {
+        return checkModified;
+    }
+
+    /**
+     * Sets whether objects are discarded when their file changes
+     */
+    public void setCheckModified(boolean checkModified) {
+        this.checkModified = checkModified;
+    }
+
+    /**
+     * @return the number of objects currently cached
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of lookups which returned a cached object
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups which returned null
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Removes the least recently used entries until the cache is within its bounds.
+     * Compiling an object is far more expensive than this scan so it is only done
+     * when an object is added.
+     */
+    private void evict() {
+        while (entries.size() > maxSize) {
+            Object eldestKey = null;
+            long eldest = Long.MAX_VALUE;
+            for (Iterator iter = entries.entrySet().iterator(); iter.hasNext();) {
+                Map.Entry mapEntry = (Map.Entry) iter.next();
+                long lastUsed = ((Entry) mapEntry.getValue()).lastUsed;
+                if (lastUsed < eldest) {
+                    eldest = lastUsed;
+                    eldestKey = mapEntry.getKey();
+                }
+            }
+            if (eldestKey == null) {
+                break;
+            }
+            entries.remove(eldestKey);
+        }
+    }
+
+    /**
+     * A cached object
+     */
+    private static final class Entry {
+        final Object value;
+        final FileStamp stamp;
+        volatile long lastUsed;
+
+        Entry(Object value, FileStamp stamp) {
+            this.value = value;
+            this.stamp = stamp;
+        }
+
+        /**
+         * @return true if the object's file has not changed since it was compiled
+         */
+        boolean isCurrent() {
+            return stamp == null || stamp.isCurrent();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+/**
+ * <p><code>VariableReference</code> is a variable name which has been resolved
+ * when a script is compiled, so that looking it up at runtime is as cheap as possible.
+ * The name is interned, and the reference remembers the slot the variable was last
+ * found at in a {@link FlatScope} so that repeated lookups usually need a single
+ * comparison.</p>
+ *
+ * <p>The slot is only a hint; it is validated on every lookup so a single reference
+ * can safely be shared by many scopes and threads.</p>
+ *
+ * @see org.apache.commons.jelly.JellyContext#getVariable(VariableReference)
+ * @version $Revision$
+ */
+public final class VariableReference {
+
+    /** the interned variable name */
+    private final String name;
+
+    /** the slot the variable was last found at */
+    private int slot;
+
+    public VariableReference(String name) {
+        this.name = name.intern();
+    }
+
+    public String toString() {
+        return super.toString() + "[name=" + name + "]";
+    }
+
+    /**
+     * @return the interned name of the variable
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the slot this variable was last found at
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Remembers the slot this variable was found at
+     */
+    void setSlot(int slot) {
+        this.slot = slot;
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.jelly.impl.TagScript;
+
+/**
+ * <p><code>WorkerPool</code> is a named, bounded pool of threads used to run
+ * scripts in the background, for example by the core <code>&lt;thread&gt;</code>
+ * tag, so that a script which forks work in a loop cannot create an
+ * unbounded number of threads.</p>
+ *
+ * <p>At most {@link #getMaxThreads()} tasks run at once and at most
+ * {@link #getQueueCapacity()} further tasks wait in the queue. When the
+ * queue is full the submitting thread blocks until there is room, which
+ * slows down the producer rather than failing or growing the queue.
+ * A task submitted by one of the pool's own threads is given a new thread
+ * of its own instead, as a worker waiting for room, or for a queued task
+ * which only the workers can run, could deadlock the pool. Such threads are
+ * counted by {@link #getNestedCount()} but are not limited by
+ * {@link #getMaxThreads()} nor waited for by {@link #awaitTermination}.</p>
+ *
+ * <p>The tags which the scripts of a task cache on a worker are released
+ * when the task completes, so that the worker does not keep them, and the
+ * contexts and scripts they refer to, until it exits.</p>
+ *
+ * <p>Idle threads exit after {@link #getKeepAliveMillis()} so that an idle
+ * pool does not keep the JVM running for long. On JDKs which support them
+ * the pool can use virtual threads instead of platform threads.</p>
+ *
+ * @version $Revision$
+ */
+public class WorkerPool {
+
+    /** The default maximum number of threads */
+    public static final int DEFAULT_MAX_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** The default number of tasks which may wait for a thread */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    /** The default time an idle thread waits for work before it exits */
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 5000;
+
+    /** Thread.ofVirtual() or null if this JDK has no virtual threads */
+    private static final Method OF_VIRTUAL = findOfVirtual();
+
+    /** How often a submitter waiting for room checks whether the pool has been shut down */
+    private static final long WAIT_MILLIS = 100;
+
+    /** The pool whose worker is the current thread */
+    private static final ThreadLocal currentPool = new ThreadLocal();
+
+    /** the name of this pool, used to name its threads */
+    private final String name;
+
+    /** the executor running the tasks */
+    private final ThreadPoolExecutor executor;
+
+    /** whether this pool uses virtual threads */
+    private final boolean virtual;
+
+    /** whether the platform threads created from now on are daemon threads */
+    private volatile boolean daemon;
+
+    /** the number of tasks submitted */
+    private final AtomicLong submitted = new AtomicLong();
+
+    /** the number of times a submitter had to wait for room in the queue */
+    private final AtomicLong waits = new AtomicLong();
+
+    /** the number of tasks submitted by workers, which were given their own thread */
+    private final AtomicLong nested = new AtomicLong();
+
+    public WorkerPool(String name) {
+        this(name, DEFAULT_MAX_THREADS, DEFAULT_QUEUE_CAPACITY, false);
+    }
+
+    /**
+     * @param name the name of the pool, used to name its threads
+     * @param maxThreads the maximum number of tasks run at once
+     * @param queueCapacity the maximum number of tasks waiting for a thread
+     * @param virtual whether to use virtual threads, if the JDK supports them
+     */
+    public WorkerPool(String name, int maxThreads, int queueCapacity, boolean virtual) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("maxThreads must be at least 1: " + maxThreads);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1: " + queueCapacity);
+        }
+        this.name = name;
+        this.virtual = virtual && isVirtualThreadsSupported();
+        this.executor = new ThreadPoolExecutor(
+            maxThreads,
+            maxThreads,
+            DEFAULT_KEEP_ALIVE_MILLIS,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue(queueCapacity),
+            createThreadFactory(),
+            new WaitPolicy()) {
+
+            protected void beforeExecute(Thread thread, Runnable runnable) {
+                TagScript.startTrackingTags();
+            }
+
+            protected void afterExecute(Runnable runnable, Throwable failure) {
+                // the worker outlives the task, so it must not keep its tags
+                TagScript.releaseTrackedTags();
+            }
+        };
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public String toString() {
+        return super.toString() + "[name=" + name + " active=" + getActiveCount()
+            + " queued=" + getQueueSize() + "]";
+    }
+
+    /**
+     * @return true if this JDK supports virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Submits the given task, waiting for room in the queue if it is full.
+     * If the current thread is one of this pool's workers the task is started
+     * on a new thread of this pool instead.
+     *
+     * @return the Future used to wait for the task or to obtain its failure
+     * @throws RejectedExecutionException if the pool has been shut down or
+     *  the submitting thread was interrupted while waiting
+     */
+    public Future submit(Callable task) {
+        submitted.incrementAndGet();
+        if (isWorkerThread()) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("The pool " + name + " has been shut down");
+            }
+            FutureTask future = new FutureTask(task);
+            nested.incrementAndGet();
+            executor.getThreadFactory().newThread(future).start();
+            return future;
+        }
+        return executor.submit(task);
+    }
+
+    /**
+     * @return true if the current thread is one of the workers of this pool
+     */
+    public boolean isWorkerThread() {
+        return currentPool.get() == this;
+    }
+
+    /**
+     * Stops accepting tasks. Tasks which were already submitted still run.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the tasks to complete after {@link #shutdown()}
+     *
+     * @return true if all the tasks completed in time
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the name of this pool
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return whether this pool runs its tasks on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * @return whether the threads of this pool are daemon threads,
+     * which do not keep the JVM running
+     */
+    public boolean isDaemon() {
+        return daemon || virtual;
+    }
+
+    /**
+     * Sets whether the platform threads created from now on are daemon threads.
+     * Virtual threads are always daemon threads.
+     */
+    public void setDaemon(boolean daemon) {
+        this.daemon = daemon;
+    }
+
+    /**
+     * @return the maximum number of tasks run at once
+     */
+    public int getMaxThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return the maximum number of tasks waiting for a thread
+     */
+    public int getQueueCapacity() {
+        return executor.getQueue().size() + executor.getQueue().remainingCapacity();
+    }
+
+    /**
+     * @return the time an idle thread waits for work before it exits
+     */
+    public long getKeepAliveMillis() {
+        return executor.getKeepAliveTime(TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the time an idle thread waits for work before it exits
+     */
+    public void setKeepAliveMillis(long keepAliveMillis) {
+        executor.setKeepAliveTime(keepAliveMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the approximate number of tasks being run
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the number of threads in the pool
+     */
+    public int getPoolSize() {
+        return executor.getPoolSize();
+    }
+
+    /**
+     * @return the number of tasks submitted to this pool
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * @return the approximate number of tasks which have completed
+     */
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /**
+     * @return the number of times a submitter had to wait because the queue was full
+     */
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    /**
+     * @return the number of tasks submitted by the pool's own workers, each
+     * of which was started on a new thread
+     */
+    public long getNestedCount() {
+        return nested.get();
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    private ThreadFactory createThreadFactory() {
+        final ThreadFactory factory = createBaseThreadFactory();
+        return new ThreadFactory() {
+            public Thread newThread(final Runnable runnable) {
+                return factory.newThread(new Runnable() {
+                    public void run() {
+                        currentPool.set(WorkerPool.this);
+                        runnable.run();
+                    }
+                });
+            }
+        };
+    }
+
+    private ThreadFactory createBaseThreadFactory() {
+        if (virtual) {
+            try {
+                Object builder = OF_VIRTUAL.invoke(null);
+                Class builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", new Class[] {String.class, long.class})
+                    .invoke(builder, new Object[] {name + "-", new Long(1)});
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            }
+            catch (Exception e) {
+                throw new NestedRuntimeException("Could not create virtual threads", e);
+            }
+        }
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(daemon);
+                return thread;
+            }
+        };
+    }
+
+    private static Method findOfVirtual() {
+        try {
+            return Thread.class.getMethod("ofVirtual");
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Blocks the submitting thread until there is room in the queue
+     * or the pool is shut down
+     */
+    private final class WaitPolicy implements RejectedExecutionHandler {
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            checkShutdown(executor);
+            waits.incrementAndGet();
+            BlockingQueue queue = executor.getQueue();
+            try {
+                while (!queue.offer(runnable, WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    checkShutdown(executor);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for the pool " + name, e);
+            }
+            // a task queued while the pool shuts down might never be run
+            if (executor.isShutdown() && queue.remove(runnable)) {
+                checkShutdown(executor);
+            }
+        }
+
+        private void checkShutdown(ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("The pool " + name + " has been shut down");
+            }
+        }
+    }
+}
@@ -16,7 +16,15 @@
  */
 package org.apache.commons.jelly;
 
+import java.io.StringReader;
 import java.util.HashMap;
+import java.util.Iterator;
+
+import org.apache.commons.jelly.parser.XMLParserPool;
+import org.apache.commons.jelly.util.FlatScope;
+import org.apache.commons.jelly.util.OverlayScope;
+import org.apache.commons.jelly.util.VariableReference;
+import org.xml.sax.InputSource;
 
 import junit.framework.TestCase;
 
@@ -41,4 +49,108 @@ public class TestJellyContext extends TestCase
 
         assertNotNull( "Value after setVariables()", jc.getVariable( "context" ) );
     }
+
+    public void testFlatScopes()
+    {
+        final JellyContext parent = new JellyContext();
+        parent.setVariable( "a", "parentA" );
+        parent.setFlatScopes( true );
+        assertTrue( parent.getVariables() instanceof FlatScope );
+        assertEquals( "parentA", parent.getVariable( "a" ) );
+        assertSame( parent, parent.getVariable( "context" ) );
+
+        final JellyContext child = parent.newJellyContext();
+        assertTrue( "child contexts inherit flat scopes", child.isFlatScopes() );
+        child.setVariable( "b", "childB" );
+
+        final VariableReference a = new VariableReference( "a" );
+        final VariableReference b = new VariableReference( "b" );
+        for ( int i = 0; i < 2; i++ ) {
+            assertEquals( "parentA", child.getVariable( a ) );
+            assertEquals( "childB", child.getVariable( b ) );
+        }
+
+        child.setVariable( "b", null );
+        assertNull( child.getVariable( b ) );
+        assertNull( child.getVariables().get( "b" ) );
+
+        child.setVariable( "c", "1" );
+        child.setVariable( "d", "2" );
+        for ( Iterator iter = child.getVariables().keySet().iterator(); iter.hasNext(); ) {
+            if ( "c".equals( iter.next() ) ) {
+                iter.remove();
+            }
+        }
+        assertNull( child.getVariable( "c" ) );
+        assertEquals( "2", child.getVariable( "d" ) );
+    }
+
+    public void testOverlayScope()
+    {
+        final JellyContext parent = new JellyContext();
+        parent.setVariable( "a", "parentA" );
+        final HashMap overlay = new HashMap();
+        overlay.put( "a", "overlayA" );
+        overlay.put( "b", "overlayB" );
+
+        final JellyContext child = parent.newJellyContextOverlay( overlay );
+        assertTrue( child.getVariables() instanceof OverlayScope );
+        assertEquals( "overlayA", child.getVariable( "a" ) );
+        assertEquals( "overlayB", child.getVariable( new VariableReference( "b" ) ) );
+        assertSame( child, child.getVariable( "context" ) );
+
+        // the overlay is visible rather than copied
+        overlay.put( "c", "overlayC" );
+        assertEquals( "overlayC", child.getVariable( "c" ) );
+
+        // set variables hide the overlay without changing it
+        child.setVariable( "b", "childB" );
+        assertEquals( "childB", child.getVariable( "b" ) );
+        assertEquals( "overlayB", overlay.get( "b" ) );
+
+        // removed variables are looked up in the parent
+        child.setVariable( "a", null );
+        assertEquals( "parentA", child.getVariable( "a" ) );
+        assertFalse( child.getVariables().containsKey( "a" ) );
+        assertTrue( child.getVariables().containsKey( "c" ) );
+    }
+
+    public void testSystemPropertyFallback()
+    {
+        final JellyContext jc = new JellyContext();
+        final VariableReference javaVersion = new VariableReference( "java.version" );
+        assertNotNull( jc.getVariable( "java.version" ) );
+        assertNotNull( jc.getVariable( javaVersion ) );
+
+        jc.setSystemPropertyFallback( false );
+        final JellyContext child = jc.newJellyContext();
+        assertNull( jc.getVariable( "java.version" ) );
+        assertNull( child.getVariable( "java.version" ) );
+        assertNull( child.getVariable( javaVersion ) );
+
+        // as with names, the setting of any context walked is respected
+        jc.setSystemPropertyFallback( true );
+        child.setSystemPropertyFallback( false );
+        assertNotNull( child.getVariable( "java.version" ) );
+        assertNotNull( child.getVariable( javaVersion ) );
+    }
+
+    public void testXMLParsersArePooled() throws Exception
+    {
+        final JellyContext jc = new JellyContext();
+        final XMLParserPool pool = JellyContext.getXMLParserPool();
+        final String first = "<j:jelly xmlns:j='jelly:core'><j:set var='a' value='1'/></j:jelly>";
+        final String second = "<j:jelly xmlns:j='jelly:core'><j:set var='b' value='2'/></j:jelly>";
+
+        jc.compileScript( new InputSource( new StringReader( first ) ) );
+        final long hits = pool.getHitCount();
+        final Script script = jc.compileScript( new InputSource( new StringReader( second ) ) );
+        assertTrue( "a pooled parser was reused", pool.getHitCount() > hits );
+
+        // the reused parser must not leak state from the previous document
+        final JellyContext other = new JellyContext();
+        script.run( other, XMLOutput.createDummyXMLOutput() );
+        assertEquals( "2", other.getVariable( "b" ) );
+        assertNull( other.getVariable( "a" ) );
+    }
 }
@@ -16,6 +16,8 @@
  */
 package org.apache.commons.jelly;
 
+import java.io.StringWriter;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -93,4 +95,24 @@ public class TestTrim extends TestCase {
 
         assertEquals( "foo", script.getText() );
     }
+
+    public void testTrimAfterCompile() throws Exception {
+        TextScript script = new TextScript( "   foo    " );
+        script.compile();
+        assertEquals( "   foo    ", run( script ) );
+
+        script.trimWhitespace();
+        assertEquals( "foo", run( script ) );
+
+        script.setText( "bar" );
+        assertEquals( "bar", run( script ) );
+    }
+
+    protected String run(Script script) throws Exception {
+        StringWriter buffer = new StringWriter();
+        XMLOutput output = XMLOutput.createXMLOutput( buffer );
+        script.run( new JellyContext(), output );
+        output.flush();
+        return buffer.toString();
+    }
 }
@@ -17,10 +17,16 @@
 package org.apache.commons.jelly;
 
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.jelly.Script;
 import org.apache.commons.jelly.XMLOutput;
 import org.apache.commons.jelly.test.BaseJellyTest;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * @author Hans Gilde
@@ -79,4 +85,99 @@ public class TestXMLOutput extends BaseJellyTest {
         output.flush();
         assertEquals("[string]",bos.toString().trim());
 	}
+
+    public void testWriteCharacters() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        XMLOutput output = XMLOutput.createXMLOutput(bos);
+
+        char[] text = "a-b-c".toCharArray();
+        output.write(text, 1, 3);
+        output.writeCDATA(text, 0, 1);
+        output.writeComment(text, 4, 1);
+        output.flush();
+        assertEquals("-b-<![CDATA[a]]><!--c-->",bos.toString());
+    }
+
+    public void testRootDefaultNamespace() throws Exception {
+        List events = new ArrayList();
+        XMLOutput output = new XMLOutput(new RecordingHandler(events));
+        output.startElement("", "root", "root", new AttributesImpl());
+        output.startElement("", "child", "child", new AttributesImpl());
+        output.endElement("", "child", "child");
+        output.endElement("", "root", "root");
+        // no xmlns="" is declared for the root element, nor for its children
+        assertEquals("[start root, start child, end child, end root]", events.toString());
+    }
+
+    public void testNamespaceScopes() throws Exception {
+        List events = new ArrayList();
+        XMLOutput output = new XMLOutput(new RecordingHandler(events));
+        output.startElement("urn:a", "root", "a:root", new AttributesImpl());
+        // redeclaring the same prefix and URI is ignored
+        output.startElement("urn:a", "child", "a:child", new AttributesImpl());
+        output.endElement("urn:a", "child", "a:child");
+        // the same prefix may be bound to another URI in a nested element
+        output.startElement("urn:b", "child", "a:child", new AttributesImpl());
+        output.endElement("urn:b", "child", "a:child");
+        // the xml prefix is predeclared
+        AttributesImpl attributes = new AttributesImpl();
+        attributes.addAttribute("http://www.w3.org/XML/1998/namespace", "lang", "xml:lang", "CDATA", "en");
+        output.startElement("urn:a", "child", "a:child", attributes);
+        output.endElement("urn:a", "child", "a:child");
+        output.endElement("urn:a", "root", "a:root");
+        assertEquals("[map a=urn:a, start a:root, start a:child, end a:child, "
+            + "map a=urn:b, start a:child, end a:child, unmap a, "
+            + "start a:child, end a:child, end a:root, unmap a]", events.toString());
+    }
+
+    public void testNamespaceConflict() throws Exception {
+        XMLOutput output = new XMLOutput(new RecordingHandler(new ArrayList()));
+        AttributesImpl attributes = new AttributesImpl();
+        attributes.addAttribute("urn:b", "x", "a:x", "CDATA", "1");
+        try {
+            output.startElement("urn:a", "root", "a:root", attributes);
+            fail("The same prefix was bound to two URIs in one element");
+        }
+        catch (SAXException e) {
+            // expected
+        }
+    }
+
+    public void testDeepNamespaces() throws Exception {
+        List events = new ArrayList();
+        XMLOutput output = new XMLOutput(new RecordingHandler(events));
+        for (int i = 0; i < 100; i++) {
+            output.startElement("urn:" + i, "e", "p" + i + ":e", new AttributesImpl());
+        }
+        for (int i = 99; i >= 0; i--) {
+            output.endElement("urn:" + i, "e", "p" + i + ":e");
+        }
+        assertEquals(400, events.size());
+        assertEquals("unmap p0", events.get(399));
+    }
+
+    /** Records the events it receives as Strings */
+    private static final class RecordingHandler extends DefaultHandler {
+        private final List events;
+
+        RecordingHandler(List events) {
+            this.events = events;
+        }
+
+        public void startPrefixMapping(String prefix, String uri) {
+            events.add("map " + prefix + "=" + uri);
+        }
+
+        public void endPrefixMapping(String prefix) {
+            events.add("unmap " + prefix);
+        }
+
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            events.add("start " + qName);
+        }
+
+        public void endElement(String uri, String localName, String qName) {
+            events.add("end " + qName);
+        }
+    }
 }
@@ -16,10 +16,13 @@
  */
 package org.apache.commons.jelly.core;
 
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.TestSuite;
 
 import org.apache.commons.jelly.Script;
 import org.apache.commons.jelly.test.BaseJellyTest;
+import org.apache.commons.jelly.util.WorkerPool;
 import org.apache.commons.lang.StringUtils;
 
 /**
@@ -28,6 +31,8 @@ import org.apache.commons.lang.StringUtils;
  */
 public class TestForEachTag extends BaseJellyTest
 {
+    /** The output of the nested parallel loops */
+    private static final String NESTED = "11,12,13,21,22,23,31,32,33,41,42,43,";
 
     public TestForEachTag(String name)
     {
@@ -79,4 +84,65 @@ public class TestForEachTag extends BaseJellyTest
                        "FIRST_262_122/MIDDLE_244/LAST_366/",
                      resultOrdered);
     }
+
+    public void testParallelForEachTag() throws Exception
+    {
+        setUpScript("testForEachTag.jelly");
+        Script script = getJelly().compileScript();
+
+        getJellyContext().setVariable("myList",
+              new Object[] {"0", "VOID", "1", "VOID", "2", "VOID",
+                            "3", "VOID", "4", "VOID", "5"});
+        getJellyContext().setVariable("testParallel", Boolean.TRUE);
+        script.run(getJellyContext(), getXMLOutput());
+
+        String resultOrdered =
+                (String) getJellyContext().getVariable("result.ordered");
+        resultOrdered = StringUtils.replace(resultOrdered, " ", "");
+        resultOrdered = StringUtils.replace(resultOrdered, "\n", "");
+
+        // the iterations are written out in order
+        assertEquals("result.ordered",
+                       "FIRST_262_121/MIDDLE_242/LAST_363/",
+                     resultOrdered);
+        // each iteration has its own context
+        assertNull("local", getJellyContext().getVariable("local"));
+
+        // iterations after a break are discarded
+        StringBuffer expected = new StringBuffer();
+        for (int i = 1; i <= 10; i++) {
+            expected.append(i).append(',');
+        }
+        assertEquals("result.break", expected.toString(),
+                     getJellyContext().getVariable("result.break"));
+        assertEquals("result.nested", NESTED,
+                     getJellyContext().getVariable("result.nested"));
+    }
+
+    public void testParallelForEachOnWorkerPool() throws Exception
+    {
+        // nested loops share the context's pool rather than starting threads
+        WorkerPool pool = new WorkerPool("jelly-forEach-test", 2, 100, false);
+        getJellyContext().setWorkerPool(pool);
+        setUpScript("testForEachTag.jelly");
+        Script script = getJelly().compileScript();
+        getJellyContext().setVariable("testParallel", Boolean.TRUE);
+        script.run(getJellyContext(), getXMLOutput());
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals("result.nested", NESTED,
+                     getJellyContext().getVariable("result.nested"));
+        // the iterations run by the pool see the switch outside of the loop
+        StringBuffer expected = new StringBuffer();
+        for (int i = 1; i <= 20; i++) {
+            expected.append(i).append(',');
+        }
+        assertEquals("result.ancestor", expected.toString(),
+                     getJellyContext().getVariable("result.ancestor"));
+        assertTrue(pool.getSubmittedCount() > 0);
+        // the nested loops run on the workers rather than starting threads
+        assertEquals(0, pool.getNestedCount());
+        assertTrue(pool.getPoolSize() <= 2);
+    }
 }
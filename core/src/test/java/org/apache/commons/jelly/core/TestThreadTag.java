@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.core;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestSuite;
+
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.test.BaseJellyTest;
+import org.apache.commons.jelly.util.WorkerPool;
+
+/**
+ * Tests the thread tag, with and without a {@link WorkerPool}
+ *
+ * @version $Revision$
+ */
+public class TestThreadTag extends BaseJellyTest
+{
+
+    public TestThreadTag(String name)
+    {
+        super(name);
+    }
+
+    public static TestSuite suite() throws Exception
+    {
+        return new TestSuite(TestThreadTag.class);
+    }
+
+    public void testNewThreads() throws Exception
+    {
+        List results = runScript();
+
+        Future future = (Future) getJellyContext().getVariable("future");
+        future.get(10, TimeUnit.SECONDS);
+        assertFailed((Future) getJellyContext().getVariable("failure"));
+        // the other threads may still be running
+        for (int i = 0; i < 100 && results.size() < 20; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(20, results.size());
+    }
+
+    public void testWorkerPool() throws Exception
+    {
+        // a small pool and queue so that submitting has to wait
+        WorkerPool pool = new WorkerPool("jelly-test", 2, 1, false);
+        getJellyContext().setWorkerPool(pool);
+        assertSame(pool, getJellyContext().newJellyContext().getWorkerPool());
+
+        List results = runScript();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(20, results.size());
+        assertEquals(21, pool.getSubmittedCount());
+        assertEquals(21, pool.getCompletedCount());
+        assertEquals(0, pool.getQueueSize());
+        assertTrue(((Future) getJellyContext().getVariable("future")).isDone());
+        assertFailed((Future) getJellyContext().getVariable("failure"));
+    }
+
+    public void testNestedSubmit() throws Exception
+    {
+        // a worker submitting to its own pool starts a thread for the task
+        final WorkerPool pool = new WorkerPool("jelly-nested", 1, 1, false);
+        final List results = new Vector();
+        Future outer = pool.submit(new Callable() {
+            public Object call() throws Exception {
+                Future[] inner = new Future[3];
+                for (int i = 0; i < inner.length; i++) {
+                    final Integer value = new Integer(i);
+                    inner[i] = pool.submit(new Callable() {
+                        public Object call() {
+                            results.add(value);
+                            return value;
+                        }
+                    });
+                }
+                for (int i = 0; i < inner.length; i++) {
+                    inner[i].get(10, TimeUnit.SECONDS);
+                }
+                return null;
+            }
+        });
+        outer.get(10, TimeUnit.SECONDS);
+        assertEquals(3, results.size());
+        assertEquals(3, pool.getNestedCount());
+        pool.shutdown();
+    }
+
+    public void testNestedSubmitIsAsynchronous() throws Exception
+    {
+        // a consumer submitted by a worker runs alongside its producer
+        final WorkerPool pool = new WorkerPool("jelly-consumer", 1, 1, false);
+        final CountDownLatch produced = new CountDownLatch(1);
+        Future outer = pool.submit(new Callable() {
+            public Object call() throws Exception {
+                Future consumer = pool.submit(new Callable() {
+                    public Object call() throws Exception {
+                        return Boolean.valueOf(produced.await(10, TimeUnit.SECONDS));
+                    }
+                });
+                assertFalse(consumer.isDone());
+                produced.countDown();
+                return consumer.get(10, TimeUnit.SECONDS);
+            }
+        });
+        assertEquals(Boolean.TRUE, outer.get(10, TimeUnit.SECONDS));
+        pool.shutdown();
+    }
+
+    public void testSubmitDuringShutdown() throws Exception
+    {
+        final WorkerPool pool = new WorkerPool("jelly-shutdown", 1, 1, false);
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable blocker = new Callable() {
+            public Object call() throws Exception {
+                release.await(10, TimeUnit.SECONDS);
+                return null;
+            }
+        };
+        pool.submit(blocker);
+        pool.submit(blocker);
+
+        // the next submitter waits for room and is rejected once the pool shuts down
+        final Exception[] failure = new Exception[1];
+        Thread submitter = new Thread() {
+            public void run() {
+                try {
+                    pool.submit(new Callable() {
+                        public Object call() {
+                            return null;
+                        }
+                    });
+                }
+                catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        submitter.start();
+        for (int i = 0; i < 100 && pool.getWaitCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        pool.shutdown();
+        submitter.join(10000);
+        release.countDown();
+        assertTrue(failure[0] instanceof RejectedExecutionException);
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private List runScript() throws Exception
+    {
+        List results = new Vector();
+        getJellyContext().setVariable("results", results);
+        getJellyContext().setVariable("output", XMLOutput.createDummyXMLOutput());
+        setUpScript("testThreadTag.jelly");
+        Script script = getJelly().compileScript();
+        script.run(getJellyContext(), getXMLOutput());
+        return results;
+    }
+
+    private void assertFailed(Future future) throws Exception
+    {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("The script should have failed");
+        }
+        catch (ExecutionException e) {
+            // expected
+        }
+    }
+}
@@ -16,6 +16,11 @@
  */
 package org.apache.commons.jelly.expression;
 
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -24,6 +29,7 @@ import junit.textui.TestRunner;
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.XMLOutput;
 import org.apache.commons.jelly.expression.jexl.JexlExpressionFactory;
 
 /**
@@ -46,6 +52,15 @@ public class TestExpressions extends TestCase {
         public Object throwAnException() throws TestException {
             throw new TestException();
         }
+        public Object getBroken() throws TestException {
+            throw new TestException();
+        }
+        public boolean isEnabled() {
+            return true;
+        }
+        public Object get(String key) {
+            return "key:" + key;
+        }
     }
 
     public TestExpressions(String testName) {
@@ -155,6 +170,125 @@ public class TestExpressions extends TestCase {
         assertExpression("${unknown == null}", Boolean.TRUE);
     }
 
+    public void testPropertyPaths() throws Exception {
+        Map address = new HashMap();
+        address.put("city", "London");
+        Map customer = new HashMap();
+        customer.put("address", address);
+        customer.put("name", "James");
+        context.setVariable("customer", customer);
+        context.setVariable("helper", new TestHelper());
+
+        assertExpression("${customer.name}", "James");
+        assertExpression("${customer.address.city}", "London");
+        assertExpression("${customer.name.length()}", new Integer(5));
+        assertExpression("${helper.enabled}", Boolean.TRUE);
+        assertExpression("${helper.anything}", "key:anything");
+        assertExpression("${customer.unknown}", null);
+        assertExpression("${unknown.name}", null);
+
+        // like Jexl, a Map is only asked for the value
+        context.setVariable("defaults", new HashMap() {
+            public Object get(Object key) {
+                return super.containsKey(key) ? super.get(key) : "default";
+            }
+        });
+        assertExpression("${defaults.anything}", "default");
+
+        // Ant style variables are used when a step yields null
+        context.setVariable("customer.address.zip", "N1");
+        assertExpression("${customer.address.zip}", "N1");
+
+        // the cached getter is replaced when the class changes
+        Expression expression = factory.createExpression("value.enabled");
+        context.setVariable("value", new TestHelper());
+        assertEquals(Boolean.TRUE, expression.evaluate(context));
+        context.setVariable("value", customer);
+        assertEquals(null, expression.evaluate(context));
+        // like Jexl, an unknown property is null
+        context.setVariable("value", "abcd");
+        assertEquals(null, expression.evaluate(context));
+        context.setVariable("value", new TestHelper());
+        assertEquals(Boolean.TRUE, expression.evaluate(context));
+
+        try {
+            factory.createExpression("helper.broken").evaluate(context);
+            fail("The getter should have thrown an exception");
+        }
+        catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof InvocationTargetException);
+        }
+    }
+
+    public void testCompositeWrite() throws Exception {
+        context.setVariable("topping", "cheese");
+        context.setVariable("type", "deepPan");
+        CompositeExpression expression = (CompositeExpression)
+            CompositeExpression.parse("A ${topping} ${unknown}${type} pizza", factory);
+        assertEquals("A cheese deepPan pizza", expression.evaluateAsString(context));
+
+        StringWriter buffer = new StringWriter();
+        XMLOutput output = XMLOutput.createXMLOutput(buffer);
+        expression.write(context, output);
+        output.flush();
+        assertEquals("A cheese deepPan pizza", buffer.toString());
+
+        // the compiled form follows changes to the expressions
+        expression.addTextExpression("!");
+        assertEquals("A cheese deepPan pizza!", expression.evaluateAsString(context));
+        expression.getExpressions().add(new ConstantExpression("?"));
+        assertEquals("A cheese deepPan pizza!?", expression.evaluateAsString(context));
+        expression.getExpressions().set(0, new ConstantExpression("The "));
+        assertEquals("The cheese deepPan pizza!?", expression.evaluateAsString(context));
+        expression.getExpressions().remove(1);
+        assertEquals("The  deepPan pizza!?", expression.evaluateAsString(context));
+    }
+
+    public void testParsedExpressionsAreShared() throws Exception {
+        Expression first = factory.createExpression("count + 1");
+        Expression second = new JexlExpressionFactory().createExpression("count + 1");
+        assertSame("identical expression text is only parsed once", first, second);
+
+        context.setVariable("count", new Integer(1));
+        assertEquals(new Long(2), first.evaluate(context));
+        JellyContext other = new JellyContext();
+        other.setVariable("count", new Integer(41));
+        assertEquals(new Long(42), second.evaluate(other));
+    }
+
+    public void testExpressionCacheEvicts() throws Exception {
+        Expression kept = factory.createExpression("count + 2");
+        Expression oneOff = factory.createExpression("count + 2 + 0");
+        // more one-off expressions than the cache holds
+        for (int i = 1; i <= 10000; i++) {
+            factory.createExpression("count + 2 + " + i);
+            if (i % 100 == 0) {
+                assertSame(kept, factory.createExpression("count + 2"));
+            }
+        }
+        assertSame("recently used expressions are still shared",
+                   kept, factory.createExpression("count + 2"));
+        Expression later = factory.createExpression("count + 3");
+        assertSame("new expressions are still cached",
+                   later, factory.createExpression("count + 3"));
+        assertNotSame("the least recently used expressions were discarded",
+                      oneOff, factory.createExpression("count + 2 + 0"));
+    }
+
+    public void testNestedEvaluation() throws Exception {
+        final JellyContext inner = new JellyContext();
+        inner.setVariable("topping", "ham");
+        final Expression innerExpression = factory.createExpression("topping");
+        context.setVariable("topping", "cheese");
+        context.setVariable("helper", new Object() {
+            public String toString() {
+                return (String) innerExpression.evaluate(inner);
+            }
+        });
+        // evaluating an expression from inside another must not disturb the outer one
+        assertExpression("${helper.toString().concat(topping)}", "hamcheese");
+    }
+
     protected void assertExpression(String expressionText, Object expectedValue) throws Exception {
         Expression expression = CompositeExpression.parse(expressionText, factory);
         assertTrue( "Created a valid expression for: " + expressionText, expression != null );
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.expression.xpath;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.expression.ConstantExpression;
+import org.apache.commons.jelly.expression.jexl.JexlExpressionFactory;
+import org.apache.commons.jelly.impl.TagScript;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.jaxen.XPath;
+
+/**
+ * Tests that XPath expressions are parsed once and evaluated with the
+ * variables of the context they were evaluated in.
+ *
+ * @version $Revision$
+ */
+public class TestXPathExpression extends TestCase {
+
+    private Document document;
+    private TagScript tagScript;
+
+    public TestXPathExpression(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        document = DocumentHelper.parseText(
+            "<p:doc xmlns:p='urn:test'><p:item id='a'>1</p:item><p:item id='b'>2</p:item></p:doc>");
+        Map namespaces = new HashMap();
+        namespaces.put("p", "urn:test");
+        tagScript = new TagScript();
+        tagScript.setTagNamespacesMap(namespaces);
+    }
+
+    public void testVariablesArePerEvaluation() throws Exception {
+        String text = "/p:doc/p:item[@id=$id]";
+        XPathExpression expression = new XPathExpression(text, new ConstantExpression(text), tagScript);
+        assertNotNull("constant XPath is parsed up front", expression.getCompiledXPath());
+
+        JellyContext first = new JellyContext();
+        first.setVariable("id", "a");
+        JellyContext second = new JellyContext();
+        second.setVariable("id", "b");
+
+        XPath firstXPath = (XPath) expression.evaluate(first);
+        XPath secondXPath = (XPath) expression.evaluate(second);
+        assertEquals("2", secondXPath.valueOf(document));
+        assertEquals("1", firstXPath.valueOf(document));
+        assertEquals(1, firstXPath.selectNodes(document).size());
+        assertEquals(1.0, firstXPath.numberValueOf(document).doubleValue(), 0);
+
+        first.setVariable("id", "c");
+        assertFalse(firstXPath.booleanValueOf(document));
+        assertNull(firstXPath.selectSingleNode(document));
+    }
+
+    public void testNoSharedVariables() throws Exception {
+        String text = "/p:doc/p:item[@id=$id]";
+        XPathExpression expression = new XPathExpression(text, new ConstantExpression(text), tagScript);
+        assertNull(expression.getVariableValue(null, null, "id"));
+        JellyContext context = new JellyContext();
+        context.setVariable("id", "a");
+        XPath first = (XPath) expression.evaluate(context);
+        JellyContext other = new JellyContext();
+        other.setVariable("id", "b");
+        XPath second = (XPath) expression.evaluate(other);
+
+        // each XPath uses the variables of its own context
+        assertEquals("a", first.getVariableContext().getVariableValue(null, null, "id"));
+        assertEquals("b", second.getVariableContext().getVariableValue(null, null, "id"));
+        // while the expression itself falls back to the last context
+        assertEquals("b", expression.getVariableValue(null, null, "id"));
+        assertNotSame(expression.getCompiledXPath(), first);
+    }
+
+    public void testAddNamespace() throws Exception {
+        String text = "count(/q:doc/p:item)";
+        XPathExpression expression = new XPathExpression(text, new ConstantExpression(text), tagScript);
+        XPath xpath = (XPath) expression.evaluate(new JellyContext());
+        xpath.addNamespace("q", "urn:test");
+        assertEquals(2, xpath.numberValueOf(document).intValue());
+
+        // other evaluations are not affected
+        XPath other = (XPath) expression.evaluate(new JellyContext());
+        try {
+            other.numberValueOf(document);
+            fail("the q prefix should not be bound");
+        }
+        catch (Exception e) {
+            // expected
+        }
+    }
+
+    public void testDynamicXPath() throws Exception {
+        XPathExpression expression = new XPathExpression(
+            "/p:doc/p:item[${index}]",
+            new JexlExpressionFactory().createExpression("'/p:doc/p:item[' + index + ']'"),
+            tagScript);
+        assertNull(expression.getCompiledXPath());
+
+        JellyContext context = new JellyContext();
+        context.setVariable("index", new Integer(2));
+        assertEquals("2", ((XPath) expression.evaluate(context)).valueOf(document));
+    }
+
+    public void testInvalidXPath() throws Exception {
+        String text = "/p:doc[";
+        XPathExpression expression = new XPathExpression(text, new ConstantExpression(text), tagScript);
+        assertNull(expression.getCompiledXPath());
+        try {
+            expression.evaluate(new JellyContext());
+            fail("an invalid XPath should fail when evaluated");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+
+/** Tests the cache of compiled scripts
+  *
+  * @version $Revision$
+  */
+public class TestDefaultScriptCache extends TestCase {
+
+    private File file;
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestDefaultScriptCache.class);
+    }
+
+    public TestDefaultScriptCache(String testName) {
+        super(testName);
+    }
+
+    public void setUp() throws Exception {
+        file = File.createTempFile("jelly", ".jelly");
+        writeScript("first");
+    }
+
+    public void tearDown() {
+        file.delete();
+    }
+
+    public void testScriptIsCompiledOnce() throws Exception {
+        DefaultScriptCache cache = new DefaultScriptCache();
+        JellyContext context = new JellyContext();
+        context.setScriptCache(cache);
+
+        for (int i = 0; i < 3; i++) {
+            context.runScript(file, XMLOutput.createDummyXMLOutput());
+            assertEquals("first", context.getVariable("value"));
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+        assertSame(cache, context.newJellyContext().getScriptCache());
+    }
+
+    public void testModifiedScriptIsRecompiled() throws Exception {
+        DefaultScriptCache cache = new DefaultScriptCache();
+        JellyContext context = new JellyContext();
+        context.setScriptCache(cache);
+
+        context.runScript(file, XMLOutput.createDummyXMLOutput());
+        assertEquals("first", context.getVariable("value"));
+
+        writeScript("second value");
+        context.runScript(file, XMLOutput.createDummyXMLOutput());
+        assertEquals("second value", context.getVariable("value"));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        DefaultScriptCache cache = new DefaultScriptCache(1);
+        JellyContext context = new JellyContext();
+        File other = File.createTempFile("jelly", ".jelly");
+        try {
+            copyScript(other);
+            Script first = cache.getScript(file.toURL(), context);
+            cache.getScript(other.toURL(), context);
+            assertEquals(1, cache.size());
+            assertNotSame(first, cache.getScript(file.toURL(), context));
+            assertEquals(3, cache.getMissCount());
+        }
+        finally {
+            other.delete();
+        }
+    }
+
+    private void writeScript(String value) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write("<j:jelly xmlns:j=\"jelly:core\"><j:set var=\"value\" value=\"" + value + "\"/></j:jelly>");
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    private void copyScript(File other) throws IOException {
+        Writer writer = new FileWriter(other);
+        try {
+            writer.write("<j:jelly xmlns:j=\"jelly:core\"/>");
+        }
+        finally {
+            writer.close();
+        }
+    }
+}
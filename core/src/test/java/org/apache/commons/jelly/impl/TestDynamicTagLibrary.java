@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.Tag;
+import org.apache.commons.jelly.TagLibrary;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.tags.core.CoreTagLibrary;
+import org.xml.sax.InputSource;
+
+/** Tests the resolution of tags through inherited dynamic tag libraries
+  *
+  * @version $Revision$
+  */
+public class TestDynamicTagLibrary extends TestCase {
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestDynamicTagLibrary.class);
+    }
+
+    public TestDynamicTagLibrary(String testName) {
+        super(testName);
+    }
+
+    public void testInheritedTags() throws Exception {
+        DynamicTagLibrary base = new DynamicTagLibrary("base");
+        DynamicTagLibrary middle = new DynamicTagLibrary("middle");
+        DynamicTagLibrary top = new DynamicTagLibrary("top");
+        middle.setParent(base);
+        top.setParent(middle);
+
+        Script foo = new TextScript("foo");
+        base.registerDynamicTag("foo", foo);
+        assertSame(foo, template(top.createTag("foo", null)));
+        assertSame(base, top.find("foo"));
+        assertNull(top.createTag("bar", null));
+        assertNull(top.find("bar"));
+
+        // changes to a parent are seen by the cached resolutions of its children
+        Script bar = new TextScript("bar");
+        base.registerDynamicTag("bar", bar);
+        assertSame(bar, template(top.createTag("bar", null)));
+
+        Script overridden = new TextScript("overridden");
+        middle.registerDynamicTag("foo", overridden);
+        assertSame(overridden, template(top.createTag("foo", null)));
+        assertSame(middle, top.find("foo"));
+
+        middle.setParent(null);
+        assertNull(top.createTag("bar", null));
+    }
+
+    public void testVersions() throws Exception {
+        DynamicTagLibrary base = new DynamicTagLibrary("base");
+        DynamicTagLibrary top = new DynamicTagLibrary("top");
+        DynamicTagLibrary other = new DynamicTagLibrary("other");
+        top.setParent(base);
+        int version = top.getVersion();
+        assertEquals(version, top.getVersion());
+
+        // changes to unrelated libraries keep the cached resolutions
+        other.registerDynamicTag("foo", new TextScript("foo"));
+        other.setParent(base);
+        assertEquals(version, top.getVersion());
+        assertNull(top.createTag("foo", null));
+
+        // while changes to this library or its parents discard them
+        base.registerDynamicTag("foo", new TextScript("foo"));
+        int changed = top.getVersion();
+        assertTrue(changed != version);
+        assertNotNull(top.createTag("foo", null));
+        top.setParent(other);
+        assertTrue(top.getVersion() != changed);
+        assertSame(other, top.find("foo"));
+    }
+
+    public void testNestedVersions() throws Exception {
+        DynamicTagLibrary base = new DynamicTagLibrary("base");
+        DynamicTagLibrary middle = new DynamicTagLibrary("middle");
+        DynamicTagLibrary top = new DynamicTagLibrary("top");
+        middle.setParent(base);
+        top.setParent(middle);
+        int version = top.getVersion();
+
+        // a change to a grandparent reaches the grandchild
+        base.registerDynamicTag("foo", new TextScript("foo"));
+        int changed = top.getVersion();
+        assertTrue(changed != version);
+        assertSame(base, top.find("foo"));
+
+        // once detached, the changes of a former parent are no longer seen
+        middle.setParent(null);
+        int detached = top.getVersion();
+        assertTrue(detached != changed);
+        assertNull(top.find("foo"));
+        base.registerDynamicTag("bar", new TextScript("bar"));
+        assertEquals(detached, top.getVersion());
+
+        // parents which form a cycle don't recurse forever
+        base.setParent(top);
+        middle.setParent(base);
+        assertTrue(top.getVersion() != detached);
+    }
+
+    public void testOtherParentLibrary() throws Exception {
+        DynamicTagLibrary library = new DynamicTagLibrary("core");
+        TagLibrary core = new CoreTagLibrary();
+        library.setParent(core);
+        Tag tag = library.createTag("set", null);
+        assertNotNull(tag);
+        assertEquals(core.createTag("set", null).getClass(), tag.getClass());
+        assertNull("only dynamic libraries are searched", library.find("set"));
+    }
+
+    public void testStaticTagBecomesDynamic() throws Exception {
+        JellyContext context = new JellyContext();
+        Script script = context.compileScript(new InputSource(new StringReader(
+            "<j:jelly xmlns:j='jelly:core' xmlns:my='myTags'><j:forEach begin='1' end='2'><my:foo/></j:forEach></j:jelly>")));
+
+        DynamicTagLibrary library = new DynamicTagLibrary("myTags");
+        context.registerTagLibrary("myTags", library);
+        assertEquals("<my:foo xmlns:my=\"myTags\"></my:foo><my:foo xmlns:my=\"myTags\"></my:foo>", run(script, context));
+
+        library.registerDynamicTag("foo", new TextScript("foo"));
+        assertEquals("foofoo", run(script, new JellyContext(context)));
+    }
+
+    private Script template(Tag tag) {
+        return ((DynamicTag) tag).getTemplate();
+    }
+
+    private String run(Script script, JellyContext context) throws Exception {
+        StringWriter buffer = new StringWriter();
+        XMLOutput output = XMLOutput.createXMLOutput(buffer);
+        script.run(context, output);
+        output.flush();
+        return buffer.toString();
+    }
+}
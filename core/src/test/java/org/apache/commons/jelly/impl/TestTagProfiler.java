@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Iterator;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.InputSource;
+
+/** Tests the statistics recorded by TagProfiler
+  *
+  * @version $Revision$
+  */
+public class TestTagProfiler extends TestCase {
+
+    private static final String SCRIPT =
+        "<j:jelly xmlns:j='jelly:core'>\n"
+        + "<j:forEach var='i' begin='1' end='3'>\n"
+        + "<j:set var='x' value='${i}'/>\n"
+        + "</j:forEach>\n"
+        + "<j:catch var='e'>\n"
+        + "<j:new className='does.not.Exist' var='y'/>\n"
+        + "</j:catch>\n"
+        + "</j:jelly>";
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestTagProfiler.class);
+    }
+
+    public TestTagProfiler(String testName) {
+        super(testName);
+    }
+
+    public void testStatistics() throws Exception {
+        JellyContext context = new JellyContext();
+        TagProfiler profiler = new TagProfiler();
+        context.setTagProfiler(profiler);
+        Script script = context.compileScript(new InputSource(new StringReader(SCRIPT)));
+        script.run(context, XMLOutput.createDummyXMLOutput());
+
+        TagProfiler.Statistics forEach = find(profiler, "j:forEach");
+        TagProfiler.Statistics set = find(profiler, "j:set");
+        TagProfiler.Statistics newTag = find(profiler, "j:new");
+        assertEquals(1, forEach.getInvocationCount());
+        assertEquals(3, set.getInvocationCount());
+        assertEquals(3, set.getLineNumber());
+        assertEquals(0, set.getExceptionCount());
+        assertEquals(1, newTag.getExceptionCount());
+        assertEquals(0, find(profiler, "j:catch").getExceptionCount());
+
+        assertTrue(forEach.getTotalTime() >= set.getTotalTime());
+        assertEquals(forEach.getTotalTime() - set.getTotalTime(), forEach.getSelfTime());
+        assertEquals(set.getTotalTime(), set.getSelfTime());
+
+        StringWriter buffer = new StringWriter();
+        profiler.writeCollapsedStacks(buffer);
+        String stacks = buffer.toString();
+        assertTrue(stacks, stacks.indexOf("j:jelly_(null:1);j:forEach_(null:2);j:set_(null:3) ") >= 0);
+
+        profiler.reset();
+        assertTrue(profiler.getStatistics().isEmpty());
+    }
+
+    public void testAllocationTracking() throws Exception {
+        TagProfiler profiler = new TagProfiler();
+        profiler.setAllocationTracking(true);
+        assertEquals(TagProfiler.isAllocationTrackingSupported(), profiler.isAllocationTracking());
+
+        JellyContext context = new JellyContext();
+        context.setTagProfiler(profiler);
+        Script script = context.compileScript(new InputSource(new StringReader(SCRIPT)));
+        script.run(context, XMLOutput.createDummyXMLOutput());
+        if (profiler.isAllocationTracking()) {
+            TagProfiler.Statistics forEach = find(profiler, "j:forEach");
+            assertTrue(forEach.getAllocatedBytes() > 0);
+            assertTrue(forEach.getAllocatedBytes() >= forEach.getSelfAllocatedBytes());
+        }
+    }
+
+    public void testDisabledByDefault() throws Exception {
+        JellyContext context = new JellyContext();
+        assertNull(context.getTagProfiler());
+        TagProfiler profiler = new TagProfiler();
+        context.setTagProfiler(profiler);
+        assertSame(profiler, context.newJellyContext().getTagProfiler());
+    }
+
+    private TagProfiler.Statistics find(TagProfiler profiler, String elementName) {
+        for (Iterator iter = profiler.getStatistics().iterator(); iter.hasNext(); ) {
+            TagProfiler.Statistics stats = (TagProfiler.Statistics) iter.next();
+            if (elementName.equals(stats.getElementName())) {
+                return stats;
+            }
+        }
+        fail("No statistics for " + elementName);
+        return null;
+    }
+}
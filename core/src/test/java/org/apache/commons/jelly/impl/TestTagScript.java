@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyException;
+import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.Tag;
+import org.apache.commons.jelly.TagSupport;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.expression.ConstantExpression;
+import org.apache.commons.jelly.expression.Expression;
+import org.apache.commons.jelly.util.WorkerPool;
+
+/** Tests the setting of bean tag attributes by TagScript
+  *
+  * @version $Revision$
+  */
+public class TestTagScript extends TestCase {
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestTagScript.class);
+    }
+
+    public TestTagScript(String testName) {
+        super(testName);
+    }
+
+    public void testBeanAttributes() throws Exception {
+        TagScript script = TagScript.newInstance(BeanTag.class);
+        script.addAttribute("count", new ConstantExpression("42"));
+        script.addAttribute("text", new ConstantExpression(new Integer(7)));
+        script.addAttribute("value", new ConstantExpression(Boolean.TRUE));
+        script.addAttribute("expression", new ConstantExpression("expr"));
+        script.addAttribute("readOnly", new ConstantExpression("ignored"));
+        script.compile();
+
+        JellyContext context = new JellyContext();
+        script.run(context, XMLOutput.createDummyXMLOutput());
+
+        BeanTag tag = (BeanTag) script.getTag(context);
+        assertEquals(42, tag.getCount());
+        assertEquals("7", tag.getText());
+        // BeanUtils converts values with a registered converter via their String form
+        assertEquals("true", tag.getValue());
+        assertTrue(tag.getExpression() instanceof ConstantExpression);
+        assertEquals("expr", tag.getExpression().evaluate(context));
+        assertEquals("readOnly", tag.getReadOnly());
+
+        // the binding is reused by subsequent runs
+        script.run(context, XMLOutput.createDummyXMLOutput());
+        assertEquals(42, tag.getCount());
+    }
+
+    public void testUnknownAttribute() throws Exception {
+        TagScript script = TagScript.newInstance(BeanTag.class);
+        script.addAttribute("doesNotExist", new ConstantExpression("x"));
+        script.compile();
+        try {
+            script.run(new JellyContext(), XMLOutput.createDummyXMLOutput());
+            fail("Should have thrown an exception for an unknown attribute");
+        }
+        catch (JellyTagException e) {
+            assertTrue(e.getMessage().indexOf("doesNotExist") >= 0);
+        }
+    }
+
+    public void testTagPerThread() throws Exception {
+        final TagScript script = TagScript.newInstance(BeanTag.class);
+        final JellyContext context = new JellyContext();
+        final Tag[] otherTag = new Tag[1];
+        Tag tag = script.getTag(context);
+        assertSame("tag is cached for the current thread", tag, script.getTag(context));
+
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    otherTag[0] = script.getTag(context);
+                }
+                catch (JellyException e) {
+                    // leave the tag unset
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNotNull(otherTag[0]);
+        assertNotSame("each thread has its own tag", tag, otherTag[0]);
+
+        script.clearTag();
+        assertNotSame("tag is recreated after being cleared", tag, script.getTag(context));
+    }
+
+    public void testTrackedTagsAreReleased() throws Exception {
+        final TagScript script = TagScript.newInstance(BeanTag.class);
+        final JellyContext context = new JellyContext();
+        TagScript.startTrackingTags();
+        Tag tag = script.getTag(context);
+        assertSame("tag is still cached while tracked", tag, script.getTag(context));
+        TagScript.releaseTrackedTags();
+        assertNotSame("tag is recreated after being released", tag, script.getTag(context));
+
+        // a worker which outlives its task does not keep the task's tags
+        WorkerPool pool = new WorkerPool("jelly-tags", 1, 1, false);
+        Callable task = new Callable() {
+            public Object call() throws Exception {
+                Tag first = script.getTag(context);
+                assertSame(first, script.getTag(context));
+                return first;
+            }
+        };
+        Object first = pool.submit(task).get(10, TimeUnit.SECONDS);
+        Object second = pool.submit(task).get(10, TimeUnit.SECONDS);
+        assertEquals(1, pool.getPoolSize());
+        assertNotSame(first, second);
+        pool.shutdown();
+    }
+
+    public static class BeanTag extends TagSupport {
+        private int count;
+        private String text;
+        private Object value;
+        private Expression expression;
+
+        public void doTag(XMLOutput output) {
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public void setText(String text) {
+            this.text = text;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public void setValue(Object value) {
+            this.value = value;
+        }
+
+        public Expression getExpression() {
+            return expression;
+        }
+
+        public void setExpression(Expression expression) {
+            this.expression = expression;
+        }
+
+        public String getReadOnly() {
+            return "readOnly";
+        }
+    }
+}
@@ -55,11 +55,15 @@ public class AttributeTag extends TagSupport {
     //-------------------------------------------------------------------------
     public void doTag(XMLOutput output) throws JellyTagException {
         BeanTag tag = (BeanTag) findAncestorWithClass( BeanTag.class );
-        if ( tag == null ) {
-            throw new JellyTagException( "This tag should be nested inside a <define:bean> or <define:jellybean> tag" );
+        if ( tag != null ) {
+            tag.addAttribute( attribute );
+            return;
         }
-
-        tag.addAttribute( attribute );
+        TagTag tagTag = (TagTag) findAncestorWithClass( TagTag.class );
+        if ( tagTag == null ) {
+            throw new JellyTagException( "This tag should be nested inside a <define:bean>, <define:jellybean> or <define:tag> tag" );
+        }
+        tagTag.addAttribute( attribute );
     }
 
     // Properties
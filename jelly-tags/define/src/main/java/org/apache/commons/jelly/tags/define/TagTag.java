@@ -16,8 +16,17 @@
  */
 package org.apache.commons.jelly.tags.define;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
 import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.Script;
 import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.impl.Attribute;
+import org.apache.commons.jelly.impl.ScriptBlock;
+import org.apache.commons.jelly.impl.TagScript;
 
 /**
  * &lt;tag&gt; is used to define a new tag
@@ -26,6 +35,11 @@ import org.apache.commons.jelly.XMLOutput;
  * notations. Inside the body of the tag definition, the attributes can
  * be accessed as normal Jelly variables.</p>
  *
+ * <p>The attributes of the new tag may be declared by &lt;attribute&gt; tags
+ * in the definition, in which case they are held in fixed slots and may be
+ * given default values or be required. The declarations are run once, when
+ * the tag is defined, wherever they appear in its body.</p>
+ *
  * @author <a href="mailto:jstrachan@apache.org">James Strachan</a>
  * @version $Revision$
  */
@@ -33,13 +47,112 @@ public class TagTag extends DefineTagSupport {
 
     private String name;
 
+    /** the attributes declared by the definition */
+    private List attributes = new ArrayList();
+
+    /** whether the attribute declarations of the definition are being run */
+    private boolean declaring;
+
     public TagTag() {
     }
 
     // Tag interface
     //-------------------------------------------------------------------------
     public void doTag(XMLOutput output) throws JellyTagException {
-        getTagLibrary().registerDynamicTag( getName(), getBody() );
+        attributes.clear();
+        Script template;
+        declaring = true;
+        try {
+            template = declareAttributes( getBody(), output );
+        }
+        finally {
+            declaring = false;
+        }
+        if ( attributes.isEmpty() ) {
+            getTagLibrary().registerDynamicTag( getName(), getBody() );
+        }
+        else {
+            Attribute[] declared = (Attribute[]) attributes.toArray( new Attribute[attributes.size()] );
+            getTagLibrary().registerDynamicTag( getName(), template, declared );
+        }
+    }
+
+    /**
+     * Adds an attribute declared by a nested &lt;attribute&gt; tag. Declarations
+     * run by the template of the new tag are ignored, as they have already
+     * been made when the tag was defined, and so is a second declaration of
+     * the same name.
+     */
+    public void addAttribute(Attribute attribute) {
+        if ( !declaring ) {
+            return;
+        }
+        for ( Iterator iter = attributes.iterator(); iter.hasNext(); ) {
+            if ( ((Attribute) iter.next()).getName().equals( attribute.getName() ) ) {
+                return;
+            }
+        }
+        attributes.add( attribute );
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Runs the &lt;attribute&gt; declarations of the body and returns the body
+     * without the declarations at its top level, which is the template of the
+     * new tag. Declarations nested inside other tags stay in the template
+     * but do nothing when it runs.
+     */
+    protected Script declareAttributes(Script body, XMLOutput output) throws JellyTagException {
+        List scripts = ( body instanceof ScriptBlock )
+            ? ((ScriptBlock) body).getScriptList() : Collections.singletonList( body );
+        ScriptBlock template = new ScriptBlock();
+        for ( Iterator iter = scripts.iterator(); iter.hasNext(); ) {
+            Script script = (Script) iter.next();
+            if ( isAttributeDeclaration( script ) ) {
+                script.run( context, output );
+            }
+            else {
+                declareNestedAttributes( script, output );
+                template.addScript( script );
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Runs the &lt;attribute&gt; declarations nested inside the given script,
+     * without looking inside the other tags of this library
+     */
+    private void declareNestedAttributes(Script script, XMLOutput output) throws JellyTagException {
+        if ( script instanceof ScriptBlock ) {
+            List scripts = ((ScriptBlock) script).getScriptList();
+            for ( Iterator iter = scripts.iterator(); iter.hasNext(); ) {
+                declareNestedAttributes( (Script) iter.next(), output );
+            }
+        }
+        else if ( isAttributeDeclaration( script ) ) {
+            script.run( context, output );
+        }
+        else if ( script instanceof TagScript ) {
+            TagScript tagScript = (TagScript) script;
+            if ( !(tagScript.getTagLibrary() instanceof DefineTagLibrary) ) {
+                declareNestedAttributes( tagScript.getTagBody(), output );
+            }
+        }
+    }
+
+    /**
+     * @return whether the given script is an &lt;attribute&gt; tag of this library
+     */
+    private boolean isAttributeDeclaration(Script script) {
+        if ( script instanceof TagScript ) {
+            TagScript tagScript = (TagScript) script;
+            return tagScript.getTagLibrary() instanceof DefineTagLibrary
+                && "attribute".equals( tagScript.getLocalName() );
+        }
+        return false;
     }
 
     // Properties
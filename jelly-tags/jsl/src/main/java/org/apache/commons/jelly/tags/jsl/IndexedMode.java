@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.jsl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.dom4j.Node;
+import org.dom4j.rule.Mode;
+import org.dom4j.rule.Pattern;
+import org.dom4j.rule.Rule;
+import org.dom4j.xpath.XPathPattern;
+
+/**
+ * <p><code>IndexedMode</code> is the set of rules of one mode of a
+ * {@link JellyStylesheet}. Rules are bucketed by the node type they match
+ * and, for patterns whose last step names an element or attribute, by that
+ * name, so that finding the rule for a node only tests the patterns which
+ * could match it rather than every rule of the stylesheet.</p>
+ *
+ * <p>Rules for wildcard patterns such as <code>*</code>, <code>node()</code>
+ * or nested unions go into a residual list per node type which is merged
+ * into every bucket of that type. Each bucket is sorted like a dom4j
+ * <code>RuleSet</code>, by import precedence, priority and then document
+ * order, so the same rule wins as with the dom4j <code>Mode</code>.</p>
+ *
+ * <p>The buckets are rebuilt lazily after rules are added or removed and
+ * are then read without locking. Note that this does not make a stylesheet
+ * safe to apply from several threads at once, as the actions of its
+ * templates keep the current node in their tags.</p>
+ *
+ * @version $Revision$
+ */
+class IndexedMode extends Mode {
+
+    /** the rules of this mode in the order they were added */
+    private final List rules = new ArrayList();
+
+    /** the current buckets, or null if they must be rebuilt */
+    private volatile Index index;
+
+    // Mode interface
+    //-------------------------------------------------------------------------
+
+    public void addRule(Rule rule) {
+        synchronized (rules) {
+            rules.add(rule);
+            index = null;
+        }
+    }
+
+    public void removeRule(Rule rule) {
+        synchronized (rules) {
+            rules.remove(rule);
+            index = null;
+        }
+    }
+
+    public Rule getMatchingRule(Node node) {
+        Index answer = index;
+        if (answer == null) {
+            synchronized (rules) {
+                answer = index;
+                if (answer == null) {
+                    answer = new Index(rules);
+                    index = answer;
+                }
+            }
+        }
+        return answer.getMatchingRule(node);
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return a copy of the rules of this mode in the order they were added
+     */
+    List getRules() {
+        synchronized (rules) {
+            return new ArrayList(rules);
+        }
+    }
+
+    /**
+     * Returns the local name of the element or attribute that the last step
+     * of the given pattern requires, or null if the pattern can match nodes
+     * of other names. Prefixes are dropped as the pattern itself still checks
+     * the namespace when it is matched.
+     */
+    static String getIndexName(Pattern pattern) {
+        if (!(pattern instanceof XPathPattern) || pattern.getUnionPatterns() != null) {
+            return null;
+        }
+        short type = pattern.getMatchType();
+        if (type != Node.ELEMENT_NODE && type != Node.ATTRIBUTE_NODE) {
+            return null;
+        }
+        String step = getLastStep(((XPathPattern) pattern).getText());
+        if (step == null) {
+            return null;
+        }
+        boolean attribute = false;
+        if (step.startsWith("@")) {
+            attribute = true;
+            step = step.substring(1);
+        }
+        else if (step.startsWith("attribute::")) {
+            attribute = true;
+            step = step.substring("attribute::".length());
+        }
+        else if (step.startsWith("child::")) {
+            step = step.substring("child::".length());
+        }
+        if (attribute != (type == Node.ATTRIBUTE_NODE)) {
+            return null;
+        }
+        int colon = step.indexOf(':');
+        if (colon >= 0) {
+            step = step.substring(colon + 1);
+        }
+        if (step.length() == 0) {
+            return null;
+        }
+        for (int i = 0, size = step.length(); i < size; i++) {
+            char ch = step.charAt(i);
+            // wildcards, node tests, other axes or anything unexpected
+            if (ch == '*' || ch == '(' || ch == ':' || ch == '$' || Character.isWhitespace(ch)) {
+                return null;
+            }
+        }
+        return step;
+    }
+
+    /**
+     * @return the last step of the location path without its predicates,
+     * or null if the text could not be split
+     */
+    private static String getLastStep(String text) {
+        int start = 0;
+        int end = -1;
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0, size = text.length(); i < size; i++) {
+            char ch = text.charAt(i);
+            if (quote != 0) {
+                if (ch == quote) {
+                    quote = 0;
+                }
+            }
+            else if (ch == '\'' || ch == '"') {
+                quote = ch;
+            }
+            else if (ch == '[' || ch == '(') {
+                if (depth == 0 && ch == '[' && end < 0) {
+                    end = i;
+                }
+                depth++;
+            }
+            else if (ch == ']' || ch == ')') {
+                depth--;
+            }
+            else if (ch == '/' && depth == 0) {
+                start = i + 1;
+                end = -1;
+            }
+        }
+        if (depth != 0 || quote != 0) {
+            return null;
+        }
+        return text.substring(start, end < 0 ? text.length() : end).trim();
+    }
+
+    /**
+     * The buckets of rules built from the rules of the mode at one time
+     */
+    private static class Index {
+
+        private static final Rule[] EMPTY = new Rule[0];
+
+        /** the rules for elements of a given local name */
+        private final Map elementRules = new HashMap();
+
+        /** the rules for attributes of a given local name */
+        private final Map attributeRules = new HashMap();
+
+        /** the rules for nodes of a given type whose name has no bucket */
+        private final Rule[][] typeRules = new Rule[Pattern.NUMBER_OF_TYPES][];
+
+        Index(List rules) {
+            Map elementNames = new HashMap();
+            Map attributeNames = new HashMap();
+            List[] residual = new List[Pattern.NUMBER_OF_TYPES];
+            for (int i = 0; i < residual.length; i++) {
+                residual[i] = new ArrayList();
+            }
+
+            for (Iterator iter = rules.iterator(); iter.hasNext(); ) {
+                Rule rule = (Rule) iter.next();
+                int type = rule.getMatchType();
+                if (type < 0 || type >= Pattern.NUMBER_OF_TYPES) {
+                    type = Pattern.ANY_NODE;
+                }
+                String name = getIndexName(rule.getPattern());
+                if (name == null) {
+                    residual[type].add(rule);
+                }
+                else if (type == Node.ELEMENT_NODE) {
+                    add(elementNames, name, rule);
+                }
+                else {
+                    add(attributeNames, name, rule);
+                }
+            }
+
+            // wildcard rules for a type, and rules for any node, apply to every bucket of that type
+            for (int type = 0; type < typeRules.length; type++) {
+                List list = new ArrayList(residual[type]);
+                if (type != Pattern.ANY_NODE) {
+                    list.addAll(residual[Pattern.ANY_NODE]);
+                }
+                typeRules[type] = sort(list);
+            }
+            merge(elementNames, typeRules[Node.ELEMENT_NODE], elementRules);
+            merge(attributeNames, typeRules[Node.ATTRIBUTE_NODE], attributeRules);
+        }
+
+        Rule getMatchingRule(Node node) {
+            int type = node.getNodeType();
+            Rule[] candidates = null;
+            if (type == Node.ELEMENT_NODE) {
+                candidates = (Rule[]) elementRules.get(node.getName());
+            }
+            else if (type == Node.ATTRIBUTE_NODE) {
+                candidates = (Rule[]) attributeRules.get(node.getName());
+            }
+            if (candidates == null) {
+                if (type < 0 || type >= typeRules.length) {
+                    type = Pattern.ANY_NODE;
+                }
+                candidates = typeRules[type];
+            }
+            // the rules are in ascending order, like a dom4j RuleSet
+            for (int i = candidates.length - 1; i >= 0; i--) {
+                Rule rule = candidates[i];
+                if (rule.matches(node)) {
+                    return rule;
+                }
+            }
+            return null;
+        }
+
+        private static void add(Map names, String name, Rule rule) {
+            List list = (List) names.get(name);
+            if (list == null) {
+                list = new ArrayList();
+                names.put(name, list);
+            }
+            list.add(rule);
+        }
+
+        private static void merge(Map names, Rule[] wildcards, Map buckets) {
+            for (Iterator iter = names.entrySet().iterator(); iter.hasNext(); ) {
+                Map.Entry entry = (Map.Entry) iter.next();
+                List list = (List) entry.getValue();
+                list.addAll(Arrays.asList(wildcards));
+                buckets.put(entry.getKey(), sort(list));
+            }
+        }
+
+        private static Rule[] sort(List list) {
+            Rule[] answer = (Rule[]) list.toArray(EMPTY);
+            Arrays.sort(answer);
+            return answer;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.jsl;
+
+import org.dom4j.rule.Action;
+import org.dom4j.rule.Mode;
+import org.dom4j.rule.Pattern;
+import org.dom4j.rule.Rule;
+import org.dom4j.rule.RuleManager;
+
+/**
+ * The RuleManager of a {@link JellyStylesheet}, which indexes the rules of
+ * each mode using an {@link IndexedMode}. The built in rules, which apply
+ * when no template matches, are {@link DefaultRule}s so that they can be
+ * told apart from templates.
+ *
+ * @version $Revision$
+ */
+class JellyRuleManager extends RuleManager {
+
+    protected Mode createMode() {
+        Mode mode = new IndexedMode();
+        addDefaultRules(mode);
+        return mode;
+    }
+
+    protected Rule createDefaultRule(Pattern pattern, Action action) {
+        Rule rule = new DefaultRule(pattern, action);
+        rule.setImportPrecedence(-1);
+        return rule;
+    }
+
+    /**
+     * @return true if the given rule is a built in rule rather than a template
+     */
+    static boolean isDefaultRule(Rule rule) {
+        return rule instanceof DefaultRule;
+    }
+
+    /**
+     * A built in rule
+     */
+    private static class DefaultRule extends Rule {
+        DefaultRule(Pattern pattern, Action action) {
+            super(pattern, action);
+        }
+    }
+}
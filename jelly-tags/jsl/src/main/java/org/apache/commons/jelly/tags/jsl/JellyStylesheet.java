@@ -21,14 +21,27 @@ import org.apache.commons.jelly.XMLOutput;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.util.Iterator;
+import java.util.List;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
 import org.dom4j.Node;
+import org.dom4j.XPath;
 import org.dom4j.rule.Action;
+import org.dom4j.rule.Mode;
+import org.dom4j.rule.Rule;
+import org.dom4j.rule.RuleManager;
 import org.dom4j.rule.Stylesheet;
 
 /**
  * This class is a specialization of the Stylesheet from dom4j's rule engine
  * that adds some Jelly specific features.
  *
+ * <p>The rules are held by a {@link JellyRuleManager} rather than the
+ * RuleManager of the base class, so that the rule for a node is found
+ * through an {@link IndexedMode} instead of by testing every rule.</p>
+ *
  * @author <a href="mailto:jstrachan@apache.org">James Strachan</a>
  * @version $Revision$
  */
@@ -39,6 +52,9 @@ public class JellyStylesheet extends Stylesheet {
 
     private XMLOutput output;
 
+    /** The rules of this stylesheet */
+    private RuleManager ruleManager = new JellyRuleManager();
+
     public JellyStylesheet() {
         setValueOfAction(
             new Action() {
@@ -52,6 +68,66 @@ public class JellyStylesheet extends Stylesheet {
         );
     }
 
+    // Stylesheet interface
+    //-------------------------------------------------------------------------
+
+    public void addRule(Rule rule) {
+        ruleManager.addRule(rule);
+    }
+
+    public void removeRule(Rule rule) {
+        ruleManager.removeRule(rule);
+    }
+
+    public void run(Node node, String mode) throws Exception {
+        ruleManager.getMode(mode).fireRule(node);
+    }
+
+    public void applyTemplates(Object input, XPath xpath, String mode) throws Exception {
+        fireRules(ruleManager.getMode(mode), xpath.selectNodes(input));
+    }
+
+    public void applyTemplates(Object input, org.jaxen.XPath xpath, String mode) throws Exception {
+        fireRules(ruleManager.getMode(mode), xpath.selectNodes(input));
+    }
+
+    public void applyTemplates(Object input, String mode) throws Exception {
+        Mode mod = ruleManager.getMode(mode);
+        if (input instanceof Element) {
+            Element element = (Element) input;
+            for (int i = 0, size = element.nodeCount(); i < size; i++) {
+                mod.fireRule(element.node(i));
+            }
+        }
+        else if (input instanceof Document) {
+            Document document = (Document) input;
+            for (int i = 0, size = document.nodeCount(); i < size; i++) {
+                mod.fireRule(document.node(i));
+            }
+        }
+        else if (input instanceof List) {
+            List list = (List) input;
+            for (int i = 0, size = list.size(); i < size; i++) {
+                Object object = list.get(i);
+                if (object instanceof Element || object instanceof Document) {
+                    applyTemplates(object, mode);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        ruleManager.clear();
+    }
+
+    public Action getValueOfAction() {
+        return ruleManager.getValueOfAction();
+    }
+
+    public void setValueOfAction(Action valueOfAction) {
+        ruleManager.setValueOfAction(valueOfAction);
+    }
+
     // Properties
     //-------------------------------------------------------------------------
 
@@ -71,4 +147,22 @@ public class JellyStylesheet extends Stylesheet {
         this.output = output;
     }
 
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the rules of the given mode
+     */
+    Mode getMode(String mode) {
+        return ruleManager.getMode(mode);
+    }
+
+    /**
+     * Fires the matching rule of the mode for each of the nodes
+     */
+    private void fireRules(Mode mode, List nodes) throws Exception {
+        for (Iterator iter = nodes.iterator(); iter.hasNext(); ) {
+            mode.fireRule((Node) iter.next());
+        }
+    }
 }
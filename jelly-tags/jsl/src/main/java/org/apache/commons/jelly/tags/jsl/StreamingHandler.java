@@ -0,0 +1,351 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.jsl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.dom4j.Branch;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.ElementHandler;
+import org.dom4j.ElementPath;
+import org.dom4j.Node;
+import org.dom4j.rule.Mode;
+import org.dom4j.rule.Pattern;
+import org.dom4j.rule.Rule;
+import org.dom4j.xpath.XPathPattern;
+import org.jaxen.JaxenException;
+import org.jaxen.dom4j.Dom4jXPath;
+import org.jaxen.expr.AdditiveExpr;
+import org.jaxen.expr.BinaryExpr;
+import org.jaxen.expr.Expr;
+import org.jaxen.expr.FilterExpr;
+import org.jaxen.expr.FunctionCallExpr;
+import org.jaxen.expr.LiteralExpr;
+import org.jaxen.expr.LocationPath;
+import org.jaxen.expr.MultiplicativeExpr;
+import org.jaxen.expr.NumberExpr;
+import org.jaxen.expr.PathExpr;
+import org.jaxen.expr.Predicate;
+import org.jaxen.expr.Predicated;
+import org.jaxen.expr.Step;
+import org.jaxen.expr.UnaryExpr;
+import org.jaxen.expr.VariableReferenceExpr;
+import org.jaxen.saxpath.Axis;
+
+/**
+ * <p><code>StreamingHandler</code> applies the templates of a stylesheet
+ * while a document is read by a dom4j <code>SAXReader</code>, so that the
+ * whole document is never held in memory.</p>
+ *
+ * <p>When an element starts the rule for it is looked up. If a template
+ * matches, the subtree of the element is built and the template fires once
+ * the element has ended. Otherwise the element is passed through as by the
+ * built in rule: the rules for its attributes fire straight away, and its
+ * text, comments and child elements are processed as they are read. Every
+ * element is detached from the document once it has been processed, so only
+ * the ancestors of the current element and the subtree being matched are
+ * in memory.</p>
+ *
+ * <p>This gives the same result as applying the stylesheet to the complete
+ * document as long as the templates can be chosen from the name, attributes
+ * and ancestors of an element, and the templates do not look at preceding
+ * or following nodes outside of the element matched. So a stylesheet is
+ * only streamed if the predicates of its patterns test nothing but
+ * attributes: <code>book[@id='2']</code> can be streamed while
+ * <code>book[title='B']</code> or <code>book[2]</code> cannot, as the title
+ * or position of a book is not known when it starts.</p>
+ *
+ * @version $Revision$
+ */
+class StreamingHandler implements ElementHandler {
+
+    /** the rules to apply */
+    private final Mode mode;
+
+    /** the element whose subtree is being built for a template, or null */
+    private Element matched;
+
+    /** the first exception thrown by a template */
+    private Exception failure;
+
+    StreamingHandler(Mode mode) {
+        this.mode = mode;
+    }
+
+    /** the functions which depend on the position or siblings of a node */
+    private static final Set POSITIONAL_FUNCTIONS = new HashSet(Arrays.asList(
+        new String[] { "position", "last", "id" }));
+
+    /** the functions which return the string value of a node when given no arguments */
+    private static final Set STRING_VALUE_FUNCTIONS = new HashSet(Arrays.asList(
+        new String[] { "string", "normalize-space", "string-length", "number" }));
+
+    /** the functions which return a number */
+    private static final Set NUMBER_FUNCTIONS = new HashSet(Arrays.asList(
+        new String[] { "position", "last", "count", "sum", "number", "string-length",
+                       "floor", "ceiling", "round" }));
+
+    /**
+     * @return true if the given rules can be applied while streaming, which
+     * is the case unless a template matches the document node itself or
+     * has a pattern which depends on more than the attributes and ancestors
+     * of a node
+     */
+    static boolean isStreamable(Mode mode) {
+        Rule rule = mode.getMatchingRule(DocumentHelper.createDocument());
+        if (rule != null && !JellyRuleManager.isDefaultRule(rule)) {
+            return false;
+        }
+        if (!(mode instanceof IndexedMode)) {
+            return false;
+        }
+        for (Iterator iter = ((IndexedMode) mode).getRules().iterator(); iter.hasNext(); ) {
+            rule = (Rule) iter.next();
+            if (!JellyRuleManager.isDefaultRule(rule) && !isStreamable(rule.getPattern())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if every predicate of the given pattern only tests the
+     * attributes of the node it applies to
+     */
+    static boolean isStreamable(Pattern pattern) {
+        if (!(pattern instanceof XPathPattern)) {
+            return false;
+        }
+        String text = ((XPathPattern) pattern).getText();
+        int start = -1;
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0, size = text.length(); i < size; i++) {
+            char ch = text.charAt(i);
+            if (quote != 0) {
+                if (ch == quote) {
+                    quote = 0;
+                }
+            }
+            else if (ch == '\'' || ch == '"') {
+                quote = ch;
+            }
+            else if (ch == '[') {
+                if (depth++ == 0) {
+                    start = i + 1;
+                }
+            }
+            else if (ch == ']' && --depth == 0) {
+                if (!isAttributePredicate(text.substring(start, i))) {
+                    return false;
+                }
+            }
+        }
+        return depth == 0 && quote == 0;
+    }
+
+    /**
+     * @return true if the given predicate is not a position and only tests
+     * the attributes of the node it applies to
+     */
+    private static boolean isAttributePredicate(String text) {
+        Expr expr;
+        try {
+            expr = new Dom4jXPath(text).getRootExpr();
+        }
+        catch (JaxenException e) {
+            return false;
+        }
+        if (expr instanceof NumberExpr || expr instanceof AdditiveExpr
+            || expr instanceof MultiplicativeExpr || expr instanceof UnaryExpr
+            || expr instanceof VariableReferenceExpr) {
+            return false;
+        }
+        if (expr instanceof FunctionCallExpr
+            && NUMBER_FUNCTIONS.contains(((FunctionCallExpr) expr).getFunctionName())) {
+            return false;
+        }
+        return isAttributeExpr(expr);
+    }
+
+    /**
+     * @return true if the given expression only refers to the attributes of
+     * the context node
+     */
+    private static boolean isAttributeExpr(Expr expr) {
+        if (expr == null || expr instanceof LiteralExpr || expr instanceof NumberExpr
+            || expr instanceof VariableReferenceExpr) {
+            return true;
+        }
+        if (expr instanceof BinaryExpr) {
+            BinaryExpr binary = (BinaryExpr) expr;
+            return isAttributeExpr(binary.getLHS()) && isAttributeExpr(binary.getRHS());
+        }
+        if (expr instanceof UnaryExpr) {
+            return isAttributeExpr(((UnaryExpr) expr).getExpr());
+        }
+        if (expr instanceof FunctionCallExpr) {
+            FunctionCallExpr call = (FunctionCallExpr) expr;
+            String name = call.getFunctionName();
+            List parameters = call.getParameters();
+            if (POSITIONAL_FUNCTIONS.contains(name)
+                || (parameters.isEmpty() && STRING_VALUE_FUNCTIONS.contains(name))) {
+                return false;
+            }
+            for (Iterator iter = parameters.iterator(); iter.hasNext(); ) {
+                if (!isAttributeExpr((Expr) iter.next())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (expr instanceof PathExpr) {
+            PathExpr path = (PathExpr) expr;
+            return isAttributeExpr(path.getFilterExpr()) && isAttributeExpr(path.getLocationPath());
+        }
+        if (expr instanceof FilterExpr) {
+            FilterExpr filter = (FilterExpr) expr;
+            return isAttributeExpr(filter.getExpr()) && hasAttributePredicates(filter);
+        }
+        if (expr instanceof LocationPath) {
+            LocationPath path = (LocationPath) expr;
+            if (path.isAbsolute()) {
+                return false;
+            }
+            for (Iterator iter = path.getSteps().iterator(); iter.hasNext(); ) {
+                Step step = (Step) iter.next();
+                if (step.getAxis() != Axis.ATTRIBUTE || !hasAttributePredicates(step)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the predicates only refer to attributes
+     */
+    private static boolean hasAttributePredicates(Predicated predicated) {
+        for (Iterator iter = predicated.getPredicates().iterator(); iter.hasNext(); ) {
+            if (!isAttributeExpr(((Predicate) iter.next()).getExpr())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ElementHandler interface
+    //-------------------------------------------------------------------------
+
+    public void onStart(ElementPath elementPath) {
+        if (matched != null || failure != null) {
+            return;
+        }
+        Element element = elementPath.getCurrent();
+        try {
+            // process whatever came before this element in document order
+            Branch parent = element.getParent();
+            fireContent(parent != null ? parent : element.getDocument());
+
+            Rule rule = mode.getMatchingRule(element);
+            if (rule != null && !JellyRuleManager.isDefaultRule(rule)) {
+                matched = element;
+            }
+            else if (rule != null) {
+                for (int i = 0, size = element.attributeCount(); i < size; i++) {
+                    mode.fireRule(element.attribute(i));
+                }
+            }
+        }
+        catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    public void onEnd(ElementPath elementPath) {
+        Element element = elementPath.getCurrent();
+        if (matched != null && matched != element) {
+            // part of the subtree being built
+            return;
+        }
+        try {
+            if (failure == null) {
+                if (matched == element) {
+                    matched = null;
+                    mode.fireRule(element);
+                }
+                else {
+                    fireContent(element);
+                }
+            }
+        }
+        catch (Exception e) {
+            fail(e);
+        }
+        finally {
+            element.detach();
+        }
+    }
+
+    /**
+     * Processes the content of the document which follows the root element
+     */
+    void finish(Branch document) throws Exception {
+        if (failure == null && document != null) {
+            fireContent(document);
+        }
+    }
+
+    /**
+     * @return the first exception thrown by a template or null
+     */
+    Exception getFailure() {
+        return failure;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Fires the rules for the text, comments and processing instructions
+     * read so far, removing them once processed. Elements which are still
+     * in the branch are being read and are processed when they end.
+     */
+    private void fireContent(Branch branch) throws Exception {
+        List nodes = new ArrayList(branch.content());
+        for (Iterator iter = nodes.iterator(); iter.hasNext(); ) {
+            Node node = (Node) iter.next();
+            if (!(node instanceof Element)) {
+                mode.fireRule(node);
+                branch.remove(node);
+            }
+        }
+    }
+
+    private void fail(Exception e) {
+        failure = e;
+        // stop parsing, the failure is rethrown once the reader returns
+        throw new IllegalStateException(e.getMessage(), e);
+    }
+}
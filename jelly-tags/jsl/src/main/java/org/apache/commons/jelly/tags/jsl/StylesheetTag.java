@@ -18,10 +18,14 @@ package org.apache.commons.jelly.tags.jsl;
 
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.tags.xml.ParseTagSupport;
 import org.apache.commons.jelly.xpath.XPathSource;
 import org.apache.commons.jelly.xpath.XPathTagSupport;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.dom4j.Document;
+import org.dom4j.io.SAXReader;
+import org.dom4j.rule.Mode;
 import org.dom4j.rule.Rule;
 import org.dom4j.rule.Stylesheet;
 import org.jaxen.JaxenException;
@@ -32,6 +36,15 @@ import org.jaxen.XPath;
  * This tag implements a JSL stylesheet which is similar to an
  * XSLT stylesheet but can use Jelly tags inside it
  *
+ * <p>The stylesheet is applied to the node or nodes selected by the
+ * <code>select</code> XPath or, if the <code>xml</code> attribute is set,
+ * to the document it refers to. With <code>streaming="true"</code> such a
+ * document is styled while it is parsed, without ever building the whole
+ * document in memory; see {@link StreamingHandler} for the kinds of
+ * templates this supports. If a template matches the document node itself,
+ * or a pattern has a predicate which tests more than attributes, the
+ * document is read completely instead.</p>
+ *
  * @author <a href="mailto:jstrachan@apache.org">James Strachan</a>
  * @version $Revision$
  */
@@ -56,6 +69,12 @@ public class StylesheetTag extends XPathTagSupport implements XPathSource {
     /** The XPath source used by TemplateTag and ApplyTemplatesTag to pass XPath contexts */
     private Object xpathSource;
 
+    /** The document to style, a String URI, URL, File, Reader or InputStream */
+    private Object xml;
+
+    /** Whether the document given by xml is styled while it is parsed */
+    private boolean streaming;
+
     public StylesheetTag() {
     }
 
@@ -114,6 +133,10 @@ public class StylesheetTag extends XPathTagSupport implements XPathSource {
         }
         else {
 
+            if (xml != null && streaming && select == null && stream()) {
+                return;
+            }
+
             //dom4j seems to only throw generic Exceptions
             try {
                 Object source = getSource();
@@ -166,13 +189,31 @@ public class StylesheetTag extends XPathTagSupport implements XPathSource {
         this.select = select;
     }
 
+    /**
+     * Sets the document to style rather than the current XPath context,
+     * which can be a String URI, URL, File, Reader or InputStream
+     */
+    public void setXml(Object xml) {
+        this.xml = xml;
+    }
+
+    /**
+     * Sets whether the document given by the xml attribute should be styled
+     * while it is parsed, rather than parsed into memory first
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
     // Implementation methods
     //-------------------------------------------------------------------------
 
     /** @return the source on which the stylesheet should run
      */
-    protected Object getSource() throws JaxenException {
-        Object source = getXPathContext();
+    protected Object getSource() throws JaxenException, JellyTagException {
+        Object source = (xml != null)
+            ? ParseTagSupport.read(new SAXReader(), xml, context)
+            : getXPathContext();
         if ( select != null ) {
             return select.evaluate(source);
         }
@@ -180,6 +221,53 @@ public class StylesheetTag extends XPathTagSupport implements XPathSource {
     }
 
 
+    /**
+     * Styles the document given by the xml attribute while it is parsed
+     *
+     * @return false if the stylesheet cannot be streamed
+     */
+    protected boolean stream() throws JellyTagException {
+        if (!(stylesheet instanceof JellyStylesheet)) {
+            return false;
+        }
+        Mode rules = ((JellyStylesheet) stylesheet).getMode(getMode());
+        if (!StreamingHandler.isStreamable(rules)) {
+            if (log.isDebugEnabled()) {
+                log.debug("The templates need the whole document so it cannot be streamed: " + xml);
+            }
+            return false;
+        }
+
+        StreamingHandler handler = new StreamingHandler(rules);
+        SAXReader reader = new SAXReader();
+        reader.setDefaultHandler(handler);
+        try {
+            Document document = ParseTagSupport.read(reader, xml, context);
+            handler.finish(document);
+        }
+        catch (JellyTagException e) {
+            if (handler.getFailure() == null) {
+                throw e;
+            }
+        }
+        catch (IllegalStateException e) {
+            if (handler.getFailure() == null) {
+                throw e;
+            }
+        }
+        catch (Exception e) {
+            throw new JellyTagException(e);
+        }
+        Exception failure = handler.getFailure();
+        if (failure instanceof JellyTagException) {
+            throw (JellyTagException) failure;
+        }
+        else if (failure != null) {
+            throw new JellyTagException(failure);
+        }
+        return true;
+    }
+
     /**
      * Factory method to create a new stylesheet
      */
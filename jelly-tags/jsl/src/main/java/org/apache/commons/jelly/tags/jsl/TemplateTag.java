@@ -31,6 +31,11 @@ import org.dom4j.rule.Rule;
 /**
  * This tag represents a declarative matching rule, similar to the template tag in XSLT.
  *
+ * <p>While the template fires, the node it matched is the XPath source of
+ * this tag and of the enclosing stylesheet tag. Templates may fire
+ * recursively, but a stylesheet must only be applied by one thread at a
+ * time.</p>
+ *
  * @author <a href="mailto:jstrachan@apache.org">James Strachan</a>
  * @version $Revision$
  */
@@ -49,6 +54,9 @@ public class TemplateTag extends TagSupport implements XPathSource {
     /** Holds value of property priority. */
     private double priority;
 
+    /** Whether the priority was set, otherwise the priority of the pattern is used */
+    private boolean prioritySet;
+
     /** The pattern to match */
     private Pattern match;
 
@@ -75,6 +83,9 @@ public class TemplateTag extends TagSupport implements XPathSource {
         Rule rule = createRule(tag, output);
         if ( rule != null && tag != null) {
             rule.setMode( mode );
+            if ( prioritySet ) {
+                rule.setPriority( priority );
+            }
             tag.addTemplate( rule );
         }
     }
@@ -109,6 +120,7 @@ public class TemplateTag extends TagSupport implements XPathSource {
      */
     public void setPriority(double priority) {
         this.priority = priority;
+        this.prioritySet = true;
     }
 
     /** Getter for property name.
@@ -144,7 +156,10 @@ public class TemplateTag extends TagSupport implements XPathSource {
         return new Action() {
             public void run(Node node) throws Exception {
 
-                // store the context for use by applyTemplates tag
+                // store the context for use by applyTemplates tag, restoring the
+                // outer one afterwards as templates are fired recursively
+                Object oldStylesheetSource = tag.getXPathSource();
+                Object oldSource = xpathSource;
                 tag.setXPathSource( node );
 
                 xpathSource = node;
@@ -158,7 +173,13 @@ public class TemplateTag extends TagSupport implements XPathSource {
                     actualOutput = output;
                 }
 
-                invokeBody(actualOutput);
+                try {
+                    invokeBody(actualOutput);
+                }
+                finally {
+                    xpathSource = oldSource;
+                    tag.setXPathSource( oldStylesheetSource );
+                }
             }
         };
     }
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.jsl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.jelly.tags.jsl.JellyStylesheet;
+import org.dom4j.Document;
+import org.dom4j.rule.Stylesheet;
+
+/**
+ * Compares the time the indexed rules of a JellyStylesheet and the rules of
+ * a dom4j Stylesheet take to apply the documentation stylesheet of
+ * {@link TestJellyStylesheet} to a large document. This is not part of the
+ * unit tests, run it with
+ * <pre>
+ * java org.apache.commons.jelly.jsl.JellyStylesheetBenchmark [sections] [iterations]
+ * </pre>
+ *
+ * @version $Revision$
+ */
+public class JellyStylesheetBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sections = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+        int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+
+        TestJellyStylesheet test = new TestJellyStylesheet("benchmark");
+        Document document = test.createLargeDocument(sections);
+        // both stylesheets must fire the same templates before they are compared
+        test.assertSameTrace(TestJellyStylesheet.PATTERNS, document);
+
+        List trace = new ArrayList();
+        Stylesheet dom4j = test.createStylesheet(new Stylesheet(), TestJellyStylesheet.PATTERNS, trace);
+        Stylesheet jelly = test.createStylesheet(new JellyStylesheet(), TestJellyStylesheet.PATTERNS, trace);
+
+        // warm up both before timing either
+        time(dom4j, document, trace, iterations);
+        time(jelly, document, trace, iterations);
+
+        long dom4jTime = time(dom4j, document, trace, iterations);
+        long jellyTime = time(jelly, document, trace, iterations);
+        System.out.println("Applied " + TestJellyStylesheet.PATTERNS.length + " templates to "
+            + sections + " sections " + iterations + " times");
+        System.out.println("dom4j Mode:  " + dom4jTime + " ms");
+        System.out.println("IndexedMode: " + jellyTime + " ms");
+    }
+
+    /**
+     * @return the milliseconds taken to apply the stylesheet the given number of times
+     */
+    private static long time(Stylesheet stylesheet, Document document, List trace, int iterations)
+        throws Exception {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < iterations; i++) {
+            trace.clear();
+            stylesheet.run(document);
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
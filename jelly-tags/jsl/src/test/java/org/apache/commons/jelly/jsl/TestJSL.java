@@ -16,6 +16,7 @@
  */
 package org.apache.commons.jelly.jsl;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 
@@ -69,6 +70,38 @@ public class TestJSL extends TestCase {
         assertEquals( "dfjsdfjsdf", small.valueOf( "p" ).trim() );
     }
 
+    public void testStreaming() throws Exception {
+        JellyContext context = new JellyContext();
+        SAXContentHandler contentHandler = new SAXContentHandler();
+        XMLOutput output = new XMLOutput( contentHandler );
+
+        contentHandler.startDocument();
+        context.runScript( new File( "target/test-classes/org/apache/commons/jelly/jsl/streaming.jelly" ), output );
+        contentHandler.endDocument();
+        Document document = contentHandler.getDocument();
+
+        Element streamed = (Element) document.selectSingleNode("/results/streamed");
+        Element parsed = (Element) document.selectSingleNode("/results/parsed");
+        assertEquals( "1:One", streamed.valueOf( "book[1]" ) );
+        assertEquals( "Three", streamed.valueOf( "magazine" ) );
+        assertEquals( parsed.elements().size(), streamed.elements().size() );
+        assertEquals( parsed.getStringValue(), streamed.getStringValue() );
+
+        // each book was discarded once it had been styled
+        assertEquals( "111", document.valueOf( "/results/pruned" ).replaceAll( "\\s", "" ) );
+
+        // a predicate on the children of a book gives the same result as without streaming
+        Element predicateStreamed = (Element) document.selectSingleNode("/results/predicateStreamed");
+        Element predicateParsed = (Element) document.selectSingleNode("/results/predicateParsed");
+        assertEquals( "2", predicateStreamed.valueOf( "match" ) );
+        assertEquals( predicateParsed.asXML().replaceAll( "predicateParsed", "" ),
+                      predicateStreamed.asXML().replaceAll( "predicateStreamed", "" ) );
+
+        // as it reads the whole document, while a predicate on attributes is streamed
+        assertEquals( "3", document.valueOf( "/results/attributes/children" ) );
+        assertEquals( "3", document.valueOf( "/results/attributes/attribute[1]" ) );
+        assertEquals( "1", document.valueOf( "/results/attributes/attribute[2]" ) );
+    }
 
     protected Document runScript(String fileName) throws Exception {
         InputStream in = new FileInputStream(fileName);
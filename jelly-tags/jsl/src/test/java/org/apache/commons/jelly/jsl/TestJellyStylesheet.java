@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.jsl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.tags.jsl.JellyStylesheet;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.rule.Action;
+import org.dom4j.rule.Rule;
+import org.dom4j.rule.Stylesheet;
+
+/**
+ * Tests that the indexed rules of a JellyStylesheet pick the same templates
+ * as the dom4j Stylesheet, for small documents and for a realistic
+ * stylesheet applied to a large document.
+ *
+ * @version $Revision$
+ */
+public class TestJellyStylesheet extends TestCase {
+
+    /** Templates similar to those of a documentation stylesheet */
+    static final String[] PATTERNS = {
+        "document", "properties", "properties/title", "properties/author", "body",
+        "section", "section/section", "subsection", "p", "p[@class='note']",
+        "source", "ul", "ol", "li", "ul/li[1]", "table", "tr", "th", "td",
+        "a[@href]", "a", "img", "b", "i", "code", "em", "strong", "br",
+        "h:div", "h:span", "@id", "@class", "section/@name", "text()",
+        "comment()", "*[@deprecated]", "section//a", "dl", "dt", "dd"
+    };
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestJellyStylesheet.class);
+    }
+
+    public TestJellyStylesheet(String testName) {
+        super(testName);
+    }
+
+    public void testSameRulesAsDom4j() throws Exception {
+        Document document = DocumentHelper.parseText(
+            "<document xmlns:h='urn:h'><body>"
+            + "<section name='a' id='s1'><p class='note'>note <b>bold</b></p><p>plain<!-- c --></p>"
+            + "<section name='b'><a href='x'>link</a><a>anchor</a><h:div><h:span>x</h:span><span/></h:div></section>"
+            + "<ul><li>1</li><li>2</li></ul><unknown deprecated='yes'/><other/></section>"
+            + "</body></document>");
+        assertSameTrace(PATTERNS, document);
+    }
+
+    public void testPriorityAndMode() throws Exception {
+        Document document = DocumentHelper.parseText("<doc><a/><b/></doc>");
+        JellyStylesheet stylesheet = new JellyStylesheet();
+        List trace = new ArrayList();
+        addRule(stylesheet, "doc", "doc", null, trace);
+        addRule(stylesheet, "a", "a", null, trace);
+        // an explicit priority makes a wildcard win over a named rule
+        Rule wildcard = createRule(stylesheet, "*", "wildcard", null, trace);
+        wildcard.setPriority(1);
+        stylesheet.addRule(wildcard);
+        addRule(stylesheet, "a", "a-in-mode", "other", trace);
+
+        stylesheet.run(document);
+        assertEquals("[wildcard /doc, wildcard /doc/a, wildcard /doc/b]", trace.toString());
+
+        trace.clear();
+        stylesheet.removeRule(wildcard);
+        stylesheet.run(document);
+        assertEquals("[doc /doc, a /doc/a]", trace.toString());
+
+        trace.clear();
+        stylesheet.run(document.getRootElement().element("a"), "other");
+        assertEquals("[a-in-mode /doc/a]", trace.toString());
+    }
+
+    public void testLargeDocument() throws Exception {
+        int sections = 200;
+        Document document = createLargeDocument(sections);
+        List trace = assertSameTrace(PATTERNS, document);
+
+        // the named, nested, positional and predicate rules all fired where expected
+        assertEquals(1, count(trace, "properties/title"));
+        assertEquals(sections, count(trace, "section"));
+        assertEquals(sections, count(trace, "section/section"));
+        assertEquals((sections + 2) / 3, count(trace, "p[@class='note']"));
+        assertEquals(sections - (sections + 2) / 3, count(trace, "p"));
+        assertEquals(sections * 3 * 2, count(trace, "td"));
+        assertEquals(sections, count(trace, "comment()"));
+        // like dom4j, a position is evaluated against the matched node alone
+        assertEquals(sections * 5, count(trace, "ul/li[1]"));
+        assertEquals(0, count(trace, "li"));
+        // the later of two rules with the same priority wins
+        assertEquals(sections * 5, count(trace, "section//a"));
+        assertEquals(0, count(trace, "a[@href]"));
+    }
+
+    /**
+     * Applies the patterns to the document with both stylesheets and checks
+     * that the same rules fire for the same nodes.
+     *
+     * @return the rules which fired
+     */
+    protected List assertSameTrace(String[] patterns, Document document) throws Exception {
+        List expected = new ArrayList();
+        List actual = new ArrayList();
+        Stylesheet dom4j = createStylesheet(new Stylesheet(), patterns, expected);
+        Stylesheet jelly = createStylesheet(new JellyStylesheet(), patterns, actual);
+
+        dom4j.run(document);
+        jelly.run(document);
+        assertTrue("some templates fired", expected.size() > 0);
+        assertEquals(expected, actual);
+        return actual;
+    }
+
+    /**
+     * @return the number of times the rule of the given name fired
+     */
+    protected int count(List trace, String name) {
+        int answer = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            if (((Fired) trace.get(i)).name.equals(name)) {
+                answer++;
+            }
+        }
+        return answer;
+    }
+
+    protected Stylesheet createStylesheet(Stylesheet stylesheet, String[] patterns, List trace) {
+        stylesheet.setValueOfAction(new Action() {
+            public void run(Node node) {
+            }
+        });
+        for (int i = 0; i < patterns.length; i++) {
+            addRule(stylesheet, patterns[i], patterns[i], null, trace);
+        }
+        return stylesheet;
+    }
+
+    protected void addRule(Stylesheet stylesheet, String pattern, String name, String mode, List trace) {
+        stylesheet.addRule(createRule(stylesheet, pattern, name, mode, trace));
+    }
+
+    protected Rule createRule(final Stylesheet stylesheet, String pattern, final String name, final String mode, final List trace) {
+        Rule rule = new Rule(DocumentHelper.createPattern(pattern), new Action() {
+            public void run(Node node) throws Exception {
+                trace.add(new Fired(name, node));
+                stylesheet.applyTemplates(node, mode);
+            }
+        });
+        rule.setMode(mode);
+        return rule;
+    }
+
+    protected Document createLargeDocument(int sections) {
+        Document document = DocumentHelper.createDocument();
+        Element root = document.addElement("document");
+        Element properties = root.addElement("properties");
+        properties.addElement("title").setText("A large document");
+        properties.addElement("author").setText("Someone");
+        Element body = root.addElement("body");
+        for (int i = 0; i < sections; i++) {
+            Element section = body.addElement("section").addAttribute("name", "Section " + i);
+            section.addElement("p").addAttribute("class", (i % 3 == 0) ? "note" : "text")
+                .addText("Some text with ").addElement("b").setText("bold");
+            Element list = section.addElement("ul");
+            for (int j = 0; j < 5; j++) {
+                list.addElement("li").addElement("a").addAttribute("href", "#" + j).setText("item " + j);
+            }
+            Element table = section.addElement("table");
+            for (int j = 0; j < 3; j++) {
+                Element row = table.addElement("tr");
+                row.addElement("td").setText("cell");
+                row.addElement("td").addElement("code").setText("code");
+            }
+            section.addElement("section").addAttribute("id", "sub" + i)
+                .addElement("source").setText("some source");
+            section.addComment("comment");
+        }
+        return document;
+    }
+
+    /**
+     * A template which fired for a node
+     */
+    private static class Fired {
+        private final String name;
+        private final Node node;
+
+        Fired(String name, Node node) {
+            this.name = name;
+            this.node = node;
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof Fired)) {
+                return false;
+            }
+            Fired that = (Fired) object;
+            return name.equals(that.name) && node == that.node;
+        }
+
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        public String toString() {
+            return name + " " + node.getUniquePath();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.TagSupport;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.tags.Resources;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>Executes the nested &lt;update&gt; tags as JDBC batches.</p>
+ *
+ * <p>All the nested tags share one connection, taken from an enclosing
+ * &lt;transaction&gt; or from the <code>dataSource</code>. The statements
+ * are prepared once per SQL text and cached for the life of this tag.
+ * Consecutive updates using the same SQL are added to a batch which is
+ * executed once it holds <code>size</code> updates, when a different
+ * statement is used, before any other nested SQL tag runs and at the end
+ * of this tag, so updates are still executed in the order they appear.</p>
+ *
+ * <p>If the body fails, the updates which have been added to a batch but
+ * not yet executed are discarded. Batches which have already been executed
+ * are only undone if this tag is nested in a &lt;transaction&gt;. SQL tags
+ * nested in a &lt;transaction&gt; inside this tag use the transaction's
+ * connection and are not batched.</p>
+ *
+ * <p>The <code>var</code> attribute of a nested &lt;update&gt; is not set
+ * as its count is not known until the batch is executed. Instead the total
+ * number of updated rows is exported as the <code>var</code> of this tag.</p>
+ *
+ * @version $Revision$
+ */
+public class BatchTag extends TagSupport {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(BatchTag.class);
+
+    /** The default number of updates executed per batch */
+    public static final int DEFAULT_SIZE = 100;
+
+    protected Object rawDataSource;
+    protected boolean dataSourceSpecified;
+    private String var;
+    private int size = DEFAULT_SIZE;
+
+    /*
+     * Instance variables that are not for attributes
+     */
+    private Connection conn;
+    private Map statements;
+    private PreparedStatement pending;
+    private int pendingCount;
+    private int updateCount;
+
+    public BatchTag() {
+    }
+
+    //*********************************************************************
+    // Accessor methods
+
+    /**
+     * Sets the SQL DataSource. DataSource can be
+     * a String or a DataSource object.
+     */
+    public void setDataSource(Object dataSource) {
+        this.rawDataSource = dataSource;
+        this.dataSourceSpecified = true;
+    }
+
+    /**
+     * Sets the name of the variable to hold the total
+     * number of updated rows.
+     */
+    public void setVar(String var) {
+        this.var = var;
+    }
+
+    /**
+     * Sets the maximum number of updates executed in one batch.
+     */
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    //*********************************************************************
+    // Tag logic
+
+    public void doTag(XMLOutput output) throws JellyTagException {
+        if (size < 1) {
+            throw new JellyTagException(Resources.getMessage("PARAM_BAD_VALUE"));
+        }
+
+        boolean isPartOfTransaction = false;
+        TransactionTag parent =
+            (TransactionTag) findAncestorWithClass(TransactionTag.class);
+        if (parent != null) {
+            if (dataSourceSpecified) {
+                throw new JellyTagException(Resources.getMessage("ERROR_NESTED_DATASOURCE"));
+            }
+            conn = parent.getSharedConnection();
+            isPartOfTransaction = true;
+        }
+        else {
+            if ((rawDataSource == null) && dataSourceSpecified) {
+                throw new JellyTagException(Resources.getMessage("SQL_DATASOURCE_NULL"));
+            }
+            DataSource dataSource = DataSourceUtil.getDataSource(rawDataSource, context);
+            try {
+                conn = dataSource.getConnection();
+            }
+            catch (Exception ex) {
+                throw new JellyTagException(
+                    Resources.getMessage("DATASOURCE_INVALID", ex.getMessage()));
+            }
+        }
+
+        statements = new HashMap();
+        updateCount = 0;
+        try {
+            invokeBody(output);
+            executeBatch();
+            if (var != null) {
+                context.setVariable(var, new Integer(updateCount));
+            }
+        }
+        catch (SQLException e) {
+            throw new JellyTagException(e.getMessage(), e);
+        }
+        finally {
+            if (pending != null) {
+                // the body failed, so the pending updates are not executed
+                if (log.isDebugEnabled()) {
+                    log.debug("Discarding " + pendingCount + " batched updates");
+                }
+                try {
+                    pending.clearBatch();
+                }
+                catch (SQLException e) {
+                    log.error("Caught exception while clearing batch: " + e, e);
+                }
+            }
+            for (Iterator iter = statements.values().iterator(); iter.hasNext(); ) {
+                Statement statement = (Statement) iter.next();
+                try {
+                    statement.close();
+                }
+                catch (SQLException e) {
+                    log.error("Caught exception while closing statement: " + e, e);
+                }
+            }
+            statements = null;
+            pending = null;
+            pendingCount = 0;
+            if (!isPartOfTransaction) {
+                try {
+                    conn.close();
+                }
+                catch (SQLException e) {
+                    log.error("Caught exception while closing connection: " + e, e);
+                }
+            }
+            conn = null;
+        }
+    }
+
+    //*********************************************************************
+    // Public utility methods
+
+    /**
+     * Called by nested SQL tags to get a reference to the Connection.
+     * Any pending updates are executed first so that they are visible
+     * to the caller.
+     */
+    public Connection getSharedConnection() throws SQLException {
+        executeBatch();
+        return conn;
+    }
+
+    /**
+     * Returns the cached PreparedStatement for the given SQL, preparing it
+     * on first use. If updates are pending for a different statement they
+     * are executed first.
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement statement = (PreparedStatement) statements.get(sql);
+        if (statement != pending) {
+            executeBatch();
+        }
+        if (statement == null) {
+            statement = conn.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Adds the current parameters of the given statement, which must have
+     * been returned by {@link #prepareStatement}, to the batch and executes
+     * the batch if it is full.
+     */
+    public void addBatch(PreparedStatement statement) throws SQLException {
+        statement.addBatch();
+        pending = statement;
+        if (++pendingCount >= size) {
+            executeBatch();
+        }
+    }
+
+    /**
+     * Executes any pending updates.
+     */
+    public void executeBatch() throws SQLException {
+        if (pending == null) {
+            return;
+        }
+        PreparedStatement statement = pending;
+        pending = null;
+        pendingCount = 0;
+        int[] counts = statement.executeBatch();
+        for (int i = 0; i < counts.length; i++) {
+            // drivers may return SUCCESS_NO_INFO instead of a count
+            if (counts[i] > 0) {
+                updateCount += counts[i];
+            }
+        }
+    }
+
+    /**
+     * @return the number of rows updated by the batches executed so far
+     */
+    public int getUpdateCount() {
+        return updateCount;
+    }
+}
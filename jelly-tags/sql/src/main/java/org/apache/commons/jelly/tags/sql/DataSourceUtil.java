@@ -17,6 +17,15 @@
 
 package org.apache.commons.jelly.tags.sql;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 import javax.sql.DataSource;
 import javax.naming.InitialContext;
 import javax.naming.Context;
@@ -33,7 +42,12 @@ import org.apache.commons.logging.LogFactory;
  * <p>A simple <code>DataSource</code> utility for the standard
  * <code>DriverManager</code> class.
  *
- * TO DO: need to cache DataSource
+ * <p>If the variable <code>org.apache.commons.jelly.sql.pooling</code> is
+ * true, the DataSources created from JDBC parameter strings are
+ * {@link PooledDataSource}s, one per distinct string, shared by all
+ * scripts. The pools are keyed by a digest of their settings, so the
+ * passwords are not kept, and stay open until {@link #closePools()} is
+ * called.</p>
  *
  * @author Justyna Horwat
  */
@@ -42,9 +56,15 @@ public class DataSourceUtil {
     private static final String ESCAPE = "\\";
     private static final String TOKEN = ",";
 
+    /** The variable which enables pooling of the connections created from JDBC parameters */
+    public static final String POOLING_VARIABLE = "org.apache.commons.jelly.sql.pooling";
+
     /** The Log to which logging calls will be made. */
     private static final Log log = LogFactory.getLog(DataSourceUtil.class);
 
+    /** The shared PooledDataSources keyed by the digest of their settings */
+    private static final Map pools = new HashMap();
+
     /**
      * If dataSource is a String first do JNDI lookup.
      * If lookup fails parse String like it was a set of JDBC parameters
@@ -76,7 +96,12 @@ public class DataSourceUtil {
                 dataSource = (DataSource) envCtx.lookup((String) rawDataSource);
             }
             catch (NamingException ex) {
-                dataSource = getDataSource((String) rawDataSource);
+                if (isPoolingEnabled(pc)) {
+                    dataSource = getPooledDataSource((String) rawDataSource);
+                }
+                else {
+                    dataSource = getDataSource((String) rawDataSource);
+                }
             }
         }
         else if (rawDataSource instanceof DataSource) {
@@ -89,6 +114,134 @@ public class DataSourceUtil {
         return dataSource;
     }
 
+    /**
+     * @return whether connections created from JDBC parameters should be pooled
+     */
+    static boolean isPoolingEnabled(JellyContext pc) {
+        Object value = pc.getVariable(POOLING_VARIABLE);
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue();
+        }
+        return value != null && "true".equalsIgnoreCase(value.toString());
+    }
+
+    /**
+     * @return the shared PooledDataSource for the given JDBC parameters
+     */
+    static PooledDataSource getPooledDataSource(String params) throws JellyTagException {
+        String key = digest(new String[] { params });
+        synchronized (pools) {
+            PooledDataSource pool = (PooledDataSource) pools.get(key);
+            if (pool == null || pool.isClosed()) {
+                pool = new PooledDataSource(getDataSource(params));
+                putPool(key, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Returns the shared PooledDataSource with the given settings, creating
+     * it with the given DataSource if it does not exist yet. Pools with
+     * different settings are never shared.
+     *
+     * @param settings the settings which identify the pool, such as the JDBC URL and user
+     * @param maxActive the maximum number of active connections, or zero for the default
+     * @param validationQuery the query used to validate pooled connections or null
+     */
+    static PooledDataSource getPooledDataSource(String[] settings, DataSource dataSource,
+                                                int maxActive, String validationQuery) {
+        String[] key = new String[settings.length + 2];
+        System.arraycopy(settings, 0, key, 0, settings.length);
+        key[settings.length] = String.valueOf(maxActive);
+        key[settings.length + 1] = validationQuery;
+        String digest = digest(key);
+        synchronized (pools) {
+            PooledDataSource pool = (PooledDataSource) pools.get(digest);
+            if (pool == null || pool.isClosed()) {
+                pool = new PooledDataSource(dataSource);
+                if (maxActive > 0) {
+                    pool.setMaxActive(maxActive);
+                }
+                pool.setValidationQuery(validationQuery);
+                putPool(digest, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Closes all the shared PooledDataSources. Connections which are in use
+     * are closed when they are returned. Later requests create new pools.
+     */
+    public static void closePools() {
+        List closing;
+        synchronized (pools) {
+            closing = new ArrayList(pools.values());
+            pools.clear();
+        }
+        for (Iterator iter = closing.iterator(); iter.hasNext(); ) {
+            ((PooledDataSource) iter.next()).close();
+        }
+    }
+
+    /**
+     * @return the number of shared PooledDataSources which are open
+     */
+    public static int getPoolCount() {
+        synchronized (pools) {
+            return pools.size();
+        }
+    }
+
+    /**
+     * Adds a pool, dropping any pools which have been closed.
+     * Must be called while synchronized on the pools.
+     */
+    private static void putPool(String key, PooledDataSource pool) {
+        for (Iterator iter = pools.values().iterator(); iter.hasNext(); ) {
+            if (((PooledDataSource) iter.next()).isClosed()) {
+                iter.remove();
+            }
+        }
+        pools.put(key, pool);
+    }
+
+    /**
+     * @return a digest of the given settings which does not reveal them
+     */
+    private static String digest(String[] settings) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        for (int i = 0; i < settings.length; i++) {
+            // null and empty settings must differ
+            if (settings[i] == null) {
+                digest.update((byte) 0);
+            }
+            else {
+                digest.update((byte) 1);
+                byte[] bytes = settings[i].getBytes(StandardCharsets.UTF_8);
+                digest.update(new byte[] {
+                    (byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16),
+                    (byte) (bytes.length >>> 8), (byte) bytes.length });
+                digest.update(bytes);
+            }
+        }
+        byte[] hash = digest.digest();
+        StringBuffer buffer = new StringBuffer(hash.length * 2);
+        for (int i = 0; i < hash.length; i++) {
+            buffer.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+            buffer.append(Character.forDigit(hash[i] & 0xf, 16));
+        }
+        return buffer.toString();
+    }
+
     /**
      * Parse JDBC parameters and setup dataSource appropriately
      */
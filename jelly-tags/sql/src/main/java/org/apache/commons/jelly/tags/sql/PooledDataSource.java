@@ -0,0 +1,597 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.jelly.tags.Resources;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>A simple bounded pool of the connections created by another
+ * <code>DataSource</code>, typically a {@link DataSourceWrapper}.</p>
+ *
+ * <p>Closing a connection returned by this DataSource returns it to the pool.
+ * The statements, result sets and meta data obtained from it return the
+ * pooled connection from <code>getConnection()</code>, never the connection
+ * in the pool.
+ * At most <code>maxActive</code> connections are handed out at once, further
+ * requests waiting up to <code>maxWait</code> milliseconds for one to be
+ * returned. At most <code>maxIdle</code> connections are kept in the pool
+ * and connections which have been idle for longer than
+ * <code>idleTimeout</code> milliseconds are closed. If a
+ * <code>validationQuery</code> is set it is executed before a pooled
+ * connection is handed out and the connection is discarded if it fails.</p>
+ *
+ * @version $Revision$
+ */
+public class PooledDataSource implements DataSource {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(PooledDataSource.class);
+
+    /** the DataSource which creates the connections */
+    private final DataSource dataSource;
+
+    private int maxActive = 8;
+    private int maxIdle = 8;
+    private long maxWait = 30000;
+    private long idleTimeout = 60000;
+    private String validationQuery;
+
+    /** the idle connections, the most recently returned last */
+    private final LinkedList idle = new LinkedList();
+
+    /** the number of connections handed out */
+    private int activeCount;
+
+    private boolean closed;
+
+    // statistics
+    private long createdCount;
+    private long borrowedCount;
+    private long destroyedCount;
+    private long waitCount;
+    private long timeoutCount;
+
+    public PooledDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /** @return the DataSource which creates the connections */
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /** @return the maximum number of connections handed out at once */
+    public synchronized int getMaxActive() {
+        return maxActive;
+    }
+
+    /** Sets the maximum number of connections handed out at once */
+    public synchronized void setMaxActive(int maxActive) {
+        this.maxActive = maxActive;
+        notifyAll();
+    }
+
+    /** @return the maximum number of idle connections kept in the pool */
+    public synchronized int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /** Sets the maximum number of idle connections kept in the pool */
+    public synchronized void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /** @return how many milliseconds to wait for a connection, zero meaning forever */
+    public synchronized long getMaxWait() {
+        return maxWait;
+    }
+
+    /** Sets how many milliseconds to wait for a connection, zero meaning forever */
+    public synchronized void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /** @return how many milliseconds a connection may be idle before it is closed */
+    public synchronized long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /** Sets how many milliseconds a connection may be idle before it is closed */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /** @return the query used to validate pooled connections or null */
+    public synchronized String getValidationQuery() {
+        return validationQuery;
+    }
+
+    /** Sets the query used to validate pooled connections before they are reused */
+    public synchronized void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    // Statistics
+    //-------------------------------------------------------------------------
+
+    /** @return the number of connections currently handed out */
+    public synchronized int getActiveCount() {
+        return activeCount;
+    }
+
+    /** @return the number of idle connections in the pool */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /** @return the number of connections created */
+    public synchronized long getCreatedCount() {
+        return createdCount;
+    }
+
+    /** @return the number of times a connection has been handed out */
+    public synchronized long getBorrowedCount() {
+        return borrowedCount;
+    }
+
+    /** @return the number of connections closed by the pool */
+    public synchronized long getDestroyedCount() {
+        return destroyedCount;
+    }
+
+    /** @return the number of requests which had to wait for a connection */
+    public synchronized long getWaitCount() {
+        return waitCount;
+    }
+
+    /** @return the number of requests which timed out waiting for a connection */
+    public synchronized long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /** @return whether this pool has been closed */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the idle connections and any connection returned from now on.
+     */
+    public void close() {
+        List connections;
+        synchronized (this) {
+            closed = true;
+            connections = new ArrayList(idle.size());
+            for (Iterator iter = idle.iterator(); iter.hasNext(); ) {
+                connections.add(((IdleConnection) iter.next()).connection);
+            }
+            idle.clear();
+            notifyAll();
+        }
+        destroy(connections);
+    }
+
+    // DataSource interface
+    //-------------------------------------------------------------------------
+
+    /**
+     * Returns a pooled connection which is returned to the pool when closed
+     */
+    public Connection getConnection() throws SQLException {
+        Connection connection = borrow();
+        return (Connection) Proxy.newProxyInstance(
+            PooledDataSource.class.getClassLoader(),
+            new Class[] { Connection.class },
+            new PooledConnection(connection));
+    }
+
+    /**
+     * Always throws a SQLException. All the pooled connections use the
+     * same user.
+     */
+    public Connection getConnection(String username, String password)
+        throws SQLException {
+        throw new SQLException(Resources.getMessage("NOT_SUPPORTED"));
+    }
+
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    public <T> T unwrap(Class<T> tClass) throws SQLException {
+        if (tClass.isInstance(this)) {
+            return tClass.cast(this);
+        }
+        throw new SQLException(Resources.getMessage("NOT_SUPPORTED"));
+    }
+
+    public boolean isWrapperFor(Class<?> aClass) throws SQLException {
+        return aClass.isInstance(this);
+    }
+
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Takes a connection from the pool, creating a new one if there are
+     * none idle, waiting if too many are handed out already.
+     */
+    protected Connection borrow() throws SQLException {
+        while (true) {
+            Connection connection = null;
+            List expired = new ArrayList();
+            try {
+                synchronized (this) {
+                    if (closed) {
+                        throw new SQLException("The connection pool has been closed");
+                    }
+                    removeExpired(expired);
+                    if (idle.isEmpty() && activeCount >= maxActive) {
+                        waitForConnection();
+                    }
+                    if (!idle.isEmpty()) {
+                        connection = ((IdleConnection) idle.removeLast()).connection;
+                    }
+                    activeCount++;
+                    borrowedCount++;
+                }
+            }
+            finally {
+                destroy(expired);
+            }
+
+            if (connection == null) {
+                try {
+                    connection = dataSource.getConnection();
+                }
+                catch (SQLException e) {
+                    release();
+                    throw e;
+                }
+                catch (RuntimeException e) {
+                    release();
+                    throw e;
+                }
+                synchronized (this) {
+                    createdCount++;
+                }
+                return connection;
+            }
+            if (isValid(connection)) {
+                return connection;
+            }
+            release();
+            destroy(connection);
+        }
+    }
+
+    /**
+     * Returns a connection to the pool once it has been closed by its user.
+     */
+    protected void giveBack(Connection connection) {
+        boolean reusable = true;
+        try {
+            if (connection.isClosed()) {
+                reusable = false;
+            }
+            else if (!connection.getAutoCommit()) {
+                // don't leave an unfinished transaction for the next user
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        }
+        catch (SQLException e) {
+            log.warn("Discarding connection which could not be reset: " + e, e);
+            reusable = false;
+        }
+
+        List expired = new ArrayList();
+        synchronized (this) {
+            activeCount--;
+            if (reusable && !closed && idle.size() < maxIdle) {
+                idle.addLast(new IdleConnection(connection, System.currentTimeMillis()));
+                connection = null;
+            }
+            removeExpired(expired);
+            notifyAll();
+        }
+        if (connection != null) {
+            expired.add(connection);
+        }
+        destroy(expired);
+    }
+
+    /**
+     * Waits until a connection may be handed out.
+     * Must be called while synchronized on this pool.
+     */
+    private void waitForConnection() throws SQLException {
+        waitCount++;
+        long deadline = System.currentTimeMillis() + maxWait;
+        try {
+            while (idle.isEmpty() && activeCount >= maxActive && !closed) {
+                if (maxWait <= 0) {
+                    wait();
+                }
+                else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        timeoutCount++;
+                        throw new SQLException(
+                            "Timed out waiting " + maxWait + " ms for a pooled connection");
+                    }
+                    wait(remaining);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled connection", e);
+        }
+        if (closed) {
+            throw new SQLException("The connection pool has been closed");
+        }
+    }
+
+    /**
+     * Moves the connections which have been idle for too long to the given list.
+     * Must be called while synchronized on this pool.
+     */
+    private void removeExpired(List expired) {
+        if (idleTimeout <= 0) {
+            return;
+        }
+        long oldest = System.currentTimeMillis() - idleTimeout;
+        while (!idle.isEmpty()) {
+            IdleConnection first = (IdleConnection) idle.getFirst();
+            if (first.since > oldest) {
+                break;
+            }
+            idle.removeFirst();
+            expired.add(first.connection);
+        }
+    }
+
+    /**
+     * Frees the slot of a connection which has not been handed out
+     */
+    private synchronized void release() {
+        activeCount--;
+        notifyAll();
+    }
+
+    /**
+     * @return whether the given idle connection may be handed out
+     */
+    private boolean isValid(Connection connection) {
+        String query = getValidationQuery();
+        try {
+            if (connection.isClosed()) {
+                return false;
+            }
+            if (query != null) {
+                Statement statement = connection.createStatement();
+                try {
+                    statement.executeQuery(query).close();
+                }
+                finally {
+                    statement.close();
+                }
+            }
+            return true;
+        }
+        catch (SQLException e) {
+            log.debug("Discarding invalid connection: " + e, e);
+            return false;
+        }
+    }
+
+    private void destroy(List connections) {
+        for (Iterator iter = connections.iterator(); iter.hasNext(); ) {
+            destroy((Connection) iter.next());
+        }
+    }
+
+    private void destroy(Connection connection) {
+        synchronized (this) {
+            destroyedCount++;
+        }
+        try {
+            connection.close();
+        }
+        catch (SQLException e) {
+            log.debug("Caught exception while closing connection: " + e, e);
+        }
+    }
+
+    /**
+     * A connection in the pool and the time it was returned
+     */
+    private static final class IdleConnection {
+        final Connection connection;
+        final long since;
+
+        IdleConnection(Connection connection, long since) {
+            this.connection = connection;
+            this.since = since;
+        }
+    }
+
+    /**
+     * The handler of the connections handed out which returns the
+     * connection to the pool when it is closed
+     */
+    private final class PooledConnection implements InvocationHandler {
+        private Connection connection;
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close") && method.getParameterTypes().length == 0) {
+                Connection pooled;
+                synchronized (this) {
+                    pooled = connection;
+                    connection = null;
+                }
+                if (pooled != null) {
+                    giveBack(pooled);
+                }
+                return null;
+            }
+            if (name.equals("isClosed") && method.getParameterTypes().length == 0) {
+                Connection pooled = getConnection();
+                return Boolean.valueOf(pooled == null || pooled.isClosed());
+            }
+            if (name.equals("equals") && method.getParameterTypes().length == 1) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if (name.equals("hashCode") && method.getParameterTypes().length == 0) {
+                return new Integer(System.identityHashCode(proxy));
+            }
+            if (name.equals("toString") && method.getParameterTypes().length == 0) {
+                return "PooledConnection[" + getConnection() + "]";
+            }
+
+            Connection pooled = getConnection();
+            if (pooled == null) {
+                throw new SQLException("The connection has been closed");
+            }
+            try {
+                return wrap(method.invoke(pooled, args), method, proxy, proxy);
+            }
+            catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+
+        private synchronized Connection getConnection() {
+            return connection;
+        }
+    }
+
+    /**
+     * Wraps the statements, result sets and meta data obtained from a pooled
+     * connection so that they refer back to the pooled connection rather
+     * than the connection in the pool
+     *
+     * @param connection the pooled connection proxy
+     * @param owner the proxy of the object the value was obtained from
+     */
+    private static Object wrap(Object value, Method method, Object connection, Object owner) {
+        Class type = method.getReturnType();
+        if (value == null
+            || !(type == Statement.class || type == PreparedStatement.class
+                 || type == CallableStatement.class || type == ResultSet.class
+                 || type == DatabaseMetaData.class)) {
+            return value;
+        }
+        return Proxy.newProxyInstance(
+            PooledDataSource.class.getClassLoader(),
+            new Class[] { type },
+            new PooledChild(value, connection, owner));
+    }
+
+    /**
+     * The handler of the objects obtained from a pooled connection which
+     * returns the pooled connection and its wrapped statements instead of
+     * the underlying ones
+     */
+    private static final class PooledChild implements InvocationHandler {
+        private final Object target;
+        private final Object connection;
+        private final Object owner;
+
+        PooledChild(Object target, Object connection, Object owner) {
+            this.target = target;
+            this.connection = connection;
+            this.owner = owner;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (method.getParameterTypes().length == 0) {
+                if (name.equals("getConnection")) {
+                    return connection;
+                }
+                if (name.equals("getStatement")) {
+                    // the statement a result set came from, or null for meta data
+                    return (owner instanceof Statement) ? owner : null;
+                }
+                if (name.equals("hashCode")) {
+                    return new Integer(System.identityHashCode(proxy));
+                }
+                if (name.equals("toString")) {
+                    return "Pooled[" + target + "]";
+                }
+            }
+            if (name.equals("equals") && method.getParameterTypes().length == 1) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            try {
+                return wrap(method.invoke(target, args), method, connection, proxy);
+            }
+            catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
@@ -26,6 +26,7 @@ import java.sql.Statement;
 import javax.servlet.jsp.jstl.sql.Result;
 
 import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.MissingAttributeException;
 import org.apache.commons.jelly.XMLOutput;
 import org.apache.commons.jelly.tags.Resources;
 import org.apache.commons.logging.Log;
@@ -52,11 +53,14 @@ public class QueryTag extends SqlTagSupport {
     protected int maxRows = -1;
     protected boolean maxRowsSpecified;
     protected int startRow;
+    protected int fetchSize;
+    protected String rowVar;
 
     /*
      * Instance variables that are not for attributes
      */
     private Connection conn;
+    private boolean iterating;
 
     //*********************************************************************
     // Constructor and initialization
@@ -84,6 +88,38 @@ public class QueryTag extends SqlTagSupport {
         this.maxRowsSpecified = true;
     }
 
+    /**
+     * Gives the JDBC driver a hint of the number of rows which should be
+     * fetched from the database at a time.
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * If specified the rows are not read into a <code>Result</code>. Instead
+     * the body of this tag is invoked for each row as it is read, with the
+     * row exported as a {@link RowView} under this variable name. The same
+     * RowView is reused for every row. The statement must be given by the
+     * <code>sql</code> attribute and the ResultSet is closed when the
+     * iteration ends.
+     */
+    public void setRowVar(String rowVar) {
+        this.rowVar = rowVar;
+    }
+
+    /**
+     * Nested parameters must be known before the rows are iterated over,
+     * so they are not allowed in the body which is invoked for each row.
+     */
+    public void addSQLParameter(Object o) {
+        if (iterating) {
+            throw new IllegalStateException(
+                "Parameters cannot be nested in a query which iterates over its rows");
+        }
+        super.addSQLParameter(o);
+    }
+
     //*********************************************************************
     // Tag logic
 
@@ -141,6 +177,10 @@ public class QueryTag extends SqlTagSupport {
             if (sql != null) {
                 sqlStatement = sql;
             }
+            else if (rowVar != null) {
+                // the body is invoked for each row
+                throw new MissingAttributeException("sql");
+            }
             else {
                 sqlStatement = getBodyText();
             }
@@ -169,15 +209,26 @@ public class QueryTag extends SqlTagSupport {
                 PreparedStatement ps = conn.prepareStatement(sqlStatement);
                 statement = ps;
                 setParameters(ps);
+                if (fetchSize > 0) {
+                    ps.setFetchSize(fetchSize);
+                }
                 rs = ps.executeQuery();
             }
             else {
                 statement = conn.createStatement();
+                if (fetchSize > 0) {
+                    statement.setFetchSize(fetchSize);
+                }
                 rs = statement.executeQuery(sqlStatement);
             }
 
-            result = new ResultImpl(rs, startRow, maxRows);
-            context.setVariable(var, result);
+            if (rowVar != null) {
+                iterateRows(rs, output);
+            }
+            else {
+                result = new ResultImpl(rs, startRow, maxRows);
+                context.setVariable(var, result);
+            }
 
             // always close the result set first since it may be closed by
             // JDBC 3 when closing statements
@@ -223,4 +274,34 @@ public class QueryTag extends SqlTagSupport {
             clearParameters();
         }
     }
+
+    /**
+     * Invokes the body for each row of the ResultSet, starting at startRow
+     * and stopping after maxRows rows.
+     */
+    protected void iterateRows(ResultSet rs, XMLOutput output) throws SQLException, JellyTagException {
+        RowView row = new RowView(rs.getMetaData());
+
+        // Throw away all rows upto startRow
+        for (int i = 0; i < startRow; i++) {
+            if (!rs.next()) {
+                return;
+            }
+        }
+
+        int processedRows = 0;
+        iterating = true;
+        try {
+            while ((maxRows == -1 || processedRows < maxRows) && rs.next()) {
+                row.read(rs);
+                context.setVariable(rowVar, row);
+                invokeBody(output);
+                processedRows++;
+            }
+        }
+        finally {
+            iterating = false;
+            context.removeVariable(rowVar);
+        }
+    }
 }
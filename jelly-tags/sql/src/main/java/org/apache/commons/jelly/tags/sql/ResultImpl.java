@@ -27,6 +27,13 @@ import javax.servlet.jsp.jstl.sql.Result;
  * returning an array of <tt>Row</tt> objects containing a <tt>Column</tt>
  * instance for each column in the row.</p>
  *
+ * <p>Each row is stored once as an <tt>Object[]</tt>. The case insensitive
+ * column name index is computed once per result and shared by the
+ * {@link RowView}s returned by {@link #getRows()}, which are read only views
+ * of those arrays. The arrays returned by <tt>getRows()</tt> and
+ * <tt>getRowsByIndex()</tt> are created on first use and shared by later
+ * calls, so they should not be modified.</p>
+ *
  * <p>Note -- this is a private copy for the RI to avoid making the
  * corresponding class in javax.servlet.* public.</p>
  *
@@ -35,11 +42,17 @@ import javax.servlet.jsp.jstl.sql.Result;
  */
 
 public class ResultImpl implements Result {
-    private List rowMap;
     private List rowByIndex;
     private String[] columnNames;
+    private SortedMap columnIndexes;
     private boolean isLimited;
 
+    /** the views of the rows, created lazily */
+    private SortedMap[] rows;
+
+    /** the rows as an array, created lazily */
+    private Object[][] rowsByIndex;
+
     /**
      * This constructor reads the ResultSet and saves a cached
      * copy.
@@ -53,7 +66,6 @@ public class ResultImpl implements Result {
     public ResultImpl(ResultSet rs, int startRow, int maxRows)
         throws SQLException {
 
-        rowMap = new ArrayList();
         rowByIndex = new ArrayList();
 
         ResultSetMetaData rsmd = rs.getMetaData();
@@ -64,6 +76,7 @@ public class ResultImpl implements Result {
         for (int i = 1; i <= noOfColumns; i++) {
             columnNames[i-1] = rsmd.getColumnName(i);
         }
+        columnIndexes = RowView.createColumnIndexes(columnNames);
 
         // Throw away all rows upto startRow
         for (int i = 0; i < startRow; i++) {
@@ -78,8 +91,6 @@ public class ResultImpl implements Result {
                 break;
             }
             Object[] columns = new Object[noOfColumns];
-            SortedMap columnMap =
-                new TreeMap(String.CASE_INSENSITIVE_ORDER);
 
             // JDBC uses 1 as the lowest index!
             for (int i = 1; i <= noOfColumns; i++) {
@@ -88,9 +99,7 @@ public class ResultImpl implements Result {
                     value = null;
                 }
                 columns[i-1] = value;
-                columnMap.put(columnNames[i-1], value);
             }
-            rowMap.add(columnMap);
             rowByIndex.add(columns);
             processedRows++;
         }
@@ -104,8 +113,7 @@ public class ResultImpl implements Result {
      */
     public ResultImpl(List listOfMaps) {
 
-        rowMap = new ArrayList();
-        rowByIndex = new ArrayList();
+        rowByIndex = new ArrayList(listOfMaps.size());
         isLimited = false;
 
         // lets build up a Set of all the unique column names
@@ -122,22 +130,16 @@ public class ResultImpl implements Result {
         for (Iterator iter = keySet.iterator(); iter.hasNext(); i++ ) {
             columnNames[i] = (String) iter.next();
         }
+        columnIndexes = RowView.createColumnIndexes(columnNames);
 
         // Now add each row to the result set
         for (Iterator iter = listOfMaps.iterator(); iter.hasNext(); ) {
             Map row = (Map) iter.next();
 
             Object[] columns = new Object[noOfColumns];
-            SortedMap columnMap =
-                new TreeMap(String.CASE_INSENSITIVE_ORDER);
-
             for (i = 0; i < noOfColumns; i++) {
-                String columnName = columnNames[i];
-                Object value = row.get(columnName);
-                columns[i] = value;
-                columnMap.put(columnName, value);
+                columns[i] = row.get(columnNames[i]);
             }
-            rowMap.add(columnMap);
             rowByIndex.add(columns);
         }
     }
@@ -152,12 +154,18 @@ public class ResultImpl implements Result {
      * @return an array of Map, or null if there are no rows
      */
     public SortedMap[] getRows() {
-        if (rowMap == null) {
+        if (rowByIndex == null) {
             return null;
         }
 
-        //should just be able to return SortedMap[] object
-        return (SortedMap []) rowMap.toArray(new SortedMap[0]);
+        if (rows == null) {
+            SortedMap[] answer = new SortedMap[rowByIndex.size()];
+            for (int i = 0; i < answer.length; i++) {
+                answer[i] = new RowView(columnNames, columnIndexes, (Object[]) rowByIndex.get(i));
+            }
+            rows = answer;
+        }
+        return rows;
     }
 
 
@@ -173,8 +181,10 @@ public class ResultImpl implements Result {
             return null;
         }
 
-        //should just be able to return Object[][] object
-        return (Object [][])rowByIndex.toArray(new Object[0][0]);
+        if (rowsByIndex == null) {
+            rowsByIndex = (Object [][])rowByIndex.toArray(new Object[rowByIndex.size()][]);
+        }
+        return rowsByIndex;
     }
 
     /**
@@ -195,10 +205,10 @@ public class ResultImpl implements Result {
      *    not be initialized due to SQLExceptions
      */
     public int getRowCount() {
-        if (rowMap == null) {
+        if (rowByIndex == null) {
             return -1;
         }
-        return rowMap.size();
+        return rowByIndex.size();
     }
 
     /**
@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * <p>A read only <code>SortedMap</code> view of a row of values, keyed by
+ * the case insensitive column names.</p>
+ *
+ * <p>The column names are resolved to indexes once per query and shared by
+ * all the rows. When streaming a <code>ResultSet</code> the same instance
+ * is refilled for every row, so no objects are created per row other than
+ * the column values themselves. A row which must outlive the current
+ * iteration should then be copied, for example into a <code>HashMap</code>.
+ * {@link ResultImpl} uses one view per row over the row's own values.</p>
+ *
+ * @version $Revision$
+ */
+public class RowView extends AbstractMap implements SortedMap {
+
+    /** the column names in the order of the ResultSet */
+    private final String[] columnNames;
+
+    /** the column indexes keyed by their case insensitive names */
+    private final SortedMap columnIndexes;
+
+    /** the values of the current row */
+    private final Object[] values;
+
+    /** the entries of this map, created lazily */
+    private Set entrySet;
+
+    public RowView(ResultSetMetaData metaData) throws SQLException {
+        int noOfColumns = metaData.getColumnCount();
+        columnNames = new String[noOfColumns];
+        for (int i = 0; i < noOfColumns; i++) {
+            // JDBC uses 1 as the lowest index!
+            columnNames[i] = metaData.getColumnName(i + 1);
+        }
+        columnIndexes = createColumnIndexes(columnNames);
+        values = new Object[noOfColumns];
+    }
+
+    /**
+     * Creates a view of the given values sharing the column names and
+     * indexes of other rows
+     */
+    RowView(String[] columnNames, SortedMap columnIndexes, Object[] values) {
+        this.columnNames = columnNames;
+        this.columnIndexes = columnIndexes;
+        this.values = values;
+    }
+
+    /**
+     * @return the indexes of the given column names keyed by their case
+     * insensitive names
+     */
+    static SortedMap createColumnIndexes(String[] columnNames) {
+        SortedMap answer = new TreeMap(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < columnNames.length; i++) {
+            // the last of several columns with the same name wins
+            answer.put(columnNames[i], new Integer(i));
+        }
+        return answer;
+    }
+
+    /**
+     * Reads the values of the current row of the given ResultSet
+     */
+    public void read(ResultSet rs) throws SQLException {
+        for (int i = 0; i < values.length; i++) {
+            Object value = rs.getObject(i + 1);
+            if (rs.wasNull()) {
+                value = null;
+            }
+            values[i] = value;
+        }
+    }
+
+    /**
+     * @return the names of the columns in the order of the ResultSet
+     */
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * @return the value of the column at the given index, the first column
+     * having index 0
+     */
+    public Object get(int index) {
+        return values[index];
+    }
+
+    // Map interface
+    //-------------------------------------------------------------------------
+    public Object get(Object key) {
+        int index = indexOf(key);
+        return (index >= 0) ? values[index] : null;
+    }
+
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    public int size() {
+        return columnIndexes.size();
+    }
+
+    public Comparator comparator() {
+        return columnIndexes.comparator();
+    }
+
+    public Object firstKey() {
+        return columnIndexes.firstKey();
+    }
+
+    public Object lastKey() {
+        return columnIndexes.lastKey();
+    }
+
+    public SortedMap subMap(Object fromKey, Object toKey) {
+        return copy().subMap(fromKey, toKey);
+    }
+
+    public SortedMap headMap(Object toKey) {
+        return copy().headMap(toKey);
+    }
+
+    public SortedMap tailMap(Object fromKey) {
+        return copy().tailMap(fromKey);
+    }
+
+    public Set entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet() {
+                public int size() {
+                    return columnIndexes.size();
+                }
+
+                public Iterator iterator() {
+                    final Iterator names = columnIndexes.entrySet().iterator();
+                    return new Iterator() {
+                        public boolean hasNext() {
+                            return names.hasNext();
+                        }
+
+                        public Object next() {
+                            if (!names.hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry entry = (Map.Entry) names.next();
+                            int index = ((Integer) entry.getValue()).intValue();
+                            return new SimpleImmutableEntry(entry.getKey(), values[index]);
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return a copy of the current values of this row
+     */
+    private SortedMap copy() {
+        SortedMap answer = new TreeMap(columnIndexes.comparator());
+        answer.putAll(this);
+        return answer;
+    }
+
+    /**
+     * @return the index of the column with the given name or -1
+     */
+    private int indexOf(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        Integer index = (Integer) columnIndexes.get(key);
+        return (index != null) ? index.intValue() : -1;
+    }
+}
@@ -44,6 +44,9 @@ public class SetDataSourceTag extends TagSupport {
     protected String driverClassName;
     protected String userName;
     protected String password;
+    protected boolean pooled;
+    protected int maxActive;
+    protected String validationQuery;
 
     private String scope = "page";
     private String var;
@@ -91,6 +94,31 @@ public class SetDataSourceTag extends TagSupport {
         this.password = password;
     }
 
+    /**
+     * Sets whether the connections should be pooled. The pool is shared by
+     * all the DataSources with the same url, driver, user, password,
+     * maxActive and validationQuery.
+     * Pooling is also enabled by the
+     * <code>org.apache.commons.jelly.sql.pooling</code> variable.
+     */
+    public void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Sets the maximum number of pooled connections in use at once
+     */
+    public void setMaxActive(int maxActive) {
+        this.maxActive = maxActive;
+    }
+
+    /**
+     * Sets the query used to validate pooled connections before they are reused
+     */
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
     //*********************************************************************
     // Tag logic
 
@@ -121,6 +149,11 @@ public class SetDataSourceTag extends TagSupport {
             dsw.setUserName(userName);
             dsw.setPassword(password);
             ds = (DataSource) dsw;
+
+            if (pooled || DataSourceUtil.isPoolingEnabled(context)) {
+                String[] settings = { jdbcURL, driverClassName, userName, password };
+                ds = DataSourceUtil.getPooledDataSource(settings, dsw, maxActive, validationQuery);
+            }
         }
 
         if (var != null) {
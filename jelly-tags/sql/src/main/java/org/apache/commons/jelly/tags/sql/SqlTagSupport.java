@@ -27,6 +27,7 @@ import javax.servlet.jsp.jstl.sql.SQLExecutionTag;
 import javax.sql.DataSource;
 
 import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.Tag;
 import org.apache.commons.jelly.TagSupport;
 import org.apache.commons.jelly.tags.Resources;
 
@@ -137,9 +138,17 @@ public abstract class SqlTagSupport extends TagSupport implements SQLExecutionTa
         Connection conn = null;
         isPartOfTransaction = false;
 
-        TransactionTag parent =
-            (TransactionTag) findAncestorWithClass(TransactionTag.class);
-        if (parent != null) {
+        BatchTag batch = findBatch();
+        TransactionTag parent = (batch == null)
+            ? (TransactionTag) findAncestorWithClass(TransactionTag.class) : null;
+        if (batch != null) {
+            if (dataSourceSpecified) {
+                throw new JellyTagException(Resources.getMessage("ERROR_NESTED_DATASOURCE"));
+            }
+            conn = batch.getSharedConnection();
+            isPartOfTransaction = true;
+        }
+        else if (parent != null) {
             if (dataSourceSpecified) {
                 throw new JellyTagException(Resources.getMessage("ERROR_NESTED_DATASOURCE"));
             }
@@ -163,6 +172,22 @@ public abstract class SqlTagSupport extends TagSupport implements SQLExecutionTa
         return conn;
     }
 
+    /**
+     * @return the nearest enclosing &lt;batch&gt; tag or null if there is none
+     * or a &lt;transaction&gt; tag is nested inside it
+     */
+    protected BatchTag findBatch() {
+        for (Tag tag = getParent(); tag != null; tag = tag.getParent()) {
+            if (tag instanceof BatchTag) {
+                return (BatchTag) tag;
+            }
+            if (tag instanceof TransactionTag) {
+                return null;
+            }
+        }
+        return null;
+    }
+
     protected void setParameters(PreparedStatement ps)
         throws SQLException {
         if (parameters != null) {
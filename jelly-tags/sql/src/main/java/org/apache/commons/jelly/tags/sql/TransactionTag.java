@@ -88,6 +88,17 @@ public class TransactionTag extends TagSupport {
 
         DataSource dataSource = DataSourceUtil.getDataSource(rawDataSource, context);
 
+        // updates batched before this tag are executed first to keep them in order
+        BatchTag batch = (BatchTag) findAncestorWithClass(BatchTag.class);
+        if (batch != null) {
+            try {
+                batch.executeBatch();
+            }
+            catch (SQLException e) {
+                throw new JellyTagException(e.getMessage(), e);
+            }
+        }
+
         try {
             conn = dataSource.getConnection();
             origIsolation = conn.getTransactionIsolation();
@@ -68,6 +68,12 @@ public class UpdateTag extends SqlTagSupport {
      * named <code>javax.servlet.jsp.jstl.sql.dataSource</code>.
      */
     public void doTag(XMLOutput output) throws JellyTagException {
+        BatchTag batch = findBatch();
+        if (batch != null) {
+            addToBatch(batch);
+            return;
+        }
+
         try {
             conn = getConnection();
         }
@@ -136,4 +142,37 @@ public class UpdateTag extends SqlTagSupport {
             clearParameters();
         }
     }
+
+    /**
+     * Adds this update to the batch of the given enclosing &lt;batch&gt; tag
+     * rather than executing it immediately
+     */
+    protected void addToBatch(BatchTag batch) throws JellyTagException {
+        if (dataSourceSpecified) {
+            throw new JellyTagException(Resources.getMessage("ERROR_NESTED_DATASOURCE"));
+        }
+
+        String sqlStatement = null;
+        if (sql != null) {
+            sqlStatement = sql;
+        }
+        else {
+            sqlStatement = getBodyText();
+        }
+        if (sqlStatement == null || sqlStatement.trim().length() == 0) {
+            throw new JellyTagException(Resources.getMessage("SQL_NO_STATEMENT"));
+        }
+
+        try {
+            PreparedStatement ps = batch.prepareStatement(sqlStatement);
+            setParameters(ps);
+            batch.addBatch(ps);
+        }
+        catch (SQLException e) {
+            throw new JellyTagException(sqlStatement + ": " + e.getMessage(), e);
+        }
+        finally {
+            clearParameters();
+        }
+    }
 }
@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+/**
+ * A DataSource used by the tests which answers every query with
+ * {@link #getRowCount()} rows of ID and NAME columns, records the queries
+ * and counts the connections, statements and result sets which are still open.
+ *
+ * @version $Revision$
+ */
+public class MockDataSource implements InvocationHandler {
+
+    private static final String[] COLUMNS = { "ID", "NAME" };
+
+    /** the DataSource proxy */
+    private final Object dataSource;
+
+    /** the number of rows returned by each query */
+    private int rowCount = 5;
+
+    private int openConnections;
+    private int openStatements;
+    private int openResultSets;
+    private int createdConnections;
+
+    /** the queries executed */
+    private final List queries = new ArrayList();
+
+    public MockDataSource() {
+        dataSource = proxy(DataSource.class, this);
+    }
+
+    /**
+     * @return the DataSource to pass to the sql tags
+     */
+    public Object getDataSource() {
+        return dataSource;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public void setRowCount(int rowCount) {
+        this.rowCount = rowCount;
+    }
+
+    public synchronized int getOpenConnections() {
+        return openConnections;
+    }
+
+    public synchronized int getOpenStatements() {
+        return openStatements;
+    }
+
+    public synchronized int getOpenResultSets() {
+        return openResultSets;
+    }
+
+    public synchronized int getCreatedConnections() {
+        return createdConnections;
+    }
+
+    public synchronized List getQueries() {
+        return new ArrayList(queries);
+    }
+
+    // DataSource
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("getConnection")) {
+            synchronized (this) {
+                openConnections++;
+                createdConnections++;
+            }
+            return proxy(Connection.class, new ConnectionHandler());
+        }
+        throw new UnsupportedOperationException(method.getName());
+    }
+
+    private Object proxy(Class type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { type }, handler);
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+        private boolean closed;
+
+        public Object invoke(final Object proxy, Method method, Object[] args) throws SQLException {
+            String name = method.getName();
+            if (name.equals("isClosed")) {
+                return Boolean.valueOf(closed);
+            }
+            if (closed) {
+                throw new SQLException("The connection has been closed");
+            }
+            if (name.equals("getAutoCommit")) {
+                return Boolean.TRUE;
+            }
+            if (name.equals("getMetaData")) {
+                return proxy(DatabaseMetaData.class, new InvocationHandler() {
+                    public Object invoke(Object metaData, Method method, Object[] args) {
+                        if (method.getName().equals("getConnection")) {
+                            return proxy;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+            }
+            if (name.equals("createStatement") || name.equals("prepareStatement")) {
+                synchronized (MockDataSource.this) {
+                    openStatements++;
+                }
+                Class type = name.equals("createStatement")
+                    ? Statement.class : PreparedStatement.class;
+                return proxy(type, new StatementHandler(proxy));
+            }
+            if (name.equals("close")) {
+                closed = true;
+                synchronized (MockDataSource.this) {
+                    openConnections--;
+                }
+                return null;
+            }
+            throw new UnsupportedOperationException(name);
+        }
+    }
+
+    private class StatementHandler implements InvocationHandler {
+        private final Object connection;
+
+        StatementHandler(Object connection) {
+            this.connection = connection;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getConnection")) {
+                return connection;
+            }
+            if (name.equals("executeQuery")) {
+                synchronized (MockDataSource.this) {
+                    openResultSets++;
+                    if (args != null) {
+                        queries.add(args[0]);
+                    }
+                }
+                return proxy(ResultSet.class, new ResultSetHandler(proxy));
+            }
+            if (name.startsWith("set")) {
+                return null;
+            }
+            if (name.equals("close")) {
+                synchronized (MockDataSource.this) {
+                    openStatements--;
+                }
+                return null;
+            }
+            throw new UnsupportedOperationException(name);
+        }
+    }
+
+    private class ResultSetHandler implements InvocationHandler {
+        private final Object statement;
+        private int row;
+
+        ResultSetHandler(Object statement) {
+            this.statement = statement;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getStatement")) {
+                return statement;
+            }
+            if (name.equals("next")) {
+                return Boolean.valueOf(++row <= rowCount);
+            }
+            if (name.equals("getObject")) {
+                int column = ((Integer) args[0]).intValue();
+                return column == 1 ? (Object) new Integer(row) : "name" + row;
+            }
+            if (name.equals("wasNull")) {
+                return Boolean.FALSE;
+            }
+            if (name.equals("getMetaData")) {
+                return proxy(ResultSetMetaData.class, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getColumnCount")) {
+                            return new Integer(COLUMNS.length);
+                        }
+                        if (method.getName().equals("getColumnName")) {
+                            return COLUMNS[((Integer) args[0]).intValue() - 1];
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+            }
+            if (name.equals("close")) {
+                synchronized (MockDataSource.this) {
+                    openResultSets--;
+                }
+                return null;
+            }
+            throw new UnsupportedOperationException(name);
+        }
+    }
+}
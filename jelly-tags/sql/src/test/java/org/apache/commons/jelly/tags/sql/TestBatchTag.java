@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyException;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.InputSource;
+
+/**
+ * Tests that updates nested in a &lt;batch&gt; are executed as JDBC batches
+ * using cached statements, unless they are nested in a &lt;transaction&gt;
+ * inside the batch.
+ *
+ * @version $Revision$
+ */
+public class TestBatchTag extends TestCase {
+
+    /** the JDBC calls made by the script */
+    private List calls = new ArrayList();
+
+    public TestBatchTag(String testName) {
+        super(testName);
+    }
+
+    public void testBatchedUpdates() throws Exception {
+        String text =
+            "<j:jelly xmlns:j='jelly:core' xmlns:sql='jelly:sql'>"
+            + "<sql:batch dataSource='${ds}' size='2' var='count'>"
+            + "<j:forEach var='i' begin='1' end='5'>"
+            + "<sql:update>insert into t values (?)<sql:param value='${i}'/></sql:update>"
+            + "</j:forEach>"
+            + "<sql:update sql='delete from u'/>"
+            + "</sql:batch>"
+            + "</j:jelly>";
+
+        JellyContext context = new JellyContext();
+        context.setVariable("ds", createDataSource());
+        Script script = context.compileScript(new InputSource(new StringReader(text)));
+        script.run(context, XMLOutput.createDummyXMLOutput());
+
+        assertEquals(new Integer(6), context.getVariable("count"));
+        assertEquals(
+            "[prepare insert into t values (?), set 1, add, set 2, add, execute 2,"
+            + " set 3, add, set 4, add, execute 2, set 5, add, execute 1,"
+            + " prepare delete from u, add, execute 1,"
+            + " close statement, close statement, close connection]",
+            calls.toString());
+    }
+
+    public void testFailureDiscardsPendingUpdates() throws Exception {
+        String text =
+            "<j:jelly xmlns:j='jelly:core' xmlns:sql='jelly:sql'>"
+            + "<sql:batch dataSource='${ds}' size='10'>"
+            + "<j:forEach var='i' begin='1' end='2'>"
+            + "<sql:update>insert into t values (?)<sql:param value='${i}'/></sql:update>"
+            + "</j:forEach>"
+            + "<j:new className='no.such.Class'/>"
+            + "</sql:batch>"
+            + "</j:jelly>";
+
+        JellyContext context = new JellyContext();
+        context.setVariable("ds", createDataSource());
+        Script script = context.compileScript(new InputSource(new StringReader(text)));
+        try {
+            script.run(context, XMLOutput.createDummyXMLOutput());
+            fail("the body should have failed");
+        }
+        catch (JellyException e) {
+            // expected
+        }
+
+        assertEquals(
+            "[prepare insert into t values (?), set 1, add, set 2, add,"
+            + " clear, close statement, close connection]",
+            calls.toString());
+    }
+
+    public void testTransactionInsideBatch() throws Exception {
+        String text =
+            "<j:jelly xmlns:j='jelly:core' xmlns:sql='jelly:sql'>"
+            + "<sql:batch dataSource='${ds}'>"
+            + "<sql:update sql='insert into t values (1)'/>"
+            + "<sql:transaction dataSource='${ds}'>"
+            + "<sql:update sql='delete from u' var='deleted'/>"
+            + "</sql:transaction>"
+            + "<sql:update sql='insert into t values (2)'/>"
+            + "</sql:batch>"
+            + "</j:jelly>";
+
+        JellyContext context = new JellyContext();
+        context.setVariable("ds", createDataSource());
+        Script script = context.compileScript(new InputSource(new StringReader(text)));
+        script.run(context, XMLOutput.createDummyXMLOutput());
+
+        // the update in the transaction is executed at once on the transaction's connection
+        assertEquals(new Integer(1), context.getVariable("deleted"));
+        assertEquals(
+            "[prepare insert into t values (1), add, execute 1,"
+            + " auto commit false, update delete from u, close statement,"
+            + " commit, auto commit true, close connection,"
+            + " prepare insert into t values (2), add, execute 1,"
+            + " close statement, close statement, close connection]",
+            calls.toString());
+    }
+
+    private DataSource createDataSource() {
+        final Connection connection = (Connection) proxy(Connection.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("prepareStatement")) {
+                    calls.add("prepare " + args[0]);
+                    return createStatement();
+                }
+                if (method.getName().equals("close")) {
+                    calls.add("close connection");
+                    return null;
+                }
+                if (method.getName().equals("createStatement")) {
+                    return createStatement();
+                }
+                if (method.getName().equals("getTransactionIsolation")) {
+                    return new Integer(Connection.TRANSACTION_READ_COMMITTED);
+                }
+                if (method.getName().equals("setAutoCommit")) {
+                    calls.add("auto commit " + args[0]);
+                    return null;
+                }
+                if (method.getName().equals("commit")) {
+                    calls.add("commit");
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        return (DataSource) proxy(DataSource.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getConnection")) {
+                    return connection;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private PreparedStatement createStatement() {
+        return (PreparedStatement) proxy(PreparedStatement.class, new InvocationHandler() {
+            private int batched;
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("setObject")) {
+                    calls.add("set " + args[1]);
+                    return null;
+                }
+                if (name.equals("addBatch")) {
+                    calls.add("add");
+                    batched++;
+                    return null;
+                }
+                if (name.equals("executeBatch")) {
+                    calls.add("execute " + batched);
+                    int[] counts = new int[batched];
+                    Arrays.fill(counts, 1);
+                    batched = 0;
+                    return counts;
+                }
+                if (name.equals("clearBatch")) {
+                    calls.add("clear");
+                    batched = 0;
+                    return null;
+                }
+                if (name.equals("executeUpdate")) {
+                    calls.add("update " + args[0]);
+                    return new Integer(1);
+                }
+                if (name.equals("close")) {
+                    calls.add("close statement");
+                    return null;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    private Object proxy(Class type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { type }, handler);
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.InputSource;
+
+/**
+ * Tests the connection pool against an in memory HSQLDB database.
+ * A {@link MockDataSource} is only used to count the statements and
+ * result sets which the pool leaves open.
+ *
+ * @version $Revision$
+ */
+public class TestPooledDataSource extends TestCase {
+
+    private static final String URL = "jdbc:hsqldb:.";
+    private static final String DRIVER = "org.hsqldb.jdbcDriver";
+    private static final String VALIDATION_QUERY =
+        "select count(*) from INFORMATION_SCHEMA.SYSTEM_USERS";
+
+    private PooledDataSource pool;
+
+    public TestPooledDataSource(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        DataSourceWrapper dataSource = new DataSourceWrapper();
+        dataSource.setDriverClassName(DRIVER);
+        dataSource.setJdbcURL(URL);
+        dataSource.setUserName("sa");
+        dataSource.setPassword("");
+        pool = new PooledDataSource(dataSource);
+        pool.setValidationQuery(VALIDATION_QUERY);
+
+        Connection connection = dataSource.getConnection();
+        try {
+            execute(connection, "create table pooled (id integer)");
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    protected void tearDown() throws Exception {
+        pool.close();
+        DataSourceUtil.closePools();
+
+        Connection connection = pool.getDataSource().getConnection();
+        try {
+            execute(connection, "drop table pooled");
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    public void testConnectionsAreReused() throws Exception {
+        Connection connection = pool.getConnection();
+        assertEquals(1, pool.getActiveCount());
+        execute(connection, "insert into pooled values (1)");
+        connection.close();
+        assertTrue(connection.isClosed());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+
+        try {
+            connection.createStatement();
+            fail("a closed connection should not be usable");
+        }
+        catch (SQLException e) {
+            // expected
+        }
+        // closing twice has no effect
+        connection.close();
+        assertEquals(1, pool.getIdleCount());
+
+        connection = pool.getConnection();
+        execute(connection, "insert into pooled values (2)");
+        assertEquals(2, count(connection));
+        connection.close();
+
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(2, pool.getBorrowedCount());
+        assertEquals(0, pool.getDestroyedCount());
+    }
+
+    public void testValidationQuery() throws Exception {
+        pool.getConnection().close();
+        pool.getConnection().close();
+        assertEquals(1, pool.getCreatedCount());
+
+        // a pooled connection which fails validation is replaced
+        pool.setValidationQuery("select * from no_such_table");
+        pool.getConnection().close();
+        assertEquals(2, pool.getCreatedCount());
+        assertEquals(1, pool.getDestroyedCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    public void testTransactionIsRolledBackOnReturn() throws Exception {
+        Connection connection = pool.getConnection();
+        connection.setAutoCommit(false);
+        execute(connection, "insert into pooled values (1)");
+        assertEquals(1, count(connection));
+        connection.close();
+
+        connection = pool.getConnection();
+        assertTrue(connection.getAutoCommit());
+        assertEquals(0, count(connection));
+        connection.close();
+        assertEquals(1, pool.getCreatedCount());
+    }
+
+    public void testPooledConnectionIsNotLeaked() throws Exception {
+        Connection connection = pool.getConnection();
+        Statement statement = connection.createStatement();
+        assertSame(connection, statement.getConnection());
+        ResultSet results = statement.executeQuery("select * from pooled");
+        assertSame(statement, results.getStatement());
+        assertSame(connection, results.getStatement().getConnection());
+        assertSame(connection, connection.prepareStatement("select * from pooled").getConnection());
+        assertSame(connection, connection.getMetaData().getConnection());
+        results.close();
+        statement.close();
+        connection.close();
+
+        // the connection in the pool cannot be closed through its statements
+        try {
+            statement.getConnection().createStatement();
+            fail("a closed connection should not be usable");
+        }
+        catch (SQLException e) {
+            // expected
+        }
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    public void testMaxActive() throws Exception {
+        pool.setMaxActive(1);
+        pool.setMaxWait(50);
+
+        Connection connection = pool.getConnection();
+        try {
+            pool.getConnection();
+            fail("only one connection may be handed out");
+        }
+        catch (SQLException e) {
+            // expected
+        }
+        assertEquals(1, pool.getWaitCount());
+        assertEquals(1, pool.getTimeoutCount());
+
+        connection.close();
+        connection = pool.getConnection();
+        connection.close();
+        assertEquals(1, pool.getCreatedCount());
+    }
+
+    public void testIdleConnectionsExpire() throws Exception {
+        pool.setIdleTimeout(1);
+        pool.getConnection().close();
+        Thread.sleep(20);
+        pool.getConnection().close();
+        assertEquals(2, pool.getCreatedCount());
+        assertEquals(1, pool.getDestroyedCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    public void testValidationLeavesNothingOpen() throws Exception {
+        MockDataSource database = new MockDataSource();
+        PooledDataSource mockPool = new PooledDataSource((DataSource) database.getDataSource());
+        try {
+            mockPool.setValidationQuery("select 1");
+            mockPool.getConnection().close();
+            // a new connection is not validated, a pooled one is
+            assertEquals(0, database.getQueries().size());
+            mockPool.getConnection().close();
+            assertEquals(Arrays.asList(new String[] { "select 1" }), database.getQueries());
+            assertEquals(0, database.getOpenStatements());
+            assertEquals(0, database.getOpenResultSets());
+            assertEquals(1, database.getOpenConnections());
+        }
+        finally {
+            mockPool.close();
+        }
+        assertEquals(0, database.getOpenConnections());
+    }
+
+    public void testPoolsAreSharedPerConnectionString() throws Exception {
+        String params = URL + "," + DRIVER + ",sa,";
+        JellyContext context = new JellyContext();
+        DataSource unpooled = DataSourceUtil.getDataSource(params, context);
+        assertTrue(unpooled instanceof DataSourceWrapper);
+
+        context.setVariable(DataSourceUtil.POOLING_VARIABLE, Boolean.TRUE);
+        DataSource first = DataSourceUtil.getDataSource(params, context);
+        assertTrue(first instanceof PooledDataSource);
+        DataSource second = DataSourceUtil.getDataSource(params, new JellyContext(context));
+        assertSame(first, second);
+
+        ((PooledDataSource) first).close();
+        DataSource third = DataSourceUtil.getDataSource(params, context);
+        assertNotSame(first, third);
+        assertEquals(1, DataSourceUtil.getPoolCount());
+
+        DataSourceUtil.closePools();
+        assertTrue(((PooledDataSource) third).isClosed());
+        assertEquals(0, DataSourceUtil.getPoolCount());
+    }
+
+    public void testPoolSettingsAreNotShared() throws Exception {
+        String attributes = " url='" + URL + "' driver='" + DRIVER + "' user='sa' password=''"
+            + " pooled='true'";
+        String text =
+            "<j:jelly xmlns:j='jelly:core' xmlns:sql='jelly:sql'>"
+            + "<sql:setDataSource var='small'" + attributes + " maxActive='1'/>"
+            + "<sql:setDataSource var='large'" + attributes + " maxActive='5'/>"
+            + "<sql:setDataSource var='again'" + attributes + " maxActive='1'/>"
+            + "<sql:setDataSource var='validated'" + attributes + " maxActive='1'"
+            + " validationQuery='" + VALIDATION_QUERY + "'/>"
+            + "</j:jelly>";
+        JellyContext context = new JellyContext();
+        Script script = context.compileScript(new InputSource(new StringReader(text)));
+        script.run(context, XMLOutput.createDummyXMLOutput());
+
+        PooledDataSource small = (PooledDataSource) context.getVariable("small");
+        PooledDataSource large = (PooledDataSource) context.getVariable("large");
+        PooledDataSource validated = (PooledDataSource) context.getVariable("validated");
+        assertSame(small, context.getVariable("again"));
+        assertNotSame(small, large);
+        assertNotSame(small, validated);
+        assertEquals(1, small.getMaxActive());
+        assertEquals(5, large.getMaxActive());
+        assertNull(small.getValidationQuery());
+        assertEquals(VALIDATION_QUERY, validated.getValidationQuery());
+
+        Connection connection = validated.getConnection();
+        assertEquals(0, count(connection));
+        connection.close();
+    }
+
+    private void execute(Connection connection, String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.executeUpdate(sql);
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    private int count(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet results = statement.executeQuery("select count(*) from pooled");
+            try {
+                assertTrue(results.next());
+                return results.getInt(1);
+            }
+            finally {
+                results.close();
+            }
+        }
+        finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the Map view of the current row of a ResultSet
+ *
+ * @version $Revision$
+ */
+public class TestRowView extends TestCase {
+
+    private static final String[] COLUMNS = { "ID", "Name" };
+
+    private Object[] currentRow;
+
+    public TestRowView(String testName) {
+        super(testName);
+    }
+
+    public void testRowsAreReadInPlace() throws Exception {
+        RowView row = new RowView(createMetaData());
+        ResultSet rs = createResultSet();
+
+        currentRow = new Object[] { "abc", "James" };
+        row.read(rs);
+        assertEquals("abc", row.get("id"));
+        assertEquals("James", row.get("NAME"));
+        assertEquals("James", row.get(1));
+        assertTrue(row.containsKey("Id"));
+        assertFalse(row.containsKey("unknown"));
+        assertNull(row.get("unknown"));
+        assertEquals(2, row.size());
+
+        Map copy = new HashMap(row);
+
+        currentRow = new Object[] { "def", null };
+        row.read(rs);
+        assertEquals("def", row.get("id"));
+        assertNull(row.get("name"));
+
+        // a copy keeps the values of the row it was taken from
+        assertEquals("abc", copy.get("ID"));
+        assertEquals("James", copy.get("Name"));
+    }
+
+    private ResultSetMetaData createMetaData() {
+        return (ResultSetMetaData) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] { ResultSetMetaData.class },
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("getColumnCount")) {
+                        return new Integer(COLUMNS.length);
+                    }
+                    if (method.getName().equals("getColumnName")) {
+                        return COLUMNS[((Integer) args[0]).intValue() - 1];
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    private ResultSet createResultSet() {
+        return (ResultSet) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] { ResultSet.class },
+            new InvocationHandler() {
+                private Object last;
+
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("getObject")) {
+                        last = currentRow[((Integer) args[0]).intValue() - 1];
+                        return last;
+                    }
+                    if (method.getName().equals("wasNull")) {
+                        return Boolean.valueOf(last == null);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
@@ -20,9 +20,12 @@ package org.apache.commons.jelly.tags.threads;
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.TagSupport;
 import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.util.WorkerPool;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Represents a group of threads. This is not the same as Java's thread groups.
@@ -30,6 +33,11 @@ import java.util.List;
  * are defined. Use this in conjunction with other tags like join to manipulate
  * a group of threads.
  *
+ * <p>The threads of a group can share an executor, see {@link ThreadTag}. If
+ * <code>join</code> is set the tag waits for all of its threads to finish,
+ * giving up with a {@link TimeoutException} once <code>timeout</code> has
+ * passed for the group as a whole.</p>
+ *
  * @author <a href="mailto:jason@jhorman.org">Jason Horman</a>
  */
 
@@ -38,9 +46,19 @@ public class GroupTag extends TagSupport {
     private String var = null;
     /** The thread list */
     private List threads = new ArrayList();
+    /** The executor the threads of the group run on */
+    private Executor executor = null;
+    /** Should the threads run on the worker pool of the context */
+    private boolean pooled = false;
+    /** Should the tag wait for its threads to finish */
+    private boolean join = false;
+    /** How long to wait for the whole group, if <= 0 wait until all are done */
+    private long timeout = -1;
 
     /** Child threads will add themselves and will then all be started together */
     public void doTag(XMLOutput output) throws JellyTagException {
+        // threads can only be started once, so each run makes a new group
+        threads = new ArrayList();
         invokeBody(output);
 
         // store the group in a jelly variable
@@ -53,6 +71,27 @@ public class GroupTag extends TagSupport {
             Thread thread = (Thread) threads.get(i);
             thread.start();
         }
+
+        if (join) {
+            if (!JellyThread.awaitUninterruptibly(getCompletion(threads), timeout > 0 ? timeout : -1)) {
+                throw new TimeoutException("max wait time exceeded");
+            }
+        }
+    }
+
+    /**
+     * Returns a future which completes once all of the {@link JellyThread}s
+     * in the given list are done. Other threads in the list are ignored.
+     */
+    public static CompletableFuture getCompletion(List threads) {
+        List futures = new ArrayList(threads.size());
+        for (int i = 0; i < threads.size(); i++) {
+            Object thread = threads.get(i);
+            if (thread instanceof JellyThread) {
+                futures.add(((JellyThread) thread).getStatus().getCompletion());
+            }
+        }
+        return CompletableFuture.allOf((CompletableFuture[]) futures.toArray(new CompletableFuture[futures.size()]));
     }
 
     /** Add a thread to the thread group list */
@@ -69,4 +108,46 @@ public class GroupTag extends TagSupport {
     public void setVar(String var) {
         this.var = var;
     }
+
+    /**
+     * @return the executor the threads of this group run on, or null if each
+     * thread is started on its own. Like a single pooled thread, a pooled
+     * group started by one of the pool's workers starts each thread on its own.
+     */
+    public Executor getExecutor() {
+        if (executor == null && pooled) {
+            WorkerPool pool = context.getWorkerPool();
+            if (pool != null && !pool.isWorkerThread()) {
+                return new ThreadTag.WorkerPoolExecutor(pool);
+            }
+        }
+        return executor;
+    }
+
+    /** Sets the executor the threads of this group run on */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * If true the threads of this group run on the {@link WorkerPool} of the
+     * context, if it has one.
+     */
+    public void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /** If true the tag waits until all of the threads of the group are done */
+    public void setJoin(boolean join) {
+        this.join = join;
+    }
+
+    /**
+     * Sets how long the tag waits for the whole group when <code>join</code>
+     * is set. If <= 0 the tag waits until all of the threads are done.
+     * @param timeout in millis
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
 }
@@ -16,12 +16,25 @@
  */
 package org.apache.commons.jelly.tags.threads;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * Adds some functionality to the jdk thread class.
  *
+ * <p>If an {@link Executor} is set the thread is not started as a thread of
+ * its own. Instead {@link #start()} hands it to the executor, so that many
+ * JellyThreads can share a small number of real threads. Completion is
+ * tracked by the {@link RunnableStatus}, which should be used rather than
+ * <code>Thread.join()</code> or <code>isAlive()</code> to wait for a
+ * JellyThread.</p>
+ *
  * @author <a href="mailto:jason@jhorman.org">Jason Horman</a>
  */
 
@@ -29,23 +42,17 @@ public class JellyThread extends Thread {
     /** The Log to which logging calls will be made. */
     private static final Log log = LogFactory.getLog(ThreadTag.class);
 
-    /** While this thread is still running it owns this mutex */
-    private Mutex runningMutex = new Mutex();
     /** The Runnable target */
     private Runnable target = null;
+    /** The executor to run on, or null to run as a thread of its own */
+    private Executor executor = null;
+    /** The thread which is currently running the target */
+    private volatile Thread runner = null;
 
     /** Tracks the status of this thread */
     RunnableStatus status = new RunnableStatus();
 
     public JellyThread() {
-        // acquire my still running lock immediately
-        while (true) {
-            try {
-                runningMutex.acquire();
-                break;
-            } catch (InterruptedException e) {
-            }
-        }
     }
 
     /**
@@ -55,10 +62,68 @@ public class JellyThread extends Thread {
         this.target = target;
     }
 
+    /**
+     * Sets the executor which runs this thread when it is started. If null,
+     * the default, this thread is started as a thread of its own.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the executor which runs this thread or null
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Starts this thread, either as a thread of its own or by handing it
+     * to the executor.
+     */
+    public void start() {
+        if (executor == null) {
+            super.start();
+            return;
+        }
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            status.set(RunnableStatus.KILLED, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Interrupts the thread which is running this thread's target. When
+     * running on an executor this is the pool thread, and only while the
+     * target is running.
+     */
+    public void interrupt() {
+        if (executor == null) {
+            super.interrupt();
+            return;
+        }
+        synchronized (this) {
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+    }
+
     /**
      * Run the thread
      */
     public void run() {
+        Thread current = Thread.currentThread();
+        String oldName = current.getName();
+        if (current != this) {
+            // running on an executor thread, which is named after us meanwhile
+            synchronized (this) {
+                runner = current;
+            }
+            current.setName(getName());
+        }
         log.debug("Starting thread \"" + getName() + "\"");
 
         // run the runnable item
@@ -87,42 +152,108 @@ public class JellyThread extends Thread {
             log.error("Thread \"" + getName() + "\" failure, " + e.getMessage());
             log.debug(e);
 
+        } finally {
+            if (current != this) {
+                synchronized (this) {
+                    runner = null;
+                }
+                // don't leak our name or an interrupt into the next task of the pool
+                current.setName(oldName);
+                Thread.interrupted();
+            }
+            // an Error is still a failure, and waiting threads must not hang
+            if (!status.isDone()) {
+                status.set(RunnableStatus.FAILURE);
+            }
         }
 
-        // release the i'm still running mutex
-        runningMutex.release();
-
         log.debug("Thread \"" + getName() + "\" finished");
     }
 
     /**
      * Call this method from a different thread to wait until this thread is done. This
      * is used by the {@link WaitForTag} class.
+     *
+     * @param howLong the time to wait in milliseconds, -1 waits until the thread is done
+     * @throws TimeoutException if the thread is still running after howLong
      */
     public void waitUntilDone(long howLong) throws TimeoutException {
-        if (Thread.currentThread() == this) {
+        if (isCurrentThread()) {
             throw new RuntimeException("This method should be called from a different thread than itself");
         }
 
-        // wait until the calling thread can acquire the lock
-        while (true) {
-            try {
-                if (howLong == -1) {
-                    runningMutex.acquire();
-                    break;
-                } else if (!runningMutex.attempt(howLong)) {
-                    throw new TimeoutException("max wait time exceeded");
-                }
-            } catch (InterruptedException e) {
+        if (!awaitUninterruptibly(status.getCompletion(), howLong)) {
+            throw new TimeoutException("max wait time exceeded");
+        }
+    }
+
+    /**
+     * Waits until this thread is done, like <code>Thread.join()</code> but also
+     * for threads running on an executor.
+     *
+     * @param howLong the time to wait in milliseconds, if <= 0 waits until the thread is done
+     * @return true if the thread is done
+     */
+    public boolean awaitDone(long howLong) throws InterruptedException {
+        try {
+            if (howLong > 0) {
+                status.getCompletion().get(howLong, TimeUnit.MILLISECONDS);
+            } else {
+                status.getCompletion().get();
             }
+            return true;
+        } catch (java.util.concurrent.TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            // the completion of a status never fails
+            return true;
         }
+    }
 
-        // release the lock, just needed it to get started
-        runningMutex.release();
+    /**
+     * @return true if the calling thread is the one running this thread's target
+     */
+    boolean isCurrentThread() {
+        Thread current = Thread.currentThread();
+        return current == this || current == runner;
     }
 
     /** Get the status of this thread */
     public RunnableStatus getStatus() {
         return status;
     }
+
+    /**
+     * Waits for the future to complete, carrying on waiting if the calling
+     * thread is interrupted. The interrupt is restored before returning.
+     *
+     * @param howLong the time to wait in milliseconds, -1 waits forever
+     * @return false if the future did not complete in time
+     */
+    static boolean awaitUninterruptibly(Future future, long howLong) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(howLong);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (howLong == -1) {
+                        future.get();
+                    } else {
+                        future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    }
+                    return true;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (java.util.concurrent.TimeoutException e) {
+                    return false;
+                } catch (ExecutionException e) {
+                    return true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
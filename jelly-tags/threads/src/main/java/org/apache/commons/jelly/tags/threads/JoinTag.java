@@ -19,6 +19,8 @@ package org.apache.commons.jelly.tags.threads;
 import org.apache.commons.jelly.XMLOutput;
 
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A thread join waits until a thread or threadGroup is complete.
@@ -35,16 +37,47 @@ public class JoinTag extends UseThreadTag {
         joinThread(thread);
     }
 
-    /** Join all of the threads in a thread group */
+    /**
+     * Join all of the threads in a thread group. The timeout applies to the
+     * group as a whole.
+     */
     protected void useThreadGroup(List threadGroup, XMLOutput output) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            if (timeout > 0) {
+                GroupTag.getCompletion(threadGroup).get(timeout, TimeUnit.MILLISECONDS);
+            } else {
+                GroupTag.getCompletion(threadGroup).get();
+            }
+        } catch (java.util.concurrent.TimeoutException e) {
+            // like Thread.join(), just stop waiting
+            return;
+        } catch (ExecutionException e) {
+            // the completion of a status never fails
+        }
+        // any plain threads in the group share what is left of the timeout
         for (int i = 0; i < threadGroup.size(); i++) {
-            joinThread((Thread) threadGroup.get(i));
+            Thread thread = (Thread) threadGroup.get(i);
+            if (!(thread instanceof JellyThread)) {
+                if (timeout > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return;
+                    }
+                    thread.join(remaining);
+                } else {
+                    thread.join();
+                }
+            }
         }
     }
 
     /** Join a thread */
     private void joinThread(Thread thread) throws InterruptedException {
-        if (timeout > 0) {
+        if (thread instanceof JellyThread) {
+            // a JellyThread may run on an executor so Thread.join() cannot be used
+            ((JellyThread) thread).awaitDone(timeout);
+        } else if (timeout > 0) {
             thread.join(timeout);
         } else {
             thread.join();
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.threads;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The mutex created by the {@link MutexTag}. It is either a reentrant lock,
+ * which supports the wait and notify tags, or a semaphore which lets up to
+ * a given number of threads hold it at once. Either can be fair, in which
+ * case waiting threads get the mutex in the order they asked for it.
+ *
+ * @version $Revision$
+ */
+
+public class MutexLock {
+    /** The lock, or null if this mutex is a semaphore */
+    private final ReentrantLock lock;
+    /** The condition used to wait and notify on the lock */
+    private final Condition condition;
+    /** The semaphore, or null if this mutex is a lock */
+    private final Semaphore semaphore;
+
+    /**
+     * Creates a lock
+     */
+    public MutexLock(boolean fair) {
+        this(fair, 0);
+    }
+
+    /**
+     * Creates a lock or, if permits is greater than zero, a semaphore
+     * which can be held by that many threads at once
+     */
+    public MutexLock(boolean fair, int permits) {
+        if (permits > 0) {
+            this.lock = null;
+            this.condition = null;
+            this.semaphore = new Semaphore(permits, fair);
+        } else {
+            this.lock = new ReentrantLock(fair);
+            this.condition = lock.newCondition();
+            this.semaphore = null;
+        }
+    }
+
+    public String toString() {
+        return super.toString() + "[" + (lock != null ? lock.toString() : semaphore.toString()) + "]";
+    }
+
+    /**
+     * Acquires the mutex.
+     *
+     * @param timeout how long to wait in millis, if < 0 wait until the mutex
+     *  is available, ignoring interrupts like a synchronized block would
+     * @return false if the mutex could not be acquired in time
+     */
+    public boolean acquire(long timeout) throws InterruptedException {
+        if (lock != null) {
+            if (timeout < 0) {
+                lock.lock();
+                return true;
+            }
+            return lock.tryLock(timeout, TimeUnit.MILLISECONDS);
+        }
+        if (timeout < 0) {
+            semaphore.acquireUninterruptibly();
+            return true;
+        }
+        return semaphore.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Releases the mutex
+     */
+    public void release() {
+        if (lock != null) {
+            lock.unlock();
+        } else {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Releases the lock and waits until notified, like <code>Object.wait()</code>.
+     * The calling thread must hold the lock.
+     *
+     * @param timeout how long to wait in millis, if <= 0 wait until notified
+     * @throws IllegalStateException if this mutex is a semaphore
+     */
+    public void await(long timeout) throws InterruptedException {
+        checkCondition();
+        if (timeout > 0) {
+            condition.await(timeout, TimeUnit.MILLISECONDS);
+        } else {
+            condition.await();
+        }
+    }
+
+    /**
+     * Wakes up one or all of the threads waiting on this lock, like
+     * <code>Object.notify()</code>. The calling thread must hold the lock.
+     *
+     * @throws IllegalStateException if this mutex is a semaphore
+     */
+    public void signal(boolean all) {
+        checkCondition();
+        if (all) {
+            condition.signalAll();
+        } else {
+            condition.signal();
+        }
+    }
+
+    /**
+     * @return whether waiting threads get the mutex in the order they asked for it
+     */
+    public boolean isFair() {
+        return (lock != null) ? lock.isFair() : semaphore.isFair();
+    }
+
+    /**
+     * @return true if this mutex is a semaphore rather than a lock
+     */
+    public boolean isSemaphore() {
+        return semaphore != null;
+    }
+
+    private void checkCondition() {
+        if (condition == null) {
+            throw new IllegalStateException("Cannot wait or notify on a mutex with permits");
+        }
+    }
+}
@@ -22,7 +22,9 @@ import org.apache.commons.jelly.TagSupport;
 import org.apache.commons.jelly.XMLOutput;
 
 /**
- * Creates a mutex object and stores it in a variable
+ * Creates a mutex object and stores it in a variable. The mutex is a
+ * {@link MutexLock}, which can be fair and, by setting <code>permits</code>,
+ * can be held by a number of threads at once.
  *
  * @author <a href="mailto:jason@jhorman.org">Jason Horman</a>
  */
@@ -30,6 +32,10 @@ import org.apache.commons.jelly.XMLOutput;
 public class MutexTag extends TagSupport {
     /** The variable name of the mutex */
     private String var = null;
+    /** Should waiting threads get the mutex in the order they asked for it */
+    private boolean fair = false;
+    /** How many threads may hold the mutex at once, if <= 0 it is a plain lock */
+    private int permits = 0;
 
     /** Create and set the mutex */
     public void doTag(XMLOutput output) throws JellyTagException {
@@ -37,7 +43,7 @@ public class MutexTag extends TagSupport {
             throw new JellyTagException("mutexes require a var attribute");
         }
 
-        context.setVariable(var, this);
+        context.setVariable(var, new MutexLock(fair, permits));
     }
 
     /**
@@ -47,4 +53,20 @@ public class MutexTag extends TagSupport {
     public void setVar(String var) {
         this.var = var;
     }
+
+    /**
+     * If true waiting threads get the mutex in the order they asked for it.
+     * Defaults to false.
+     */
+    public void setFair(boolean fair) {
+        this.fair = fair;
+    }
+
+    /**
+     * Sets how many threads may hold the mutex at once. A mutex with permits
+     * is a semaphore which cannot be used with the wait and notify tags.
+     */
+    public void setPermits(int permits) {
+        this.permits = permits;
+    }
 }
@@ -17,6 +17,7 @@
 
 package org.apache.commons.jelly.tags.threads;
 
+import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.XMLOutput;
 
 /**
@@ -31,8 +32,15 @@ public class NotifyTag extends UseMutexTag {
     private boolean notifyAll = false;
 
     /** Perform the notify */
-    public void useMutex(Object mutex, XMLOutput output) {
-        if (notifyAll) {
+    public void useMutex(Object mutex, XMLOutput output) throws JellyTagException {
+        if (mutex instanceof MutexLock) {
+            try {
+                ((MutexLock) mutex).signal(notifyAll);
+            }
+            catch (IllegalStateException e) {
+                throw new JellyTagException(e);
+            }
+        } else if (notifyAll) {
             mutex.notifyAll();
         } else {
             mutex.notify();
@@ -17,8 +17,12 @@
 
 package org.apache.commons.jelly.tags.threads;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
- * Represents the status of {@link JellyThread}.
+ * Represents the status of {@link JellyThread}. Once a status other than
+ * NONE is set the {@link #getCompletion() completion} of this status
+ * completes, which is how other threads wait for the thread to finish.
  *
  * @author <a href="mailto:jason@jhorman.org">Jason Horman</a>
  */
@@ -36,6 +40,9 @@ public class RunnableStatus {
     /** On a status change to FAILURE an exception can be set */
     private Exception exception = null;
 
+    /** Completes with this status once the status is no longer NONE */
+    private final CompletableFuture completion = new CompletableFuture();
+
     public RunnableStatus() {
 
     }
@@ -58,6 +65,9 @@ public class RunnableStatus {
             if (e != null)
                 this.exception = e;
         }
+        if (status != NONE) {
+            completion.complete(this);
+        }
     }
 
     public synchronized int get() {
@@ -88,6 +98,20 @@ public class RunnableStatus {
         return exception;
     }
 
+    /**
+     * Returns a future which completes with this status as soon as a status
+     * other than NONE has been set. It never completes exceptionally, a
+     * failure is reported by the status itself.
+     */
+    public CompletableFuture getCompletion() {
+        return completion;
+    }
+
+    /** @return true once a status other than NONE has been set */
+    public boolean isDone() {
+        return completion.isDone();
+    }
+
     public synchronized boolean equals(RunnableStatus status) {
         return status.get() == this.status;
     }
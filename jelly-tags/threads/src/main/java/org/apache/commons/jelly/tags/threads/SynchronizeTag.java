@@ -23,17 +23,49 @@ import org.apache.commons.jelly.XMLOutput;
 /**
  * Synchronize a block inside of a thread using the passed in mutex. The
  * mutex object passed in does not have to have been created using the
- * mutex tag, it can be any object at all.
+ * mutex tag, it can be any object at all. A timeout can only be used with
+ * mutexes created by the mutex tag.
  *
  * @author <a href="mailto:jason@jhorman.org">Jason Horman</a>
  */
 
 public class SynchronizeTag extends UseMutexTag {
+    /** How long to wait for the mutex. If < 0 wait until it is available. */
+    private long timeout = -1;
+
     /** Synchronize on the mutex */
     protected void useMutex(Object mutex, XMLOutput output) throws JellyTagException {
-        synchronized (mutex) {
-            invokeBody(output);
+        if (mutex instanceof MutexLock) {
+            MutexLock lock = (MutexLock) mutex;
+            try {
+                if (!lock.acquire(timeout)) {
+                    throw new TimeoutException("timed out waiting for the mutex");
+                }
+            }
+            catch (InterruptedException e) {
+                throw new JellyTagException(e);
+            }
+            try {
+                invokeBody(output);
+            }
+            finally {
+                lock.release();
+            }
+        }
+        else {
+            synchronized (mutex) {
+                invokeBody(output);
+            }
         }
     }
+
+    /**
+     * Set how long to wait for the mutex before a {@link TimeoutException}
+     * is thrown. If < 0, the default, the tag waits until the mutex is available.
+     * @param timeout in millis
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
 }
 
@@ -21,6 +21,7 @@ import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.TagSupport;
 import org.apache.commons.jelly.XMLOutput;
 import org.apache.commons.jelly.util.NestedRuntimeException;
+import org.apache.commons.jelly.util.WorkerPool;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -28,11 +29,21 @@ import org.apache.commons.logging.LogFactory;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * A tag that spawns the contained script in a separate thread.  A thread
  * can wait on another thread or another thread group to finish before starting.
  *
+ * <p>By default each thread tag starts a new thread. Scripts which start many
+ * threads can instead run them on a shared executor, either one given by the
+ * <code>executor</code> attribute or, with <code>pooled="true"</code>, the
+ * {@link WorkerPool} of the context. A thread nested in a group uses the
+ * executor of the group unless it sets its own. A pooled thread started by a
+ * thread which is already running on the pool gets a new thread instead, so
+ * that threads waiting for the threads they start cannot exhaust the pool.</p>
+ *
  * @author <a href="mailto:vinayc@apache.org">Vinay Chandran</a>
  * @author <a href="mailto:jason@jhorman.org">Jason Horman</a>
  */
@@ -57,8 +68,12 @@ public class ThreadTag extends TagSupport {
     private boolean closeOutput;
     /** Should a new context be created */
     private boolean newContext = false;
-    /** Keep a reference to the thread */
-    private JellyThread thread = new JellyThread();
+    /** The executor to run the thread on, or null to start a new thread */
+    private Executor executor = null;
+    /** Should the thread run on the worker pool of the context */
+    private boolean pooled = false;
+    /** Keep a reference to the thread, created each time the tag runs */
+    private JellyThread thread = null;
 
     public ThreadTag() {
         super();
@@ -84,6 +99,9 @@ public class ThreadTag extends TagSupport {
         // lets create a child context
         final JellyContext useThisContext = newContext ? context.newJellyContext() : context;
 
+        // a thread can only be started once, so use a new one each time
+        thread = new JellyThread();
+
         // set the target to run
         thread.setTarget(new Runnable() {
             public void run() {
@@ -139,6 +157,10 @@ public class ThreadTag extends TagSupport {
         // set whether this thread is a daemon thread
         thread.setDaemon(daemon);
 
+        // run on an executor rather than a thread of our own
+        GroupTag gt = (GroupTag) findAncestorWithClass(GroupTag.class);
+        thread.setExecutor(findExecutor(gt));
+
         // save the thread in a context variable
         if (var != null) {
             context.setVariable(var, thread);
@@ -147,7 +169,6 @@ public class ThreadTag extends TagSupport {
         // check if this tag is nested inside a group tag. if so
         // add this thread to the thread group but do not start it.
         // all threads in a thread group should start together.
-        GroupTag gt = (GroupTag) findAncestorWithClass(GroupTag.class);
         if (gt != null) {
             gt.addThread(thread);
         } else {
@@ -214,10 +235,71 @@ public class ThreadTag extends TagSupport {
     }
 
     /**
-     * Get the thread instance
+     * Sets the executor which runs the thread rather than starting a new thread
+     * for it. The executor is typically shared by many thread tags.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * If true the thread runs on the {@link WorkerPool} of the context, if it
+     * has one, rather than on a new thread.
+     */
+    public void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Get the thread instance, which is created when the tag runs.
      * @return The thread
      */
     public Thread getThread() {
+        if (thread == null) {
+            // the tag has not run in this thread
+            thread = new JellyThread();
+        }
         return thread;
     }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the executor to run the thread on, or null to start a new thread
+     */
+    protected Executor findExecutor(GroupTag group) {
+        if (executor != null) {
+            return executor;
+        }
+        if (pooled) {
+            WorkerPool pool = context.getWorkerPool();
+            if (pool != null && pool.isWorkerThread()) {
+                log.debug("Starting a new thread as the current thread belongs to the worker pool");
+                return null;
+            }
+            if (pool != null) {
+                return new WorkerPoolExecutor(pool);
+            }
+        }
+        if (group != null) {
+            return group.getExecutor();
+        }
+        return null;
+    }
+
+    /**
+     * Adapts a {@link WorkerPool} to an Executor
+     */
+    static class WorkerPoolExecutor implements Executor {
+        private final WorkerPool pool;
+
+        WorkerPoolExecutor(WorkerPool pool) {
+            this.pool = pool;
+        }
+
+        public void execute(Runnable command) {
+            pool.submit(Executors.callable(command));
+        }
+    }
 }
@@ -62,7 +62,7 @@ public class WaitForTag extends TagSupport {
 
     /**
      * Set how long to wait for the thread to finish. If waiting for a group
-     * this will be the time to wait for each thread in the group to finish.
+     * this is the time to wait for all of the threads in the group to finish.
      */
     public void setOnlyWait(long onlyWait) {
         this.onlyWait = onlyWait;
@@ -88,12 +88,19 @@ public class WaitForTag extends TagSupport {
             }
         }
 
-        // wait on the threadgroup
+        // wait on the threadgroup, with one deadline for the whole group
         if (group != null) {
             for (int i = 0; i < group.size(); i++) {
-                JellyThread gthread = (JellyThread) group.get(i);
-                gthread.waitUntilDone(onlyWait);
-                if (status != RunnableStatus.NONE) {
+                if (((JellyThread) group.get(i)).isCurrentThread()) {
+                    throw new JellyTagException("A thread cannot wait for its own group");
+                }
+            }
+            if (!JellyThread.awaitUninterruptibly(GroupTag.getCompletion(group), onlyWait)) {
+                throw new TimeoutException("max wait time exceeded");
+            }
+            if (status != RunnableStatus.NONE) {
+                for (int i = 0; i < group.size(); i++) {
+                    JellyThread gthread = (JellyThread) group.get(i);
                     if (!gthread.getStatus().equals(status)) {
                         throw new RequirementException("Requirement on thread \"" + gthread.getName() + "\" not met");
                     }
@@ -33,7 +33,9 @@ public class WaitTag extends UseMutexTag {
     /** Start waiting */
     public void useMutex(Object mutex, XMLOutput output) throws JellyTagException {
         try {
-            if (timeout > 0) {
+            if (mutex instanceof MutexLock) {
+                ((MutexLock) mutex).await(timeout);
+            } else if (timeout > 0) {
                 mutex.wait(timeout);
             } else {
                 mutex.wait();
@@ -42,6 +44,9 @@ public class WaitTag extends UseMutexTag {
         catch (InterruptedException e) {
             throw new JellyTagException(e);
         }
+        catch (IllegalStateException e) {
+            throw new JellyTagException(e);
+        }
     }
 
     /**
@@ -20,16 +20,33 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Collections;
 
+import org.apache.commons.jelly.MissingAttributeException;
+
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.XMLOutput;
 import org.apache.commons.jelly.xpath.XPathComparator;
 import org.apache.commons.jelly.xpath.XPathSource;
 import org.apache.commons.jelly.xpath.XPathTagSupport;
 
+import org.dom4j.Element;
+import org.dom4j.ElementHandler;
+import org.dom4j.ElementPath;
+import org.dom4j.Node;
+import org.dom4j.io.SAXReader;
 import org.jaxen.XPath;
 import org.jaxen.JaxenException;
 
 /** A tag which performs an iteration over the results of an XPath expression
+  *
+  * <p>If the <code>path</code> attribute is specified the document given by
+  * the <code>xml</code> attribute is streamed rather than parsed into memory.
+  * The body is invoked for each element matching the path, such as
+  * <code>/feed/entry</code>, as soon as it has been parsed and the element is
+  * discarded afterwards. Only the current element and its ancestors are kept
+  * in memory, without any text or comments between the elements, so documents
+  * of any size can be processed. If a
+  * <code>select</code> expression is given too it is evaluated against each
+  * matching element and the body is invoked for each selected node.</p>
   *
   * @author <a href="mailto:jstrachan@apache.org">James Strachan</a>
   * @version $Revision$
@@ -49,6 +66,12 @@ public class ForEachTag extends XPathTagSupport implements XPathSource {
     /** The current iteration value */
     private Object iterationValue;
 
+    /** The document to stream, a String URI, URL, File, Reader or InputStream */
+    private Object xml;
+
+    /** The path of the elements to iterate over when streaming */
+    private String path;
+
 
     public ForEachTag() {
     }
@@ -56,7 +79,10 @@ public class ForEachTag extends XPathTagSupport implements XPathSource {
     // Tag interface
     //-------------------------------------------------------------------------
     public void doTag(XMLOutput output) throws JellyTagException {
-        if (select != null) {
+        if (path != null) {
+            stream(output);
+        }
+        else if (select != null) {
             List nodes = null;
             try {
                 nodes = select.selectNodes( getXPathContext() );
@@ -64,20 +90,7 @@ public class ForEachTag extends XPathTagSupport implements XPathSource {
             catch (JaxenException e) {
                 throw new JellyTagException(e);
             }
-
-            // sort the list if xpCmp is set.
-            if (xpCmp != null && (xpCmp.getXpath() != null)) {
-                Collections.sort(nodes, xpCmp);
-            }
-
-            Iterator iter = nodes.iterator();
-            while (iter.hasNext()) {
-                iterationValue = iter.next();
-                if (var != null) {
-                    context.setVariable(var, iterationValue);
-                }
-                invokeBody(output);
-            }
+            iterate(nodes, output);
         }
     }
 
@@ -106,6 +119,20 @@ public class ForEachTag extends XPathTagSupport implements XPathSource {
         this.var = var;
     }
 
+    /** Sets the document to stream when a path is given, which can be a
+     * String URI, URL, File, Reader or InputStream
+     */
+    public void setXml(Object xml) {
+        this.xml = xml;
+    }
+
+    /** Sets the path of the elements to iterate over while the document
+     * given by the xml attribute is streamed, such as <code>/feed/entry</code>
+     */
+    public void setPath(String path) {
+        this.path = path;
+    }
+
     /** Sets the xpath expression to use to sort selected nodes.
      */
     public void setSort(XPath sortXPath) throws JaxenException {
@@ -128,4 +155,120 @@ public class ForEachTag extends XPathTagSupport implements XPathSource {
         return super.getXPathContext();
     }
 
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Invokes the body for each of the given nodes, sorting them first if
+     * required
+     */
+    protected void iterate(List nodes, XMLOutput output) throws JellyTagException {
+        // sort the list if xpCmp is set.
+        if (xpCmp != null && (xpCmp.getXpath() != null)) {
+            Collections.sort(nodes, xpCmp);
+        }
+
+        Iterator iter = nodes.iterator();
+        while (iter.hasNext()) {
+            iterationValue = iter.next();
+            if (var != null) {
+                context.setVariable(var, iterationValue);
+            }
+            invokeBody(output);
+        }
+    }
+
+    /**
+     * Streams the document, invoking the body for each element matching the
+     * path and discarding everything else once it has been parsed
+     */
+    protected void stream(final XMLOutput output) throws JellyTagException {
+        if (xml == null) {
+            throw new MissingAttributeException("xml");
+        }
+
+        final JellyTagException[] failure = new JellyTagException[1];
+        SAXReader reader = new SAXReader();
+        reader.setMergeAdjacentText(true);
+        reader.addHandler(path, new ElementHandler() {
+            public void onStart(ElementPath elementPath) {
+            }
+
+            public void onEnd(ElementPath elementPath) {
+                Element element = elementPath.getCurrent();
+                for (Element parent = element.getParent(); parent != null; parent = parent.getParent()) {
+                    prune(parent);
+                }
+                try {
+                    if (failure[0] == null) {
+                        List nodes = (select != null)
+                            ? select.selectNodes(element)
+                            : Collections.singletonList(element);
+                        iterate(nodes, output);
+                    }
+                }
+                catch (JaxenException e) {
+                    failure[0] = new JellyTagException(e);
+                }
+                catch (JellyTagException e) {
+                    failure[0] = e;
+                }
+                finally {
+                    element.detach();
+                }
+                if (failure[0] != null) {
+                    // stop parsing, the failure is rethrown below
+                    throw (IllegalStateException) new IllegalStateException(
+                        failure[0].getMessage()).initCause(failure[0]);
+                }
+            }
+        });
+        // prune elements outside of the matching ones as soon as they end
+        reader.setDefaultHandler(new ElementHandler() {
+            public void onStart(ElementPath elementPath) {
+            }
+
+            public void onEnd(ElementPath elementPath) {
+                Element element = elementPath.getCurrent();
+                Element parent = element.getParent();
+                element.detach();
+                if (parent != null) {
+                    prune(parent);
+                }
+            }
+        });
+
+        try {
+            ParseTagSupport.read(reader, xml, context);
+        }
+        catch (JellyTagException e) {
+            if (failure[0] == null) {
+                throw e;
+            }
+        }
+        catch (IllegalStateException e) {
+            if (failure[0] == null) {
+                throw e;
+            }
+        }
+        finally {
+            iterationValue = null;
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    /**
+     * Removes the text, comments and other non element content of the given
+     * element, which is left behind as its child elements are discarded
+     */
+    private static void prune(Element element) {
+        for (int i = element.nodeCount() - 1; i >= 0; i--) {
+            Node node = element.node(i);
+            if (!(node instanceof Element)) {
+                element.remove(node);
+            }
+        }
+    }
 }
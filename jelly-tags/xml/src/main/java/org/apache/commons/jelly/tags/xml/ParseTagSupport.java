@@ -23,6 +23,7 @@ import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 
+import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.TagSupport;
 import org.apache.commons.jelly.XMLOutput;
@@ -155,7 +156,20 @@ public abstract class ParseTagSupport extends TagSupport {
         // #### we should allow parsing to output XML events to
         // the output if no var is specified
 
+        try {
+            return read(getSAXReader(), source, context);
+        }
+        catch (SAXException e) {
+            throw new JellyTagException(e);
+        }
+    }
 
+    /**
+     * Reads the given source, which may be a String URI, URL, File, Reader or
+     * InputStream, with the given SAXReader. String URIs are resolved
+     * relative to the given context.
+     */
+    public static Document read(SAXReader reader, Object source, JellyContext context) throws JellyTagException {
         try {
             if (source instanceof String) {
                 String uri = (String) source;
@@ -163,16 +177,16 @@ public abstract class ParseTagSupport extends TagSupport {
             }
 
             if (source instanceof URL) {
-                return getSAXReader().read((URL) source);
+                return reader.read((URL) source);
             }
             else if (source instanceof File) {
-                return getSAXReader().read((File) source);
+                return reader.read((File) source);
             }
             else if (source instanceof Reader) {
-                return getSAXReader().read((Reader) source);
+                return reader.read((Reader) source);
             }
             else if (source instanceof InputStream) {
-                return getSAXReader().read((InputStream) source);
+                return reader.read((InputStream) source);
             }
             else {
                 throw new IllegalArgumentException(
@@ -186,9 +200,6 @@ public abstract class ParseTagSupport extends TagSupport {
         catch (DocumentException e) {
             throw new JellyTagException(e);
         }
-        catch (SAXException e) {
-            throw new JellyTagException(e);
-        }
         catch (MalformedURLException e) {
             throw new JellyTagException(e);
         }
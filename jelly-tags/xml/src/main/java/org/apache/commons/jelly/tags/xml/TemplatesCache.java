@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.util.FileStamp;
+import org.apache.commons.jelly.util.StampedCache;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p><code>TemplatesCache</code> is a bounded, thread safe cache of compiled
+ * XSLT stylesheets, used by {@link TransformTag} so that a stylesheet loaded
+ * from a URL is only compiled once rather than on every transform.</p>
+ *
+ * <p>Stylesheets are keyed by their URL together with the root and current URL
+ * of the context, which are used to resolve any stylesheets they include.
+ * When {@link #isCheckModified()} is enabled, stylesheets loaded from local
+ * files are recompiled when the file changes. Changes to included stylesheets
+ * are not detected.</p>
+ *
+ * @version $Revision$
+ */
+public class TemplatesCache {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(TemplatesCache.class);
+
+    /** The default maximum number of cached stylesheets */
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    /** the cached stylesheets */
+    private final StampedCache cache;
+
+    public TemplatesCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public TemplatesCache(int maxSize) {
+        cache = new StampedCache(maxSize);
+    }
+
+    /**
+     * Returns the compiled stylesheet at the given URL, compiling it with the
+     * given factory if it is not cached or has been modified.
+     *
+     * @param url the URL of the stylesheet
+     * @param context the context used to resolve the stylesheet and its includes
+     * @param factory the factory used to compile the stylesheet, which should
+     *  already have the URIResolver set
+     */
+    public Templates getTemplates(URL url, JellyContext context, TransformerFactory factory)
+        throws TransformerConfigurationException {
+        Key key = new Key(url, context);
+        Templates templates = (Templates) cache.get(key);
+        if (templates != null) {
+            return templates;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Compiling stylesheet: " + url);
+        }
+        FileStamp stamp = cache.stamp(url);
+        InputStream in = context.getResourceAsStream(url.toString());
+        try {
+            templates = factory.newTemplates(new StreamSource(in, url.toString()));
+        }
+        finally {
+            if (in != null) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                    log.debug("could not close stylesheet: " + url, e);
+                }
+            }
+        }
+        cache.put(key, templates, stamp);
+        return templates;
+    }
+
+    /**
+     * Removes all the cached stylesheets
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the maximum number of cached stylesheets
+     */
+    public int getMaxSize() {
+        return cache.getMaxSize();
+    }
+
+    /**
+     * Sets the maximum number of cached stylesheets, after which the least
+     * recently used stylesheet is discarded
+     */
+    public void setMaxSize(int maxSize) {
+        cache.setMaxSize(maxSize);
+    }
+
+    /**
+     * @return whether stylesheets loaded from local files are recompiled
+     * when the file changes
+     */
+    public boolean isCheckModified() {
+        return cache.isCheckModified();
+    }
+
+    /**
+     * Sets whether stylesheets loaded from local files are recompiled
+     * when the file changes
+     */
+    public void setCheckModified(boolean checkModified) {
+        cache.setCheckModified(checkModified);
+    }
+
+    /**
+     * @return the number of stylesheets currently cached
+     */
+    public int getSize() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of lookups which found a cached stylesheet
+     */
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * @return the number of lookups which compiled the stylesheet
+     */
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * The key of a cached stylesheet
+     */
+    private static final class Key {
+        private final String url;
+        private final String rootURL;
+        private final String currentURL;
+        private final int hashCode;
+
+        Key(URL url, JellyContext context) {
+            this.url = url.toExternalForm();
+            this.rootURL = toString(context.getRootURL());
+            this.currentURL = toString(context.getCurrentURL());
+            int hash = this.url.hashCode();
+            hash = 31 * hash + (rootURL == null ? 0 : rootURL.hashCode());
+            hash = 31 * hash + (currentURL == null ? 0 : currentURL.hashCode());
+            this.hashCode = hash;
+        }
+
+        private static String toString(URL url) {
+            return url == null ? null : url.toExternalForm();
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) object;
+            return url.equals(key.url)
+                && (rootURL == null ? key.rootURL == null : rootURL.equals(key.rootURL))
+                && (currentURL == null ? key.currentURL == null : currentURL.equals(key.currentURL));
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import java.util.List;
 
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -72,7 +73,11 @@ import org.xml.sax.helpers.XMLReaderFactory;
   * xml property which can be a Reader, InputStream, URL or String URI.
   *
   * The XSL can be passed in via the
-  * xslt property which can be a Reader, InputStream, URL or String URI.
+  * xslt property which can be a Reader, InputStream, URL, String URI or
+  * a precompiled <code>javax.xml.transform.Templates</code> object.
+  * Stylesheets given as a URL, File or String URI are compiled once and
+  * cached in a {@link TemplatesCache} shared by all transform tags, unless
+  * the cacheTemplates property is false.
   *
   * @author Robert Leftwich
   * @version $Revision$
@@ -89,6 +94,12 @@ public class TransformTag extends ParseTag {
     /** The xslt to parse, either a String URI, a Reader or InputStream */
     private Object xslt;
 
+    /** The compiled stylesheets shared by all transform tags */
+    private static final TemplatesCache templatesCache = new TemplatesCache();
+
+    /** Whether stylesheets loaded from a URL are cached */
+    private boolean cacheTemplates = true;
+
     /** The xsl transformer factory */
     private SAXTransformerFactory tf;
 
@@ -122,8 +133,14 @@ public class TransformTag extends ParseTag {
         this.tf.setURIResolver(createURIResolver());
 
         try {
-            this.transformerHandler =
-                this.tf.newTransformerHandler(this.getObjAsSAXSource(this.getXslt()));
+            Templates templates = this.getTemplates(this.getXslt());
+            if (null != templates) {
+                this.transformerHandler = this.tf.newTransformerHandler(templates);
+            }
+            else {
+                this.transformerHandler =
+                    this.tf.newTransformerHandler(this.getObjAsSAXSource(this.getXslt()));
+            }
         }
         catch (TransformerConfigurationException e) {
             throw new JellyTagException(e);
@@ -169,8 +186,8 @@ public class TransformTag extends ParseTag {
     //-------------------------------------------------------------------------
 
     /**
-     * Gets the source of the XSL which is either a String URI, Reader or
-     * InputStream
+     * Gets the source of the XSL which is either a String URI, Reader,
+     * InputStream or precompiled Templates
      *
      * @returns xslt    The source of the xslt
      */
@@ -179,8 +196,8 @@ public class TransformTag extends ParseTag {
     }
 
     /**
-     * Sets the source of the XSL which is either a String URI, Reader or
-     * InputStream
+     * Sets the source of the XSL which is either a String URI, Reader,
+     * InputStream or precompiled Templates
      *
      * @param xslt    The source of the xslt
      */
@@ -188,6 +205,31 @@ public class TransformTag extends ParseTag {
         this.xslt = xslt;
     }
 
+    /**
+     * @return whether stylesheets given as a URL, File or String URI are
+     * compiled once and cached
+     */
+    public boolean isCacheTemplates() {
+        return this.cacheTemplates;
+    }
+
+    /**
+     * Sets whether stylesheets given as a URL, File or String URI are
+     * compiled once and cached, which defaults to true
+     *
+     * @param cacheTemplates    whether to cache the compiled stylesheet
+     */
+    public void setCacheTemplates(boolean cacheTemplates) {
+        this.cacheTemplates = cacheTemplates;
+    }
+
+    /**
+     * @return the cache of compiled stylesheets shared by all transform tags
+     */
+    public static TemplatesCache getTemplatesCache() {
+        return templatesCache;
+    }
+
     public void setParameterValue(String name, Object value) {
         this.transformerHandler.getTransformer().setParameter(name, value);
     }
@@ -224,6 +266,41 @@ public class TransformTag extends ParseTag {
         };
     }
 
+    /**
+     * Helper method to get the compiled stylesheet for the specified object,
+     * either because it already is one or from the cache
+     *
+     * @return the Templates or null if the stylesheet must be compiled each time
+     */
+    protected Templates getTemplates(Object xsltObj) throws TransformerConfigurationException {
+        if (xsltObj instanceof Templates) {
+            return (Templates) xsltObj;
+        }
+        if (!this.cacheTemplates) {
+            return null;
+        }
+        URL url = null;
+        try {
+            if (xsltObj instanceof URL) {
+                url = (URL) xsltObj;
+            }
+            else if (xsltObj instanceof String) {
+                url = context.getResource((String) xsltObj);
+            }
+            else if (xsltObj instanceof File) {
+                url = ((File) xsltObj).toURL();
+            }
+        }
+        catch (MalformedURLException e) {
+            // let the stylesheet be compiled without the cache as before
+            log.debug("Could not resolve the stylesheet: " + xsltObj, e);
+        }
+        if (null == url) {
+            return null;
+        }
+        return templatesCache.getTemplates(url, context, this.tf);
+    }
+
     /**
      * Factory method to create a new SAXResult for the given
      * XMLOutput so that the output of an XSLT transform will go
@@ -28,6 +28,10 @@ import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
 import junit.framework.Assert;
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -245,6 +249,24 @@ public class TestXMLTags extends TestCase {
         assertEquals("Should produce the correct output", "It works!", text);
     }
 
+    public void testTransformTemplatesCache() throws Exception {
+        TemplatesCache cache = TransformTag.getTemplatesCache();
+        evaluateScriptAsText(testBaseDir + "/transformExample.jelly");
+        long hits = cache.getHitCount();
+        String text = evaluateScriptAsText(testBaseDir + "/transformExample.jelly");
+        assertEquals("Should produce the correct output", "It works!", text);
+        assertTrue("The compiled stylesheet should be reused", cache.getHitCount() > hits);
+    }
+
+    public void testTransformPrecompiledTemplates() throws Exception {
+        Templates templates = TransformerFactory.newInstance().newTemplates(
+            new StreamSource(new File(testBaseDir + "/transformExample.xsl")));
+        Map ctxVars = new HashMap();
+        ctxVars.put("templates", templates);
+        String text = evaluateScriptAsText(testBaseDir + "/transformExampleTemplates.jelly", ctxVars);
+        assertEquals("Should produce the correct output", "It works!", text);
+    }
+
     public void testTransformAllInLine() throws Exception {
         String text = evaluateScriptAsText(testBaseDir + "/transformExampleAllInLine.jelly");
         assertEquals("Should produce the correct output", "It works!", text);